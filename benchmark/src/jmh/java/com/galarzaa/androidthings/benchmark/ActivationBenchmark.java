@@ -0,0 +1,58 @@
+package com.galarzaa.androidthings.benchmark;
+
+import com.galarzaa.androidthings.Rc522;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the steps needed to find and select a tag.
+ * <br>
+ * A tag only answers a request while idle and is only selected once, so the benchmarks that need
+ * it idle send it back to that state first. This doesn't involve any SPI traffic.
+ *
+ * @author Allan Galarza
+ */
+public class ActivationBenchmark {
+
+    /**
+     * A tag that answered a request, and is waiting for the anticollision loop
+     */
+    @State(Scope.Thread)
+    public static class ReadyTag {
+        @Setup(Level.Iteration)
+        public void request(SimulatedReader reader){
+            if(!reader.rc522.request()){
+                throw new IllegalStateException("Tag didn't answer the request");
+            }
+            reader.clearCounters();
+        }
+    }
+
+    @Benchmark
+    public boolean request(SimulatedReader reader){
+        reader.simulator.resetCards();
+        reader.countOperation();
+        return reader.rc522.request();
+    }
+
+    @Benchmark
+    public boolean antiCollisionDetect(SimulatedReader reader, ReadyTag tag){
+        reader.countOperation();
+        return reader.rc522.antiCollisionDetect();
+    }
+
+    /**
+     * Selects the tag by its UID. This includes the request needed to wake the tag up, its cost
+     * can be subtracted using {@link #request(SimulatedReader)}
+     */
+    @Benchmark
+    public boolean selectTag(SimulatedReader reader){
+        reader.simulator.resetCards();
+        reader.countOperation();
+        return reader.rc522.request(Rc522.REQUEST_ALL) && reader.rc522.selectTag(SimulatedReader.UID);
+    }
+}
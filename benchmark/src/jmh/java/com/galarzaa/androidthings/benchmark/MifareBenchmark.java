@@ -0,0 +1,82 @@
+package com.galarzaa.androidthings.benchmark;
+
+import com.galarzaa.androidthings.Rc522;
+import com.galarzaa.androidthings.Rc522Metrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the memory operations of a MIFARE Classic tag that is already selected.
+ *
+ * @author Allan Galarza
+ */
+public class MifareBenchmark {
+    private static final byte BLOCK = 4;
+
+    /**
+     * A tag that was selected and authenticated for the sector of {@link #BLOCK}
+     */
+    @State(Scope.Thread)
+    public static class AuthenticatedTag {
+        final byte[] buffer = new byte[16];
+        final byte[] data = new byte[16];
+
+        @Setup(Level.Iteration)
+        public void authenticate(SimulatedReader reader){
+            Rc522 rc522 = reader.rc522;
+            if(!rc522.request() || !rc522.antiCollisionDetect() || !rc522.selectTag(rc522.getUid())
+                    || !rc522.authenticateCard(Rc522.AUTH_A, BLOCK, SimulatedReader.KEY)){
+                throw new IllegalStateException("Tag couldn't be selected");
+            }
+            for(int i = 0; i < data.length; i++){
+                data[i] = (byte) i;
+            }
+            reader.clearCounters();
+        }
+    }
+
+    /**
+     * The same tag, with metrics being collected, to compare with the benchmarks without them
+     */
+    @State(Scope.Thread)
+    public static class MeasuredTag {
+        @Setup(Level.Iteration)
+        public void attach(SimulatedReader reader, AuthenticatedTag tag){
+            reader.rc522.setMetricsListener(new Rc522Metrics());
+        }
+    }
+
+    @Benchmark
+    public boolean authenticateCard(SimulatedReader reader, AuthenticatedTag tag){
+        reader.countOperation();
+        return reader.rc522.authenticateCard(Rc522.AUTH_A, BLOCK, SimulatedReader.KEY);
+    }
+
+    @Benchmark
+    public boolean readBlock(SimulatedReader reader, AuthenticatedTag tag){
+        reader.countOperation();
+        return reader.rc522.readBlock(BLOCK, tag.buffer);
+    }
+
+    @Benchmark
+    public boolean writeBlock(SimulatedReader reader, AuthenticatedTag tag){
+        reader.countOperation();
+        return reader.rc522.writeBlock(BLOCK, tag.data);
+    }
+
+    @Benchmark
+    public String dumpMifare1k(SimulatedReader reader, AuthenticatedTag tag){
+        reader.countOperation();
+        return reader.rc522.dumpMifare1k();
+    }
+
+    @Benchmark
+    public boolean readBlockWithMetrics(SimulatedReader reader, AuthenticatedTag tag, MeasuredTag metrics){
+        reader.countOperation();
+        return reader.rc522.readBlock(BLOCK, tag.buffer);
+    }
+}
@@ -0,0 +1,70 @@
+package com.galarzaa.androidthings.benchmark;
+
+import com.galarzaa.androidthings.Rc522;
+import com.galarzaa.androidthings.simulator.MifareClassicCard;
+import com.galarzaa.androidthings.simulator.Mfrc522Simulator;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/**
+ * A reader driving a simulated MFRC522, with a MIFARE Classic 1K tag with default keys in its field.
+ * <br>
+ * Besides the benchmark's score, the number of SPI transactions and bytes exchanged per operation
+ * are reported. Each iteration starts with the tag idle and the counters cleared.
+ *
+ * @author Allan Galarza
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.EVENTS)
+public class SimulatedReader {
+    static final byte[] UID = {(byte) 0x9A, 0x21, 0x5C, 0x07};
+    static final byte[] KEY = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
+
+    Mfrc522Simulator simulator;
+    MifareClassicCard card;
+    Rc522 rc522;
+    private long operations;
+
+    @Setup(Level.Trial)
+    public void create() throws IOException {
+        simulator = new Mfrc522Simulator();
+        card = new MifareClassicCard(UID, false);
+        simulator.addCard(card);
+        rc522 = new Rc522(simulator);
+    }
+
+    @Setup(Level.Iteration)
+    public void reset(){
+        simulator.resetCards();
+        clearCounters();
+        operations = 0;
+    }
+
+    /**
+     * Clears the SPI counters, so the transactions used to prepare the tag aren't counted
+     */
+    void clearCounters(){
+        simulator.resetCounters();
+    }
+
+    /**
+     * Counts a benchmark operation, must be called once per invocation
+     */
+    void countOperation(){
+        operations++;
+    }
+
+    public double spiTransfersPerOp(){
+        return operations == 0 ? 0 : (double) simulator.getTransferCount() / operations;
+    }
+
+    public double spiBytesPerOp(){
+        return operations == 0 ? 0 : (double) simulator.getByteCount() / operations;
+    }
+}
@@ -0,0 +1,7 @@
+package android.content;
+
+/**
+ * JVM stand-in for the Android context, only needed to compile the driver's constructors.
+ */
+public abstract class Context {
+}
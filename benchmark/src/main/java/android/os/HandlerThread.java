@@ -0,0 +1,34 @@
+package android.os;
+
+/**
+ * JVM stand-in for the Android handler thread, only needed to compile the driver. The benchmarks
+ * don't use the IRQ pin, so no messages are ever delivered to it.
+ */
+public class HandlerThread extends Thread {
+    private final Looper looper = new Looper();
+
+    public HandlerThread(String name){
+        super(name);
+        setDaemon(true);
+    }
+
+    public HandlerThread(String name, int priority){
+        this(name);
+    }
+
+    public Looper getLooper(){
+        return looper;
+    }
+
+    public boolean quit(){
+        return true;
+    }
+
+    public boolean quitSafely(){
+        return true;
+    }
+
+    @Override
+    public void run(){
+    }
+}
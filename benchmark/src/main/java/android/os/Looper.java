@@ -0,0 +1,15 @@
+package android.os;
+
+/**
+ * JVM stand-in for the Android looper, only needed to compile the driver.
+ */
+public final class Looper {
+    Looper(){
+    }
+
+    public void quit(){
+    }
+
+    public void quitSafely(){
+    }
+}
@@ -0,0 +1,34 @@
+package android.util;
+
+/**
+ * JVM stand-in for the Android logger. Messages are dropped, so logging doesn't skew the
+ * measurements.
+ */
+public final class Log {
+    private Log(){
+    }
+
+    public static int d(String tag, String msg){
+        return 0;
+    }
+
+    public static int i(String tag, String msg){
+        return 0;
+    }
+
+    public static int w(String tag, String msg){
+        return 0;
+    }
+
+    public static int w(String tag, String msg, Throwable tr){
+        return 0;
+    }
+
+    public static int e(String tag, String msg){
+        return 0;
+    }
+
+    public static int e(String tag, String msg, Throwable tr){
+        return 0;
+    }
+}
@@ -0,0 +1,166 @@
+package com.galarzaa.androidthings;
+
+import com.google.android.things.pio.Gpio;
+import com.google.android.things.pio.SpiDevice;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Wraps a SPI device shared by several RC522 modules, selecting one of them with a GPIO pin
+ * connected to its SDA (NSS) pin. The pin is driven low for the duration of every transaction.
+ * <br>
+ * Each wrapper keeps its own clock frequency, e.g. as calibrated by
+ * {@link Rc522#calibrateBusSpeed()} for its module's wiring, which is applied to the shared device
+ * before its transactions whenever another wrapper changed it. Other settings, such as the mode,
+ * are shared by all the wrappers.
+ * <br>
+ * Transactions of the wrappers sharing a SPI device are serialized, but readers on the same bus
+ * are best used from the same thread, or a {@link Rc522Pool} bus, as they wait for each other.
+ *
+ * @author Allan Galarza
+ */
+public class GpioChipSelectSpiDevice implements SpiDevice {
+    /* State of each shared SPI device, common to all its wrappers */
+    private static final Map<SpiDevice, Bus> BUSES = new WeakHashMap<>();
+
+    private final SpiDevice device;
+    private final Gpio chipSelect;
+    private final Bus bus;
+    /* Frequency set through this wrapper, 0 if none was set */
+    private int frequencyHz;
+
+    /**
+     * Wraps a SPI device using a GPIO pin as chip select
+     * @param device the shared SPI device
+     * @param chipSelect the pin connected to the RC522's SDA pin
+     * @throws IOException if the pin could not be configured
+     */
+    public GpioChipSelectSpiDevice(SpiDevice device, Gpio chipSelect) throws IOException {
+        this.device = device;
+        this.chipSelect = chipSelect;
+        synchronized(BUSES){
+            Bus shared = BUSES.get(device);
+            if(shared == null){
+                shared = new Bus();
+                BUSES.put(device, shared);
+            }
+            bus = shared;
+        }
+        chipSelect.setDirection(Gpio.DIRECTION_OUT_INITIALLY_HIGH);
+    }
+
+    @Override
+    public void transfer(byte[] txBuffer, byte[] rxBuffer, int length) throws IOException {
+        synchronized(bus){
+            applyFrequency();
+            chipSelect.setValue(false);
+            try {
+                device.transfer(txBuffer, rxBuffer, length);
+            } finally {
+                chipSelect.setValue(true);
+            }
+        }
+    }
+
+    @Override
+    public void write(byte[] buffer, int length) throws IOException {
+        synchronized(bus){
+            applyFrequency();
+            chipSelect.setValue(false);
+            try {
+                device.write(buffer, length);
+            } finally {
+                chipSelect.setValue(true);
+            }
+        }
+    }
+
+    @Override
+    public void read(byte[] buffer, int length) throws IOException {
+        synchronized(bus){
+            applyFrequency();
+            chipSelect.setValue(false);
+            try {
+                device.read(buffer, length);
+            } finally {
+                chipSelect.setValue(true);
+            }
+        }
+    }
+
+    /**
+     * Sets the clock frequency used for this wrapper's transactions, without affecting the other
+     * wrappers of the same SPI device
+     * @param frequencyHz the frequency, in Hz
+     * @throws IOException if the device rejected the frequency
+     */
+    @Override
+    public void setFrequency(int frequencyHz) throws IOException {
+        synchronized(bus){
+            bus.frequencyHz = 0;
+            device.setFrequency(frequencyHz);
+            bus.frequencyHz = frequencyHz;
+            this.frequencyHz = frequencyHz;
+        }
+    }
+
+    @Override
+    public void setMode(int mode) throws IOException {
+        device.setMode(mode);
+    }
+
+    @Override
+    public void setBitJustification(int justification) throws IOException {
+        device.setBitJustification(justification);
+    }
+
+    @Override
+    public void setBitsPerWord(int bitsPerWord) throws IOException {
+        device.setBitsPerWord(bitsPerWord);
+    }
+
+    @Override
+    public void setCsChange(boolean change) throws IOException {
+        device.setCsChange(change);
+    }
+
+    @Override
+    public void setDelay(int delayUs) throws IOException {
+        device.setDelay(delayUs);
+    }
+
+    @Override
+    public String getName() {
+        return device.getName() + ":" + chipSelect.getName();
+    }
+
+    /**
+     * Closes the chip select pin. The shared SPI device is not closed, as other modules may use it
+     */
+    @Override
+    public void close() throws IOException {
+        chipSelect.close();
+    }
+
+    /**
+     * Sets the device to this wrapper's frequency if another wrapper changed it. Must be called
+     * holding the bus' lock
+     */
+    private void applyFrequency() throws IOException {
+        if(frequencyHz != 0 && bus.frequencyHz != frequencyHz){
+            bus.frequencyHz = 0;
+            device.setFrequency(frequencyHz);
+            bus.frequencyHz = frequencyHz;
+        }
+    }
+
+    /**
+     * The lock and current frequency of a shared SPI device
+     */
+    private static class Bus {
+        /* Frequency the device is set to, 0 if unknown */
+        int frequencyHz;
+    }
+}
@@ -0,0 +1,395 @@
+package com.galarzaa.androidthings;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Exchanges APDUs with ISO/IEC 14443-4 tags, such as MIFARE DESFire, smart cards and payment cards,
+ * implementing the block transmission protocol defined in section 7 of ISO/IEC 14443-4.
+ * <br>
+ * Commands and responses longer than a frame are split into chained blocks. Frames are as large as
+ * the tag allows, up to 256 bytes streamed through the reader's FIFO buffer, so APDUs need as few
+ * exchanges as possible.
+ * Lost or corrupted blocks are recovered with R-blocks, and waiting time extensions requested by
+ * the tag are granted.
+ * <pre>{@code
+ * TagInfo tag = rc522.activateTag(Rc522.REQUEST_ALL);
+ * if (tag != null && (tag.getSak() & 0x20) != 0) {
+ *     IsoDep isoDep = new IsoDep(rc522);
+ *     if (isoDep.connect()) {
+ *         byte[] response = isoDep.transceive(selectApdu);
+ *         ...
+ *         isoDep.close();
+ *     }
+ * }
+ * }</pre>
+ * Every method holds the reader's lock while running. To keep other threads from using the reader
+ * between calls, use a {@link Rc522Session}.
+ *
+ * @author Allan Galarza
+ */
+public class IsoDep {
+    private static final String TAG = "IsoDep";
+
+    /* Block types, see section 7.1.1.1 in ISO/IEC 14443-4 */
+    private static final int PCB_I_BLOCK = 0x02;
+    private static final int PCB_R_ACK = 0xA2;
+    private static final int PCB_R_NAK = 0xB2;
+    private static final int PCB_S_DESELECT = 0xC2;
+    private static final int PCB_S_WTX = 0xF2;
+    private static final int PCB_CHAINING = 0x10;
+    private static final int PCB_CID = 0x08;
+    private static final int PCB_NAD = 0x04;
+
+    /* Frame sizes for each FSCI value, see table 1 in ISO/IEC 14443-4 */
+    private static final int[] FRAME_SIZES = {16, 24, 32, 40, 48, 64, 96, 128, 256};
+    /* Frame waiting time for FWI 0, 4096 carrier periods, in nanoseconds */
+    private static final long FWT_UNIT_NS = 302064L;
+    /* Additional time the reader must wait after the frame waiting time, 49152 carrier periods */
+    private static final int FWT_DELTA_US = 3625;
+    /* Longest frame waiting time a tag may announce or request with a waiting time extension */
+    private static final int FWT_MAX_US = 4949000;
+    /* FWI assumed when the ATS doesn't have TB(1) */
+    private static final int DEFAULT_FWI = 4;
+    /* Times a block is sent again, or requested again, before giving up */
+    private static final int MAX_RETRIES = 2;
+
+    private final Rc522 rc522;
+    private final byte[] frame;
+    private final byte[] received;
+    /* R-blocks and S-blocks sent while recovering, so the block being sent is kept */
+    private final byte[] control = new byte[4];
+    private final byte[] ats = new byte[256];
+    private byte[] responseBuffer = new byte[256];
+    private int atsLength;
+    private boolean connected = false;
+    private int blockNumber;
+    /* Largest frame the tag accepts, including its CRC */
+    private int frameSize;
+    private int waitingTime;
+    private Rc522.ErrorType error;
+
+    /**
+     * Prepares to exchange APDUs with tags in a reader's field
+     * @param rc522 the reader
+     */
+    public IsoDep(Rc522 rc522){
+        this.rc522 = rc522;
+        frame = new byte[rc522.getMaxFrameLength()];
+        received = new byte[rc522.getMaxFrameLength()];
+    }
+
+    /**
+     * Activates the ISO/IEC 14443-4 protocol of the selected tag, sending RATS and negotiating the
+     * highest bit rate supported by both sides, see {@link Rc522#negotiateBitRate(byte[], int)}
+     * @return true if the tag answered RATS
+     */
+    public boolean connect(){
+        rc522.getLock().lock();
+        try {
+            connected = false;
+            atsLength = rc522.requestAts(ats);
+            if(atsLength < 0){
+                error = rc522.getError();
+                return false;
+            }
+            int fsci = 2;
+            int fwi = DEFAULT_FWI;
+            int sfgi = 0;
+            if(atsLength > 1){
+                int t0 = ats[1] & 0xFF;
+                fsci = t0 & 0x0F;
+                int index = 2;
+                if((t0 & 0x10) != 0){
+                    index++;
+                }
+                if((t0 & 0x20) != 0 && index < atsLength){
+                    fwi = (ats[index] >> 4) & 0x0F;
+                    sfgi = ats[index] & 0x0F;
+                }
+            }
+            // Values of 15 are reserved, and mean the default
+            if(fwi == 15){
+                fwi = DEFAULT_FWI;
+            }
+            frameSize = Math.min(FRAME_SIZES[Math.min(fsci, FRAME_SIZES.length - 1)], frame.length);
+            waitingTime = (int) Math.min(FWT_UNIT_NS * (1 << fwi) / 1000, FWT_MAX_US);
+            if(sfgi != 0 && sfgi != 15){
+                // The tag may need a guard time before it can receive the next frame
+                LockSupport.parkNanos(FWT_UNIT_NS * (1 << sfgi));
+            }
+            rc522.negotiateBitRate(ats, atsLength);
+            blockNumber = 0;
+            connected = true;
+            error = null;
+            return true;
+        } finally {
+            rc522.getLock().unlock();
+        }
+    }
+
+    /**
+     * Checks if the tag is connected. The connection is lost if an exchange fails, and the tag
+     * must be activated again
+     * @return true if APDUs can be exchanged
+     */
+    public boolean isConnected(){
+        return connected;
+    }
+
+    /**
+     * Gets the tag's Answer To Select, received on {@link #connect()}
+     * @return the ATS, without its CRC, or null if not connected
+     */
+    @Nullable
+    public byte[] getAts(){
+        return atsLength < 0 || !connected ? null : Arrays.copyOf(ats, atsLength);
+    }
+
+    /**
+     * Gets the historical bytes of the tag's ATS, which usually identify the tag's application
+     * @return the historical bytes, or null if not connected
+     */
+    @Nullable
+    public byte[] getHistoricalBytes(){
+        if(!connected){
+            return null;
+        }
+        int index = 1;
+        if(atsLength > 1){
+            int t0 = ats[1] & 0xFF;
+            index = 2 + Integer.bitCount(t0 & 0x70);
+        }
+        return Arrays.copyOfRange(ats, Math.min(index, atsLength), atsLength);
+    }
+
+    /**
+     * Gets the largest frame exchanged with the tag, the smallest of the tag's and the reader's
+     * frame sizes
+     * @return the frame size, including the block's header and CRC, in bytes
+     */
+    public int getFrameSize(){
+        return frameSize;
+    }
+
+    /**
+     * Gets the frame waiting time announced by the tag
+     * @return the time the tag may take to answer a block, in microseconds
+     */
+    public int getWaitingTime(){
+        return waitingTime;
+    }
+
+    /**
+     * Gets the error that made the last operation fail
+     * @return the error's type, or null if it succeeded
+     */
+    @Nullable
+    public Rc522.ErrorType getError(){
+        return error;
+    }
+
+    /**
+     * Sends an APDU to the tag and receives its response
+     * @param command the command APDU
+     * @return the response APDU, including its status word, or null if the exchange failed
+     */
+    @Nullable
+    public byte[] transceive(byte[] command){
+        rc522.getLock().lock();
+        try {
+            int length = transceive(command, command.length, null);
+            return length < 0 ? null : Arrays.copyOf(responseBuffer, length);
+        } finally {
+            rc522.getLock().unlock();
+        }
+    }
+
+    /**
+     * Sends an APDU to the tag and receives its response, without allocating memory
+     * @param command the array holding the command APDU
+     * @param length the command's length
+     * @param response the array to store the response APDU to. If the response doesn't fit, only
+     *                 its first bytes are stored
+     * @return the response's length, which is larger than the array if the response didn't fit,
+     * or -1 if the exchange failed
+     */
+    public int transceive(byte[] command, int length, @Nullable byte[] response){
+        rc522.getLock().lock();
+        try {
+            if(!connected){
+                error = Rc522.ErrorType.ERROR_PROTOCOL;
+                return -1;
+            }
+            int result = exchangeApdu(command, length, response);
+            if(result < 0){
+                // Both sides may not agree on the block number anymore
+                connected = false;
+            }
+            return result;
+        } finally {
+            rc522.getLock().unlock();
+        }
+    }
+
+    /**
+     * Deactivates the tag with S(DESELECT), sending it to the HALT state
+     * @return true if the tag acknowledged it
+     */
+    public boolean close(){
+        rc522.getLock().lock();
+        try {
+            if(!connected){
+                return false;
+            }
+            connected = false;
+            frame[0] = (byte) PCB_S_DESELECT;
+            for(int attempt = 0; attempt <= MAX_RETRIES; attempt++){
+                int length = rc522.transceiveFrame(frame, 1, received, waitingTime + FWT_DELTA_US);
+                if(length > 0 && (received[0] & ~PCB_CID) == (byte) PCB_S_DESELECT){
+                    error = null;
+                    return true;
+                }
+            }
+            error = rc522.getError();
+            return false;
+        } finally {
+            rc522.getLock().unlock();
+        }
+    }
+
+    /**
+     * Sends a command in as many I-blocks as needed, and receives the response's I-blocks
+     * @param response the array to store the response to, or null to use the response buffer,
+     *                 which grows as needed
+     * @return the response's length, or -1 if the exchange failed
+     */
+    private int exchangeApdu(byte[] command, int length, @Nullable byte[] response){
+        // PCB and CRC take three bytes of every frame
+        int maxInformation = frameSize - 3;
+        int offset = 0;
+        int receivedLength;
+        while(true){
+            int chunk = Math.min(maxInformation, length - offset);
+            boolean chaining = offset + chunk < length;
+            frame[0] = (byte) (PCB_I_BLOCK | blockNumber | (chaining ? PCB_CHAINING : 0));
+            System.arraycopy(command, offset, frame, 1, chunk);
+            receivedLength = exchangeBlock(chunk + 1);
+            if(receivedLength < 0){
+                return -1;
+            }
+            offset += chunk;
+            if(!chaining){
+                break;
+            }
+            // Every chained block must be acknowledged before sending the next one
+            if(!isBlock(received[0], PCB_R_ACK) || (received[0] & 0x01) != blockNumber){
+                return protocolError("expected R(ACK) for a chained block");
+            }
+            blockNumber ^= 1;
+        }
+        byte[] target = response != null ? response : responseBuffer;
+        int responseLength = 0;
+        while(true){
+            byte pcb = received[0];
+            if(!isBlock(pcb, PCB_I_BLOCK) || (pcb & 0x01) != blockNumber){
+                return protocolError("expected an I-block");
+            }
+            blockNumber ^= 1;
+            int header = 1 + ((pcb & PCB_CID) != 0 ? 1 : 0) + ((pcb & PCB_NAD) != 0 ? 1 : 0);
+            int information = Math.max(receivedLength - header, 0);
+            if(responseLength + information > target.length && response == null){
+                responseBuffer = Arrays.copyOf(target, Math.max(target.length * 2, responseLength + information));
+                target = responseBuffer;
+            }
+            if(responseLength < target.length){
+                System.arraycopy(received, header, target, responseLength,
+                        Math.min(information, target.length - responseLength));
+            }
+            responseLength += information;
+            if((pcb & PCB_CHAINING) == 0){
+                break;
+            }
+            frame[0] = (byte) (PCB_R_ACK | blockNumber);
+            receivedLength = exchangeBlock(1);
+            if(receivedLength < 0){
+                return -1;
+            }
+        }
+        error = null;
+        return responseLength;
+    }
+
+    /**
+     * Sends the block in the frame buffer and receives the tag's answer. Waiting time extensions
+     * are granted, and failed exchanges are retried as defined in section 7.5.4 of ISO/IEC 14443-4
+     * @param length the block's length
+     * @return the length of the received block, or -1 if the exchange failed
+     */
+    private int exchangeBlock(int length){
+        boolean acknowledging = isBlock(frame[0], PCB_R_ACK);
+        byte[] block = frame;
+        int blockLength = length;
+        int timeout = waitingTime + FWT_DELTA_US;
+        int retries = 0;
+        while(true){
+            int receivedLength = rc522.transceiveFrame(block, blockLength, received, timeout);
+            timeout = waitingTime + FWT_DELTA_US;
+            if(receivedLength > 0){
+                byte answer = received[0];
+                if(isBlock(answer, PCB_S_WTX) && receivedLength >= 2){
+                    // The answer to S(WTX) repeats its multiplier, which extends the next wait
+                    int multiplier = received[receivedLength - 1] & 0x3F;
+                    control[0] = (byte) PCB_S_WTX;
+                    control[1] = (byte) multiplier;
+                    block = control;
+                    blockLength = 2;
+                    timeout = Math.min(waitingTime * Math.max(multiplier, 1), FWT_MAX_US) + FWT_DELTA_US;
+                    continue;
+                }
+                if(acknowledging || !isBlock(answer, PCB_R_ACK) || (answer & 0x01) == blockNumber){
+                    return receivedLength;
+                }
+                // The tag acknowledged a previous block, so it never received this one
+            }
+            if(++retries > MAX_RETRIES){
+                error = rc522.getError() != null ? rc522.getError() : Rc522.ErrorType.ERROR_PROTOCOL;
+                Log.w(TAG, "No valid answer from the tag: " + error);
+                return -1;
+            }
+            if(receivedLength > 0 || acknowledging){
+                // Lost R(ACK) blocks and blocks the tag didn't receive are sent again
+                block = frame;
+                blockLength = length;
+            }else{
+                // The tag sends its last block again, or R(ACK) if it didn't receive ours
+                control[0] = (byte) (PCB_R_NAK | blockNumber);
+                block = control;
+                blockLength = 1;
+            }
+        }
+    }
+
+    private static boolean isBlock(byte pcb, int type){
+        int value = pcb & 0xFF;
+        switch(type){
+            case PCB_I_BLOCK:
+                return (value & 0xE2) == 0x02;
+            case PCB_R_ACK:
+                return (value & 0xF6) == 0xA2;
+            case PCB_R_NAK:
+                return (value & 0xF6) == 0xB2;
+            default:
+                return (value & 0xF7) == type;
+        }
+    }
+
+    private int protocolError(String message){
+        Log.w(TAG, "Protocol error: " + message);
+        error = Rc522.ErrorType.ERROR_PROTOCOL;
+        return -1;
+    }
+}
@@ -0,0 +1,220 @@
+package com.galarzaa.androidthings;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers which key opened each sector of the MIFARE Classic cards seen recently, so the right
+ * key can be tried first the next time a card is presented.
+ * <br>
+ * Keys are remembered per card, identified by its UID and SAK, and only the most recently used
+ * cards are kept. The last key that opened a sector of any card of the same family (SAK) is also
+ * remembered, and used for cards that haven't been seen before, as cards of the same batch usually
+ * share their keys.
+ * <br>
+ * The cache is thread safe, and can be shared by several readers.
+ *
+ * @author Allan Galarza
+ */
+public class KeyCache {
+    /* Sectors of a MIFARE Classic 4K, the largest card family */
+    private static final int MAX_SECTORS = 40;
+
+    private final int capacity;
+    private final LinkedHashMap<CardId, SectorKey[]> cards;
+    private final Map<Byte, SectorKey[]> families = new HashMap<>();
+    /* Reused for lookups, so they don't create new objects */
+    private final CardId probe = new CardId();
+
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates a cache
+     * @param capacity the number of cards to remember keys for
+     */
+    public KeyCache(int capacity){
+        if(capacity < 1){
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        }
+        this.capacity = capacity;
+        this.cards = new LinkedHashMap<CardId, SectorKey[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CardId, SectorKey[]> eldest) {
+                return size() > KeyCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Gets the key that last opened a sector of a card. If the card isn't known, the key that last
+     * opened the sector in a card of the same family is returned
+     * @param uid the card's UID
+     * @param sak the card's SAK
+     * @param sector the sector's number
+     * @return the key, or null if there's none for that sector
+     */
+    public SectorKey get(byte[] uid, byte sak, int sector){
+        return get(uid, uid.length, sak, sector);
+    }
+
+    synchronized SectorKey get(byte[] uid, int uidLength, byte sak, int sector){
+        checkSector(sector);
+        probe.set(uid, uidLength, sak);
+        SectorKey[] keys = cards.get(probe);
+        SectorKey key = keys != null ? keys[sector] : null;
+        if(key == null){
+            keys = families.get(sak);
+            key = keys != null ? keys[sector] : null;
+        }
+        if(key != null){
+            hits++;
+        }else{
+            misses++;
+        }
+        return key;
+    }
+
+    /**
+     * Remembers the key that opened a sector of a card
+     * @param uid the card's UID
+     * @param sak the card's SAK
+     * @param sector the sector's number
+     * @param key the key that opened the sector
+     */
+    public void put(byte[] uid, byte sak, int sector, SectorKey key){
+        put(uid, uid.length, sak, sector, key);
+    }
+
+    synchronized void put(byte[] uid, int uidLength, byte sak, int sector, SectorKey key){
+        checkSector(sector);
+        probe.set(uid, uidLength, sak);
+        SectorKey[] keys = cards.get(probe);
+        if(keys == null){
+            keys = new SectorKey[MAX_SECTORS];
+            cards.put(new CardId(uid, uidLength, sak), keys);
+        }
+        keys[sector] = key;
+        SectorKey[] familyKeys = families.get(sak);
+        if(familyKeys == null){
+            familyKeys = new SectorKey[MAX_SECTORS];
+            families.put(sak, familyKeys);
+        }
+        familyKeys[sector] = key;
+    }
+
+    /**
+     * Forgets the key of a sector of a card, e.g. after it failed to open it
+     * @param uid the card's UID
+     * @param sak the card's SAK
+     * @param sector the sector's number
+     */
+    public void remove(byte[] uid, byte sak, int sector){
+        remove(uid, uid.length, sak, sector);
+    }
+
+    synchronized void remove(byte[] uid, int uidLength, byte sak, int sector){
+        checkSector(sector);
+        probe.set(uid, uidLength, sak);
+        SectorKey[] keys = cards.get(probe);
+        if(keys != null){
+            keys[sector] = null;
+        }
+    }
+
+    /**
+     * Forgets all cards and keys
+     */
+    public synchronized void clear(){
+        cards.clear();
+        families.clear();
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * Gets the number of cards currently remembered
+     * @return the number of cards
+     */
+    public synchronized int size(){
+        return cards.size();
+    }
+
+    /**
+     * Gets the number of lookups that returned a key
+     * @return the number of hits
+     */
+    public synchronized long getHitCount(){
+        return hits;
+    }
+
+    /**
+     * Gets the number of lookups that didn't return a key
+     * @return the number of misses
+     */
+    public synchronized long getMissCount(){
+        return misses;
+    }
+
+    private static void checkSector(int sector){
+        if(sector < 0 || sector >= MAX_SECTORS){
+            throw new IllegalArgumentException("Invalid sector: " + sector);
+        }
+    }
+
+    /**
+     * Identifies a card by its UID and SAK
+     */
+    private static final class CardId {
+        private byte[] uid;
+        private int uidLength;
+        private byte sak;
+
+        CardId(){
+            this.uid = new byte[10];
+        }
+
+        CardId(byte[] uid, int uidLength, byte sak){
+            this.uid = Arrays.copyOf(uid, uidLength);
+            this.uidLength = uidLength;
+            this.sak = sak;
+        }
+
+        void set(byte[] uid, int uidLength, byte sak){
+            if(uidLength > this.uid.length){
+                this.uid = new byte[uidLength];
+            }
+            System.arraycopy(uid, 0, this.uid, 0, uidLength);
+            this.uidLength = uidLength;
+            this.sak = sak;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(!(o instanceof CardId)){
+                return false;
+            }
+            CardId other = (CardId) o;
+            if(sak != other.sak || uidLength != other.uidLength){
+                return false;
+            }
+            for(int i = 0; i < uidLength; i++){
+                if(uid[i] != other.uid[i]){
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode(){
+            int hash = sak;
+            for(int i = 0; i < uidLength; i++){
+                hash = 31 * hash + uid[i];
+            }
+            return hash;
+        }
+    }
+}
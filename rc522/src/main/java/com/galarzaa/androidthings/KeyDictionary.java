@@ -0,0 +1,191 @@
+package com.galarzaa.androidthings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An ordered list of candidate MIFARE Classic keys, used to find the keys of cards whose keys are
+ * not known in advance, see {@link Rc522#findSectorKeys(KeyDictionary, KeyCache, SectorKey[])}.
+ * <br>
+ * The dictionary counts how often each key opens each sector, and tries the keys with the best
+ * hit rate first. Until a key has been tried, the keys are tried in the order they were given.
+ * <br>
+ * The dictionary is thread safe, and can be shared by several readers.
+ *
+ * @author Allan Galarza
+ */
+public class KeyDictionary {
+    /* Sectors of a MIFARE Classic 4K, the largest card family */
+    private static final int MAX_SECTORS = 40;
+
+    private final SectorKey[] keys;
+    /* Per sector: the order the keys are tried in, and how often each key was tried and worked */
+    private final int[][] order = new int[MAX_SECTORS][];
+    private final int[][] attempts = new int[MAX_SECTORS][];
+    private final int[][] hits = new int[MAX_SECTORS][];
+
+    /**
+     * Creates a dictionary
+     * @param keys the candidate keys, in the order they are tried at first
+     */
+    public KeyDictionary(List<SectorKey> keys){
+        this.keys = keys.toArray(new SectorKey[keys.size()]);
+    }
+
+    /**
+     * Gets the number of keys in the dictionary
+     * @return the number of keys
+     */
+    public int size(){
+        return keys.length;
+    }
+
+    /**
+     * Gets the keys in the order they will be tried for a sector
+     * @param sector the sector's number
+     * @return a list of keys, best hit rate first
+     */
+    public synchronized List<SectorKey> getKeys(int sector){
+        checkSector(sector);
+        List<SectorKey> list = new ArrayList<>(keys.length);
+        int[] sectorOrder = order[sector];
+        for(int i = 0; i < keys.length; i++){
+            list.add(keys[sectorOrder != null ? sectorOrder[i] : i]);
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Gets the number of times a key opened any sector
+     * @param key the key
+     * @return the number of hits, 0 if the key isn't in the dictionary
+     */
+    public synchronized int getHitCount(SectorKey key){
+        return sum(hits, indexOf(key));
+    }
+
+    /**
+     * Gets the number of times a key was tried on any sector
+     * @param key the key
+     * @return the number of attempts, 0 if the key isn't in the dictionary
+     */
+    public synchronized int getAttemptCount(SectorKey key){
+        return sum(attempts, indexOf(key));
+    }
+
+    /**
+     * Forgets all hit rates, going back to the original order
+     */
+    public synchronized void resetStatistics(){
+        for(int sector = 0; sector < MAX_SECTORS; sector++){
+            order[sector] = null;
+            attempts[sector] = null;
+            hits[sector] = null;
+        }
+    }
+
+    /**
+     * Gets a key by its index in the original list
+     */
+    SectorKey getKey(int index){
+        return keys[index];
+    }
+
+    /**
+     * Copies the order the keys should be tried in for a sector
+     * @param sector the sector's number
+     * @param buffer the array the key indexes are copied to, at least {@link #size()} long
+     */
+    synchronized void getOrder(int sector, int[] buffer){
+        checkSector(sector);
+        int[] sectorOrder = order[sector];
+        for(int i = 0; i < keys.length; i++){
+            buffer[i] = sectorOrder != null ? sectorOrder[i] : i;
+        }
+    }
+
+    /**
+     * Records the outcome of trying keys on a sector, and reorders the sector's keys
+     * @param sector the sector's number
+     * @param tried the indexes of the keys tried, in the order they were tried
+     * @param count the number of keys tried
+     * @param hit the index of the key that opened the sector, or -1 if none did
+     */
+    synchronized void record(int sector, int[] tried, int count, int hit){
+        checkSector(sector);
+        if(count == 0){
+            return;
+        }
+        if(order[sector] == null){
+            int[] sectorOrder = new int[keys.length];
+            for(int i = 0; i < keys.length; i++){
+                sectorOrder[i] = i;
+            }
+            order[sector] = sectorOrder;
+            attempts[sector] = new int[keys.length];
+            hits[sector] = new int[keys.length];
+        }
+        for(int i = 0; i < count; i++){
+            attempts[sector][tried[i]]++;
+        }
+        if(hit >= 0){
+            hits[sector][hit]++;
+        }
+        sort(sector);
+    }
+
+    /**
+     * Insertion sort by hit rate, keeping the current order between keys with the same rate
+     */
+    private void sort(int sector){
+        int[] sectorOrder = order[sector];
+        for(int i = 1; i < sectorOrder.length; i++){
+            int key = sectorOrder[i];
+            int j = i - 1;
+            while(j >= 0 && compare(sector, key, sectorOrder[j]) > 0){
+                sectorOrder[j + 1] = sectorOrder[j];
+                j--;
+            }
+            sectorOrder[j + 1] = key;
+        }
+    }
+
+    /**
+     * Compares the hit rates of two keys, estimated as (hits + 1) / (attempts + 2) so keys that
+     * haven't been tried yet aren't ranked below keys that failed
+     */
+    private int compare(int sector, int a, int b){
+        long rateA = (long) (hits[sector][a] + 1) * (attempts[sector][b] + 2);
+        long rateB = (long) (hits[sector][b] + 1) * (attempts[sector][a] + 2);
+        return Long.compare(rateA, rateB);
+    }
+
+    private int indexOf(SectorKey key){
+        for(int i = 0; i < keys.length; i++){
+            if(keys[i].equals(key)){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int sum(int[][] counts, int index){
+        if(index < 0){
+            return 0;
+        }
+        int total = 0;
+        for(int[] sectorCounts : counts){
+            if(sectorCounts != null){
+                total += sectorCounts[index];
+            }
+        }
+        return total;
+    }
+
+    private static void checkSector(int sector){
+        if(sector < 0 || sector >= MAX_SECTORS){
+            throw new IllegalArgumentException("Invalid sector: " + sector);
+        }
+    }
+}
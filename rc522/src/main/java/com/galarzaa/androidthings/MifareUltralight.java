@@ -0,0 +1,229 @@
+package com.galarzaa.androidthings;
+
+import android.support.annotation.Nullable;
+
+/**
+ * Reads and writes MIFARE Ultralight, Ultralight EV1 and NTAG21x tags, whose memory is organized in
+ * 4 byte pages, see section 10 in NTAG213/215/216's datasheet.
+ * <br>
+ * READ returns 4 pages per command, and FAST_READ a whole range of pages, streamed through the
+ * reader's FIFO buffer, so the 888 bytes of an NTAG216's user memory are read in 4 exchanges. The
+ * tag must be selected before, e.g. with {@link Rc522#activateTag(byte)}; these tags answer with a
+ * SAK of 0x00.
+ * <pre>{@code
+ * TagInfo tag = rc522.activateTag(Rc522.REQUEST_ALL);
+ * if (tag != null && tag.getSak() == 0x00) {
+ *     MifareUltralight ultralight = new MifareUltralight(rc522);
+ *     byte[] userMemory = new byte[888];
+ *     if (ultralight.readPages(4, 225, userMemory, 0)) {
+ *         ...
+ *     }
+ * }
+ * }</pre>
+ * Every method holds the reader's lock while running. To keep other threads from using the reader
+ * between calls, use a {@link Rc522Session}.
+ *
+ * @author Allan Galarza
+ */
+public class MifareUltralight {
+    /**
+     * Size of a page, the unit tags are written in
+     */
+    public static final int PAGE_SIZE = 4;
+
+    /* Commands, see section 10 in NTAG213/215/216's datasheet */
+    private static final byte COMMAND_GET_VERSION = 0x60;
+    private static final byte COMMAND_READ = 0x30;
+    private static final byte COMMAND_FAST_READ = 0x3A;
+    private static final byte COMMAND_WRITE = (byte) 0xA2;
+    private static final byte COMMAND_PWD_AUTH = 0x1B;
+    /* Pages returned by READ, rolling over to page 0 past the last page */
+    private static final int READ_PAGES = 4;
+    private static final int VERSION_LENGTH = 8;
+    private static final int PACK_LENGTH = 2;
+
+    private final Rc522 rc522;
+    private final byte[] frame = new byte[8];
+    private final byte[] response;
+    /* Pages read by each FAST_READ, so the answer and its CRC fit the reader's longest frame */
+    private final int fastReadPages;
+    private Rc522.ErrorType error;
+
+    /**
+     * Prepares to read and write tags in a reader's field
+     * @param rc522 the reader
+     */
+    public MifareUltralight(Rc522 rc522){
+        this.rc522 = rc522;
+        response = new byte[rc522.getMaxFrameLength()];
+        fastReadPages = (response.length - 2) / PAGE_SIZE;
+    }
+
+    /**
+     * Reads the tag's version information with GET_VERSION, identifying its type and memory size.
+     * Only Ultralight EV1 and NTAG21x tags support it, e.g. an NTAG216 answers
+     * {@code 00 04 04 02 01 00 13 03}
+     * @param buffer the array to store the version to, at least 8 bytes long
+     * @return true if the tag answered
+     */
+    public boolean getVersion(byte[] buffer){
+        rc522.getLock().lock();
+        try {
+            frame[0] = COMMAND_GET_VERSION;
+            if(!receive(1, Rc522.CommandType.READ, VERSION_LENGTH)){
+                return false;
+            }
+            System.arraycopy(response, 0, buffer, 0, VERSION_LENGTH);
+            return true;
+        } finally {
+            rc522.getLock().unlock();
+        }
+    }
+
+    /**
+     * Reads 4 pages with READ. Past the tag's last page, reading continues from page 0
+     * @param page the first page to read
+     * @param buffer the array to store the 16 read bytes to
+     * @return true if reading was successful
+     */
+    public boolean readPages(int page, byte[] buffer){
+        checkPage(page);
+        rc522.getLock().lock();
+        try {
+            frame[0] = COMMAND_READ;
+            frame[1] = (byte) page;
+            if(!receive(2, Rc522.CommandType.READ, READ_PAGES * PAGE_SIZE)){
+                return false;
+            }
+            System.arraycopy(response, 0, buffer, 0, READ_PAGES * PAGE_SIZE);
+            return true;
+        } finally {
+            rc522.getLock().unlock();
+        }
+    }
+
+    /**
+     * Reads a range of pages with FAST_READ, using as few commands as the reader's frame size
+     * allows. Only Ultralight EV1 and NTAG21x tags support it
+     * @param firstPage the first page to read
+     * @param lastPage the last page to read, included
+     * @param buffer the array to store the read pages to
+     * @param offset the index in buffer to store the first page at
+     * @return true if every page was read
+     */
+    public boolean readPages(int firstPage, int lastPage, byte[] buffer, int offset){
+        checkPage(firstPage);
+        checkPage(lastPage);
+        if(lastPage < firstPage){
+            throw new IllegalArgumentException("Last page must not be before the first page");
+        }
+        if(buffer.length - offset < (lastPage - firstPage + 1) * PAGE_SIZE){
+            throw new IllegalArgumentException("Buffer is too small for the pages");
+        }
+        rc522.getLock().lock();
+        try {
+            for(int page = firstPage; page <= lastPage; page += fastReadPages){
+                int end = Math.min(page + fastReadPages - 1, lastPage);
+                int length = (end - page + 1) * PAGE_SIZE;
+                frame[0] = COMMAND_FAST_READ;
+                frame[1] = (byte) page;
+                frame[2] = (byte) end;
+                if(!receive(3, Rc522.CommandType.FAST_READ, length)){
+                    return false;
+                }
+                System.arraycopy(response, 0, buffer, offset, length);
+                offset += length;
+            }
+            return true;
+        } finally {
+            rc522.getLock().unlock();
+        }
+    }
+
+    /**
+     * Writes a page with WRITE
+     * @param page the page to write to
+     * @param data the page's new contents, only its first 4 bytes are written
+     * @return true if the tag acknowledged the write
+     */
+    public boolean writePage(int page, byte[] data){
+        checkPage(page);
+        rc522.getLock().lock();
+        try {
+            frame[0] = COMMAND_WRITE;
+            frame[1] = (byte) page;
+            System.arraycopy(data, 0, frame, 2, PAGE_SIZE);
+            boolean success = rc522.transceiveAck(frame, 2 + PAGE_SIZE, Rc522.CommandType.WRITE);
+            error = success ? null : rc522.getError();
+            return success;
+        } finally {
+            rc522.getLock().unlock();
+        }
+    }
+
+    /**
+     * Authenticates with the tag's 32-bit password with PWD_AUTH, giving access to the pages
+     * protected by it until the tag is deselected. Only Ultralight EV1 and NTAG21x tags support it.
+     * A wrong password fails with {@link Rc522.ErrorType#ERROR_AUTHENTICATION}, and the tag must
+     * be activated again.
+     * @param password the password, 4 bytes long
+     * @param pack the array to store the tag's 2 byte password acknowledge to, which can be checked
+     *             to detect fake tags accepting any password, or null
+     * @return true if the tag accepted the password
+     */
+    public boolean authenticate(byte[] password, @Nullable byte[] pack){
+        rc522.getLock().lock();
+        try {
+            frame[0] = COMMAND_PWD_AUTH;
+            System.arraycopy(password, 0, frame, 1, 4);
+            if(!receive(5, Rc522.CommandType.AUTHENTICATION, PACK_LENGTH)){
+                if(error == Rc522.ErrorType.ERROR_NAK){
+                    error = Rc522.ErrorType.ERROR_AUTHENTICATION;
+                }
+                return false;
+            }
+            if(pack != null){
+                System.arraycopy(response, 0, pack, 0, PACK_LENGTH);
+            }
+            return true;
+        } finally {
+            rc522.getLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the error that made the last operation fail
+     * @return the error's type, or null if it succeeded
+     */
+    @Nullable
+    public Rc522.ErrorType getError(){
+        return error;
+    }
+
+    /**
+     * Sends the command in the frame buffer and receives an answer of a known length
+     * @param length the command's length, without its CRC
+     * @param type the type of command, defining the timeout
+     * @param expected the answer's length, without its CRC
+     * @return true if the answer was received
+     */
+    private boolean receive(int length, Rc522.CommandType type, int expected){
+        int received = rc522.transceiveFrame(frame, length, response, type);
+        if(received < 0){
+            error = rc522.getError();
+            return false;
+        }
+        if(received != expected){
+            error = Rc522.ErrorType.ERROR_PROTOCOL;
+            return false;
+        }
+        error = null;
+        return true;
+    }
+
+    private static void checkPage(int page){
+        if(page < 0 || page > 0xFF){
+            throw new IllegalArgumentException("Page must be between 0 and 255");
+        }
+    }
+}
@@ -8,11 +8,21 @@ import com.google.android.things.pio.Gpio;
 import com.google.android.things.pio.SpiDevice;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Library to interact with the RFID-RC522 module
  * <br>
  * Based on <a href="https://github.com/ondryaso/pi-rc522/" target="blank">pi-rc22 by ondryaso</a>
+ * <p>
+ * Every operation holds the reader's lock while it runs, so the reader can be shared between
+ * threads. Methods that return the result of a previous operation, such as {@link #getUid()} or
+ * {@link #getError()}, may see another thread's operation though; to perform a sequence of
+ * operations and get their results safely, use a {@link Rc522Session}.
  *
  * @see <a href="https://www.nxp.com/documents/data_sheet/MFRC522.pdf" target="blank">MFRC522 Reference</a>
  * @see <a href="http://www.nxp.com/docs/en/data-sheet/MF1S50YYX_V1.pdf" target="blank">MIFARE Classic Reference/a>
@@ -21,20 +31,108 @@ import java.io.IOException;
 
 public class Rc522 {
     private static final String TAG = "Rc522";
-    private SpiDevice device;
-    private Gpio resetPin;
-    private int busSpeed = 1000000;
-
-    private byte[] uid;
-
-    private byte[] backData;
+    private final Rc522Transport transport;
+    private int busSpeed = BUS_SPEEDS[0];
+    /* Whether the bus speed was calibrated, and falls back to a lower one when errors rise */
+    private boolean busFallback = false;
+    /* Value of VersionReg read at a known good speed, used to check the bus */
+    private byte chipVersion;
+    /* Commands executed and bus errors seen in the current fallback window */
+    private int busCommands;
+    private int busErrors;
+    /* RF bit rate currently programmed, and the highest one negotiations may choose */
+    private BitRate bitRate = BitRate.KBPS_106;
+    private BitRate maxBitRate = BitRate.KBPS_848;
+    /* Held during every operation, and by sessions for as long as they are open */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final byte[] uid = new byte[10];
+    private int uidLength;
+    private boolean uidRead = false;
+    private byte sak;
+    private int atqa;
+    /* UID part of the current cascade level, followed by its check byte */
+    private final byte[] cascadeUid = new byte[5];
+
+    /* Preallocated buffers, so commands can be sent without creating new arrays */
+    private final byte[] spiBuffer = new byte[MAX_LENGTH + 1];
+    private final byte[] spiResponse = new byte[MAX_LENGTH + 1];
+    private final byte[] commandBuffer = new byte[MAX_LENGTH];
+    private final byte[] valueBuffer = new byte[16];
+    private final RegisterBatch batch = new RegisterBatch(this);
+
+    /* Copy of the configuration registers that only change when written by this driver */
+    private final byte[] shadowRegisters = new byte[64];
+    private long shadowValid = 0;
+
+    private final byte[] backData = new byte[MAX_FRAME_LENGTH];
     private int backDataLength;
     private int backLength;
 
     private boolean debugging = false;
+    private boolean hardwareCrc = false;
+    private volatile boolean poweredDown = false;
+    /* Scanner or pool polling the reader in the background, only one can poll it */
+    private final AtomicReference<Object> poller = new AtomicReference<>();
+    /* Value of ErrorReg after the last command */
+    private byte errorFlags;
+    /* Timeout for every command type, in microseconds */
+    private final int[] timeouts = new int[CommandType.values().length];
     private ErrorType error;
+    /* Only accessed while holding the lock, so it's checked without synchronization on every command */
+    private MetricsListener metricsListener;
+    /* SPI transactions and bytes exchanged so far, to attribute them to the operation in progress */
+    private long transferCount;
+    private long transferByteCount;
+
+    /* Timer prescaler value, giving a 25 microseconds period. See section 9.3.1.10 in MFRC522's datasheet */
+    private static final int TIMER_PRESCALER = 0x0A9;
+    private static final int TIMER_PERIOD_US = 25;
+    /* Prescaler giving a 125 microseconds period, for waits longer than the default one can count */
+    private static final int TIMER_LONG_PRESCALER = 0x34F;
+    private static final int TIMER_LONG_PERIOD_US = 125;
+    /* Maximum time to wait for the oscillator to start after leaving soft power-down */
+    private static final long POWER_UP_TIMEOUT_NS = 5000000L;
+    /* Time tags need to power up once the RF field is switched on, see ISO/IEC 14443-3 */
+    private static final int FIELD_SETTLE_MS = 5;
+    /* Time allowed for SPI traffic on top of the hardware timer, before giving up on the RC522 */
+    private static final long TIMEOUT_MARGIN_NS = 25000000L;
+
+    /* Size of the MFRC522's FIFO buffer, in bytes */
+    private static final byte MAX_LENGTH = 64;
+    /* Longest frame exchanged by streaming it through the FIFO buffer, FSD 256 in ISO/IEC 14443-4 */
+    private static final int MAX_FRAME_LENGTH = 256;
+    /*
+     * FIFO level for the water level alerts. LoAlert is raised when the FIFO holds this many bytes
+     * or less, HiAlert when it has this many free bytes or less, so a whole chunk can be written or
+     * read without checking the level. See section 9.3.1.13 in MFRC522's datasheet
+     */
+    private static final int FIFO_WATER_LEVEL = 16;
+    private static final int FIFO_CHUNK = MAX_LENGTH - FIFO_WATER_LEVEL;
+
+    /* ComIrqReg and ComIEnReg bits, see section 9.3.1.5 in MFRC522's datasheet */
+    private static final int IRQ_TIMER = 0x01;
+    private static final int IRQ_LO_ALERT = 0x04;
+    private static final int IRQ_HI_ALERT = 0x08;
+    private static final int IRQ_IDLE = 0x10;
+    private static final int IRQ_RX = 0x20;
+    private static final int IRQ_TX = 0x40;
 
-    private static final byte MAX_LENGTH = 16;
+    /**
+     * Maximum SPI clock frequency supported by the MFRC522, see section 8.1.2 in MFRC522's datasheet
+     */
+    public static final int MAX_BUS_SPEED = 10000000;
+    /* Frequencies tried by the calibration, the first one is the default and is assumed to work */
+    private static final int[] BUS_SPEEDS = {1000000, 2000000, 4000000, 5000000, 6000000, 8000000, MAX_BUS_SPEED};
+    /* Write and read back rounds performed on every frequency while calibrating */
+    private static final int CALIBRATION_ROUNDS = 8;
+    /* Commands in a fallback window, and bus errors in a window that trigger a check of the bus */
+    private static final int BUS_ERROR_WINDOW = 100;
+    private static final int BUS_ERROR_LIMIT = 5;
+    /* Outcomes of trying a key on a sector, see tryKey */
+    private static final int KEY_OPENED = 0;
+    private static final int KEY_REJECTED = 1;
+    private static final int KEY_TAG_LOST = 2;
 
     /**
      * Authentication using Key A
@@ -44,6 +142,22 @@ public class Rc522 {
      * Authentication using Key B
      */
     public static final byte AUTH_B = 0x61;
+    /**
+     * Request mode for tags in IDLE state (REQA)
+     */
+    public static final byte REQUEST_IDLE = 0x26;
+    /**
+     * Request mode for tags in IDLE or HALT state (WUPA)
+     */
+    public static final byte REQUEST_ALL = 0x52;
+    /**
+     * Size of a MIFARE Classic 1K card's image, in bytes
+     */
+    public static final int IMAGE_SIZE_1K = 1024;
+    /**
+     * Size of a MIFARE Classic 4K card's image, in bytes
+     */
+    public static final int IMAGE_SIZE_4K = 4096;
 
     /* MFRC522 commands, found in Table 149, page 70 */
     private static final byte COMMAND_IDLE = 0x00;
@@ -57,20 +171,33 @@ public class Rc522 {
     /* MIFARE commands */
     private static final byte COMMAND_READ = 0x30;
     private static final byte COMMAND_WRITE = (byte) 0xA0;
-    private static final byte COMMAND_INCREMENT = (byte) 0xC1;
-    private static final byte COMMAND_DECREMENT = (byte) 0xC0;
-    private static final byte COMMAND_RESTORE = (byte) 0xC2;
+    static final byte COMMAND_INCREMENT = (byte) 0xC1;
+    static final byte COMMAND_DECREMENT = (byte) 0xC0;
+    static final byte COMMAND_RESTORE = (byte) 0xC2;
     private static final byte COMMAND_TRANSFER = (byte) 0xb0;
 
+    /* ISO/IEC 14443-4 commands, see sections 5.1 and 5.3 */
+    private static final byte COMMAND_RATS = (byte) 0xE0;
+    private static final byte COMMAND_PPS = (byte) 0xD0;
+    /* Frame size accepted by the reader, FSDI 8 is 256 bytes, streamed through the FIFO buffer */
+    private static final int FSDI = 8;
+
     private static final byte COMMAND_REQUIRE_ID = 0x26;
     private static final byte COMMAND_REQUIRE_ALL = 0x52;
     private static final byte COMMAND_ANTICOLLISION = (byte) 0x93;
     private static final byte COMMAND_SELECT = (byte) 0x93;
     private static final byte COMMAND_END = 0x50;
+    /* Select commands of every cascade level, see section 6.5.3 in ISO/IEC 14443-3 */
+    private static final byte[] COMMAND_SELECT_CASCADE = {(byte) 0x93, (byte) 0x95, (byte) 0x97};
+    /* Cascade tag, preceding the first three UID bytes of a level when the UID continues */
+    private static final byte CASCADE_TAG = (byte) 0x88;
+    /* Failed activations allowed in a row while taking an inventory */
+    private static final int INVENTORY_RETRIES = 3;
 
     /* Found in table 20, page 36 */
     private static final byte REGISTER_COMMAND = 0x01; //CommandReg
     private static final byte REGISTER_INTERRUPT_ENABLE = 0x02; //ComIEnReg
+    private static final byte REGISTER_DIV_INTERRUPT_ENABLE = 0x03; //DivIEnReg
     private static final byte REGISTER_COM_IRQ = 0x04; // DivIEnReg
     private static final byte REGISTER_DIV_IRQ = 0x05; //ComIrqReg
     private static final byte REGISTER_ERROR = 0x06; //ErrorReg
@@ -78,18 +205,30 @@ public class Rc522 {
     private static final byte REGISTER_RXTX_STATUS = 0x08; //Status2Reg
     private static final byte REGISTER_FIFO_DATA = 0x09; //FIFODataReg
     private static final byte REGISTER_FIFO_LEVEL = 0x0A; //FIFOLevelReg
+    private static final byte REGISTER_WATER_LEVEL = 0x0B; //WaterLevelReg
     private static final byte REGISTER_CONTROL = 0x0C; //ControlReg
     private static final byte REGISTER_BIT_FRAMING = 0x0D; //BitFramingReg
+    private static final byte REGISTER_COLLISION = 0x0E; //CollReg
     private static final byte REGISTER_MODE = 0x11; //ModeReg
+    private static final byte REGISTER_TX_BIT_RATE = 0x12; //TxModeReg
+    private static final byte REGISTER_RX_BIT_RATE = 0x13; //RxModeReg
     private static final byte REGISTER_TX_CONTROL = 0x14; //TxControlReg
     private static final byte REGISTER_TX_MODE = 0x15; //TxASKReg
     private static final byte REGISTER_CRC_RESULT_HIGH = 0x21; //CRCResultReg
     private static final byte REGISTER_CRC_RESULT_LOW = 0x22; //CRCResultReg
+    private static final byte REGISTER_MOD_WIDTH = 0x24; //ModWidthReg
     private static final byte REGISTER_RF_CONFIG = 0x26; //RFCfgReg
     private static final byte REGISTER_TIMER_MODE = 0x2A; //TModeReg
     private static final byte REGISTER_TIMER_PRESCALER_MODE = 0x2B; //TPrescalerReg
     private static final byte REGISTER_TIMER_RELOAD_HIGH = 0x2C; //TReloadReg
     private static final byte REGISTER_TIMER_RELOAD_LOW = 0x2D; //TReloadReg
+    private static final byte REGISTER_VERSION = 0x37; //VersionReg
+
+    /* Bit set of the registers kept in the shadow copy, indexed by address */
+    private static final long SHADOWED_REGISTERS = 1L << REGISTER_BIT_FRAMING | 1L << REGISTER_MODE |
+            1L << REGISTER_TX_CONTROL | 1L << REGISTER_TX_MODE | 1L << REGISTER_RF_CONFIG |
+            1L << REGISTER_TIMER_MODE | 1L << REGISTER_TIMER_PRESCALER_MODE |
+            1L << REGISTER_TIMER_RELOAD_HIGH | 1L << REGISTER_TIMER_RELOAD_LOW;
 
     /**
      * Initializes RC522 with the configured SPI port and pins.
@@ -100,9 +239,7 @@ public class Rc522 {
      */
     @Deprecated
     public Rc522(Context context, SpiDevice spiDevice, Gpio resetPin) throws IOException {
-        this.device = spiDevice;
-        this.resetPin = resetPin;
-        initializePeripherals();
+        this(new SpiDeviceTransport(spiDevice, resetPin, null));
     }
 
     /**
@@ -111,32 +248,58 @@ public class Rc522 {
      * @param resetPin Pin connected to the RST pin on the RC522
      */
     public Rc522(SpiDevice spiDevice, Gpio resetPin) throws IOException {
-        this.device = spiDevice;
-        this.resetPin = resetPin;
-        initializePeripherals();
+        this(new SpiDeviceTransport(spiDevice, resetPin, null));
     }
 
     /**
-     *  Performs the initial configuration on hardware ports
-     * @throws IOException if the hardware board had a problem with its hardware ports
+     * Initializes RC522 with the configured SPI port and pins, using the IRQ pin to wait for
+     * commands to complete instead of polling the interrupt registers.
+     * @param spiDevice SPI port used on the board
+     * @param resetPin Pin connected to the RST pin on the RC522
+     * @param irqPin Pin connected to the IRQ pin on the RC522
+     */
+    public Rc522(SpiDevice spiDevice, Gpio resetPin, Gpio irqPin) throws IOException {
+        this(new SpiDeviceTransport(spiDevice, resetPin, irqPin));
+    }
+
+    /**
+     * Initializes RC522 connected through a transport, e.g. a simulator
+     * @param transport the connection to the RC522
+     * @throws IOException if the transport couldn't be configured
      */
-    private void initializePeripherals() throws IOException {
-        device.setFrequency(busSpeed);
-        resetPin.setDirection(Gpio.DIRECTION_OUT_INITIALLY_HIGH);
+    public Rc522(Rc522Transport transport) throws IOException {
+        this.transport = transport;
+        for(CommandType type : CommandType.values()){
+            timeouts[type.ordinal()] = type.getDefaultTimeout();
+        }
+        transport.setFrequency(busSpeed);
         initializeDevice();
     }
 
+    /**
+     * Closes the transport, which stops listening to the IRQ pin, if one was given.
+     * The SPI device and pins are not closed, as they are owned by the caller.
+     */
+    public void close(){
+        transport.close();
+    }
+
     /**
      * Performs the initial device setup and configure the pins used
      */
     private void initializeDevice(){
         reset();
-        writeRegister(REGISTER_TIMER_MODE, (byte) 0x8D);
-        writeRegister(REGISTER_TIMER_PRESCALER_MODE, (byte) 0x3E);
-        writeRegister(REGISTER_TIMER_RELOAD_LOW, (byte) 30);
-        writeRegister(REGISTER_TIMER_RELOAD_HIGH, (byte) 0);
-        writeRegister(REGISTER_TX_MODE, (byte) 0x40);
-        writeRegister(REGISTER_MODE, (byte) 0x3D);
+        batch.clear();
+        // TAuto is set, so the timer starts when a transmission ends and stops when an answer starts
+        batch.write(REGISTER_TIMER_MODE, (byte) (0x80 | (TIMER_PRESCALER >> 8)))
+                .write(REGISTER_TIMER_PRESCALER_MODE, (byte) TIMER_PRESCALER)
+                .write(REGISTER_TX_MODE, (byte) 0x40)
+                .write(REGISTER_MODE, (byte) 0x3D)
+                .write(REGISTER_WATER_LEVEL, (byte) FIFO_WATER_LEVEL);
+        if(transport.hasInterrupt()){
+            batch.write(REGISTER_DIV_INTERRUPT_ENABLE, (byte) 0x84);
+        }
+        batch.commit();
         setAntenna(true);
     }
 
@@ -148,6 +311,280 @@ public class Rc522 {
         this.debugging = debugging;
     }
 
+    /**
+     * Selects whether CRC_A values are calculated by the RC522's CRC coprocessor or in software.
+     * The software implementation is used by default, as it avoids several SPI transactions on every
+     * command sent to the tag.
+     * @param hardwareCrc true to use the RC522's coprocessor, false to calculate it in software
+     */
+    public void setHardwareCrc(boolean hardwareCrc) {
+        this.hardwareCrc = hardwareCrc;
+    }
+
+    /**
+     * Sets the time to wait for a tag's answer for a type of command.
+     * Lower values make operations fail faster when there's no tag in the field, at the risk of
+     * missing slow tags.
+     * @param type the type of command
+     * @param microseconds the timeout, in microseconds
+     */
+    public void setTimeout(CommandType type, int microseconds){
+        timeouts[type.ordinal()] = microseconds;
+    }
+
+    /**
+     * Gets the time to wait for a tag's answer for a type of command
+     * @param type the type of command
+     * @return the timeout, in microseconds
+     */
+    public int getTimeout(CommandType type){
+        return timeouts[type.ordinal()];
+    }
+
+    /**
+     * Gets the SPI clock frequency currently used
+     * @return the frequency, in Hz
+     */
+    public int getBusSpeed(){
+        return busSpeed;
+    }
+
+    /**
+     * Sets the SPI clock frequency. The default is 1 MHz, which works with most wiring, while short
+     * connections usually work up to the MFRC522's limit of 10 MHz.
+     * Setting a frequency disables the fallback enabled by {@link #calibrateBusSpeed()}
+     * @param frequencyHz the frequency, in Hz, up to {@link #MAX_BUS_SPEED}
+     * @return true if the frequency was set
+     * @throws IllegalArgumentException if the frequency is out of range
+     */
+    public boolean setBusSpeed(int frequencyHz){
+        if(frequencyHz <= 0 || frequencyHz > MAX_BUS_SPEED){
+            throw new IllegalArgumentException("Bus speed must be between 1 and " + MAX_BUS_SPEED + " Hz");
+        }
+        lock.lock();
+        try {
+            busFallback = false;
+            return applyBusSpeed(frequencyHz);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Finds the fastest SPI clock frequency that works reliably, up to {@link #MAX_BUS_SPEED}.
+     * @return the frequency now used, in Hz, or 0 if the RC522 couldn't be read reliably even at
+     * the lowest frequency
+     * @see #calibrateBusSpeed(int)
+     */
+    public int calibrateBusSpeed(){
+        return calibrateBusSpeed(MAX_BUS_SPEED);
+    }
+
+    /**
+     * Finds the fastest SPI clock frequency that works reliably.
+     * <br>
+     * Starting from 1 MHz, the frequency is increased in steps. At each step, patterns are written
+     * to the FIFO buffer and read back, and the version register is read and compared with its
+     * value at 1 MHz. The calibration stops at the first step that fails, and settles one step below
+     * the fastest one that passed, leaving a safety margin.
+     * <br>
+     * Once calibrated, the reader watches for signs of bus errors: failed SPI transactions, invalid
+     * FIFO levels, and CRC, protocol and communication errors. If they rise, the bus is checked
+     * again, falling back to lower frequencies until the check passes.
+     * <br>
+     * This should be called with no operation in progress, e.g. right after creating the reader.
+     * @param maxFrequencyHz the highest frequency to try, in Hz
+     * @return the frequency now used, in Hz, or 0 if the RC522 couldn't be read reliably even at
+     * the lowest frequency, in which case the frequency is left unchanged
+     */
+    public int calibrateBusSpeed(int maxFrequencyHz){
+        lock.lock();
+        try {
+            int previous = busSpeed;
+            busFallback = false;
+            if(!applyBusSpeed(BUS_SPEEDS[0])){
+                return 0;
+            }
+            chipVersion = readRegister(REGISTER_VERSION);
+            if(chipVersion == 0 || chipVersion == (byte) 0xFF || !verifyBus(CALIBRATION_ROUNDS)){
+                Log.w(TAG, "RC522 not responding at " + BUS_SPEEDS[0] + " Hz, calibration aborted");
+                applyBusSpeed(previous);
+                return 0;
+            }
+            int passed = 0;
+            boolean failed = false;
+            for(int i = 1; i < BUS_SPEEDS.length && BUS_SPEEDS[i] <= maxFrequencyHz; i++){
+                if(!applyBusSpeed(BUS_SPEEDS[i]) || !verifyBus(CALIBRATION_ROUNDS)){
+                    failed = true;
+                    break;
+                }
+                passed = i;
+            }
+            if(failed && passed > 0){
+                passed--;
+            }
+            if(!applyBusSpeed(BUS_SPEEDS[passed])){
+                return 0;
+            }
+            busFallback = true;
+            busCommands = 0;
+            busErrors = 0;
+            if(debugging){
+                Log.d(TAG, "Bus speed calibrated to " + busSpeed + " Hz");
+            }
+            return busSpeed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the RF bit rate currently used to communicate with the tag
+     * @return the bit rate, 106 kbit/s unless a higher one was negotiated with the selected tag
+     */
+    public BitRate getBitRate(){
+        return bitRate;
+    }
+
+    /**
+     * Gets the highest RF bit rate {@link #negotiateBitRate(byte[], int)} may choose. It's lowered
+     * by one step whenever a frame is corrupted at a higher bit rate
+     * @return the bit rate
+     */
+    public BitRate getMaxBitRate(){
+        return maxBitRate;
+    }
+
+    /**
+     * Sets the highest RF bit rate {@link #negotiateBitRate(byte[], int)} may choose. The default
+     * is 848 kbit/s, the highest supported by the MFRC522
+     * @param maxBitRate the bit rate, {@link BitRate#KBPS_106} disables negotiation
+     */
+    public void setMaxBitRate(BitRate maxBitRate){
+        lock.lock();
+        try {
+            this.maxBitRate = maxBitRate;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Changes the SPI clock frequency of the transport
+     * @return true if the transport accepted the frequency
+     */
+    private boolean applyBusSpeed(int frequencyHz){
+        try {
+            transport.setFrequency(frequencyHz);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        busSpeed = frequencyHz;
+        return true;
+    }
+
+    /**
+     * Checks the bus at the current frequency, writing patterns to the FIFO buffer and reading them
+     * back, and reading the version register. The FIFO buffer's contents are lost.
+     * @param rounds the number of patterns to try
+     * @return true if every value was read back correctly
+     */
+    private boolean verifyBus(int rounds){
+        writeRegister(REGISTER_COMMAND, COMMAND_IDLE);
+        for(int round = 0; round < rounds; round++){
+            // Alternating bits, all zeros and all ones, and bytes changing on every round
+            for(int i = 0; i < MAX_LENGTH; i++){
+                switch((i + round) % 4){
+                    case 0:
+                        commandBuffer[i] = 0x55;
+                        break;
+                    case 1:
+                        commandBuffer[i] = (byte) 0xAA;
+                        break;
+                    case 2:
+                        commandBuffer[i] = (byte) (round % 2 == 0 ? 0x00 : 0xFF);
+                        break;
+                    default:
+                        commandBuffer[i] = (byte) (i * 37 + round * 101);
+                }
+            }
+            writeRegister(REGISTER_FIFO_LEVEL, (byte) 0x80);
+            if(!writeFifo(commandBuffer, 0, MAX_LENGTH)){
+                return false;
+            }
+            if(readRegister(REGISTER_FIFO_LEVEL) != MAX_LENGTH){
+                return false;
+            }
+            // Same transaction as readFifo, checking it succeeded
+            byte address = (byte) (((REGISTER_FIFO_DATA << 1) & 0x7E) | 0x80);
+            for(int i = 0; i < MAX_LENGTH; i++){
+                spiBuffer[i] = address;
+            }
+            spiBuffer[MAX_LENGTH] = 0;
+            if(!transfer(MAX_LENGTH + 1)){
+                return false;
+            }
+            for(int i = 0; i < MAX_LENGTH; i++){
+                if(spiResponse[i + 1] != commandBuffer[i]){
+                    return false;
+                }
+            }
+            if(readRegister(REGISTER_VERSION) != chipVersion){
+                return false;
+            }
+        }
+        writeRegister(REGISTER_FIFO_LEVEL, (byte) 0x80);
+        return true;
+    }
+
+    /**
+     * Programs the RC522's timer, only writing the reload registers if their value changes
+     * @param microseconds the time until the timer expires
+     */
+    private void setTimer(int microseconds){
+        int prescaler = TIMER_PRESCALER;
+        int period = TIMER_PERIOD_US;
+        if(microseconds > 0xFFFF * TIMER_PERIOD_US){
+            prescaler = TIMER_LONG_PRESCALER;
+            period = TIMER_LONG_PERIOD_US;
+        }
+        byte prescalerLow = (byte) prescaler;
+        if((shadowValid & 1L << REGISTER_TIMER_PRESCALER_MODE) == 0 || shadowRegisters[REGISTER_TIMER_PRESCALER_MODE] != prescalerLow){
+            writeRegister(REGISTER_TIMER_MODE, (byte) (0x80 | (prescaler >> 8)));
+            writeRegister(REGISTER_TIMER_PRESCALER_MODE, prescalerLow);
+        }
+        int reload = (microseconds + period - 1) / period;
+        if(reload < 1){
+            reload = 1;
+        }else if(reload > 0xFFFF){
+            reload = 0xFFFF;
+        }
+        byte high = (byte) (reload >> 8);
+        byte low = (byte) reload;
+        if((shadowValid & 1L << REGISTER_TIMER_RELOAD_HIGH) == 0 || shadowRegisters[REGISTER_TIMER_RELOAD_HIGH] != high){
+            writeRegister(REGISTER_TIMER_RELOAD_HIGH, high);
+        }
+        if((shadowValid & 1L << REGISTER_TIMER_RELOAD_LOW) == 0 || shadowRegisters[REGISTER_TIMER_RELOAD_LOW] != low){
+            writeRegister(REGISTER_TIMER_RELOAD_LOW, low);
+        }
+    }
+
+    /**
+     * Sets a listener to receive the duration and outcome of every command, operation and SPI
+     * transaction performed by this reader. Operations aren't timed while no listener is set.
+     * @param listener the listener, or null to stop measuring
+     * @see Rc522Metrics
+     */
+    public void setMetricsListener(@Nullable MetricsListener listener){
+        lock.lock();
+        try {
+            metricsListener = listener;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * Gets the last error, to get a more specific reason when an operation fails
      * @return the error's type
@@ -159,10 +596,45 @@ public class Rc522 {
     /**
      * Gets the UID of the last card that was successfully read. This may be empty if no card has
      * been read before.
-     * @return A byte array containing the card's UID.
+     * <br>
+     * After {@link #antiCollisionDetect()}, it holds the first cascade level's four bytes
+     * followed by their check byte. After {@link #activateTag(byte)}, it holds the complete
+     * 4, 7 or 10 byte UID.
+     * @return A copy of the card's UID.
      */
     public byte[] getUid(){
-        return uid;
+        return uidRead ? Arrays.copyOf(uid, uidLength) : null;
+    }
+
+    /**
+     * Copies the UID of the last card that was successfully read into an existing array.
+     * @param buffer the array to copy the UID to, it must be long enough to hold the UID, up to 10
+     *               bytes
+     * @return the number of bytes copied, 0 if no card has been read before
+     */
+    public int getUid(byte[] buffer){
+        if(!uidRead){
+            return 0;
+        }
+        System.arraycopy(uid, 0, buffer, 0, uidLength);
+        return uidLength;
+    }
+
+    /**
+     * Gets the SAK (Select acknowledge) of the last selected tag, which identifies the tag's type.
+     * For example, 0x08 for MIFARE Classic 1K and 0x18 for MIFARE Classic 4K
+     * @return the SAK byte
+     */
+    public byte getSak(){
+        return sak;
+    }
+
+    /**
+     * Gets the ATQA (Answer to request) of the last tag activated with {@link #activateTag(byte)}
+     * @return the ATQA, with its first received byte as the least significant one
+     */
+    public int getAtqa(){
+        return atqa;
     }
 
     /**
@@ -181,13 +653,13 @@ public class Rc522 {
      * @return A string representing the tag's UID
      */
     public String getUidString(String separator){
-        if(this.uid == null){
+        if(!uidRead){
             return "";
         }
         StringBuilder sb = new StringBuilder();
         String prefix = "";
-        for(byte b : this.uid){
-            int ubyte = b&0xff;
+        for(int i = 0; i < uidLength; i++){
+            int ubyte = uid[i]&0xff;
             if(ubyte == 0){
                 break;
             }
@@ -210,6 +682,9 @@ public class Rc522 {
      */
     private void reset(){
         writeRegister(REGISTER_COMMAND, COMMAND_SOFT_RESET);
+        // Every register goes back to its default value
+        shadowValid = 0;
+        bitRate = BitRate.KBPS_106;
     }
 
     /**
@@ -218,266 +693,1355 @@ public class Rc522 {
      * @param value The value that will be written
      */
     private void writeRegister(byte address, byte value){
-        byte buffer[] = {(byte) (((address << 1) & 0x7E)), value};
-        byte response[] = new byte[buffer.length];
-        try {
-            device.transfer(buffer, response, buffer.length);
-        } catch (IOException e) {
-            e.printStackTrace();
+        spiBuffer[0] = (byte) ((address << 1) & 0x7E);
+        spiBuffer[1] = value;
+        if(transfer(2)){
+            updateShadowRegister(address, value);
         }
     }
 
     /**
-     * Reads the current value on the RC522's register
-     * @param address The address to read from
-     * @return the byte value currently stored in the register
+     * Creates a batch of register operations, to read or write several registers with fewer
+     * SPI transactions
+     * @return an empty batch for this RC522
      */
-    public byte readRegister(byte address){
-        byte buffer[] = {(byte) (((address << 1) & 0x7E) | 0x80), 0};
-        byte response[] = new byte[buffer.length];
-        try {
-            device.transfer(buffer, response, buffer.length);
-            return response[1];
-        } catch (IOException e) {
-            e.printStackTrace();
-            return 0;
-        }
+    public RegisterBatch newBatch(){
+        return new RegisterBatch(this);
     }
 
     /**
-     * Disables or enables the RC522's antenna
-     * @param enabled State to set the antenna to
+     * Registers a {@link Rc522Scanner} or {@link Rc522Pool} as the one polling this reader
+     * @param poller the scanner or pool
+     * @return false if the reader is already polled by another one, or by this one
      */
-    public void setAntenna(boolean enabled){
-        if(enabled){
-            byte currentState = readRegister(REGISTER_TX_CONTROL);
-            if((currentState & 0x03) != 0x03){
-                setBitMask(REGISTER_TX_CONTROL, (byte) 0x03);
-            }
-        }else{
-            clearBitMask(REGISTER_TX_CONTROL, (byte) 0x03);
-        }
+    boolean claimPoller(Object poller){
+        return this.poller.compareAndSet(null, poller);
     }
 
     /**
-     * Sets the antenna's gain by writing in the configuration register.
-     * @param rxGain the desired decibel value out of the available options
+     * Unregisters the scanner polling this reader, so another one can poll it
+     * @param poller the scanner that was polling the reader
      */
-    public void setAntennaGain(RxGain rxGain){
-        clearBitMask(REGISTER_RF_CONFIG, (byte) 0x70);
-        setBitMask(REGISTER_RF_CONFIG, rxGain.getValue());
+    void releasePoller(Object poller){
+        this.poller.compareAndSet(poller, null);
     }
 
     /**
-     * Sets the bits of a register according to a bit mask
-     * This allows turning on only specific bytes of a register without altering the rest
-     * @param address The register's address
-     * @param mask The mask to apply
+     * Opens a session, giving the calling thread exclusive use of the reader until it's closed.
+     * Blocks while another thread has a session open or an operation in progress.
+     * <br>
+     * If the RC522 is in soft power-down, e.g. because a {@link Rc522Scanner} is idling in low
+     * power mode, it's woken up and the RF field is given time to power the tags up. It's powered
+     * down again when the session is closed.
+     * @return a new session, which must be closed once done
      */
-    private void setBitMask(byte address, byte mask){
-        byte value = readRegister(address);
-        writeRegister(address, (byte) (value | mask));
+    public Rc522Session openSession(){
+        lock.lock();
+        boolean wokeUp = poweredDown;
+        if(wokeUp){
+            try {
+                powerUp();
+                Thread.sleep(FIELD_SETTLE_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                lock.unlock();
+                throw e;
+            }
+        }
+        return new Rc522Session(this, wokeUp);
     }
 
     /**
-     * Clears the bits of a register according to a bit mask
-     * This allows turning off only specific bytes of a register without altering the rest
-     * @param address The register's address
-     * @param mask The mask to apply
+     * Gets the lock held during operations and sessions
+     * @return the reader's lock
      */
-    private void clearBitMask(byte address, byte mask){
-        byte value = readRegister(address);
-        writeRegister(address, (byte) (value & (~mask)));
+    ReentrantLock getLock(){
+        return lock;
     }
 
     /**
-     * Executes a command by writing data to the FIFO buffer and calling the command.
-     * It waits for the command to complete and then reads the FIFO buffer again
-     * @param command the command to execute, as shown in section 10.3 in MFRC522's datasheet
-     * @param data byte array that will be written in the FIFO buffer
-     * @return the data in the FIFO buffer after executing the command
+     * Copies the outcome of the last operation to a result
+     * @param result the result to fill
+     * @param success whether the operation succeeded
+     * @param length the number of received bytes to copy, if they were received
      */
-    private boolean execute(byte command, byte [] data){
-        backData = new byte[16];
-        backLength = 0;
-        byte irq = 0;
-        byte irqWait = 0;
-        byte lastBits = 0;
-        boolean success = false;
-        if(command == COMMAND_MF_AUTHENT){
-            irq = 0x12;
-            irqWait = 0x10;
-        }
-        if(command == COMMAND_TRANSCEIVE){
-            irq = 0x77;
-            irqWait = 0x30;
-        }
-        writeRegister(REGISTER_COMMAND, COMMAND_IDLE);
-        writeRegister(REGISTER_COM_IRQ, (byte) 0x7F);
-        writeRegister(REGISTER_FIFO_LEVEL, (byte) 0x80);
-        writeRegister(REGISTER_INTERRUPT_ENABLE, (byte) (irq | 0x80));
-
-        for(byte d : data){
-            writeRegister(REGISTER_FIFO_DATA, d);
-        }
-
-        writeRegister(REGISTER_COMMAND, command);
-        if(command == COMMAND_TRANSCEIVE){
-            setBitMask(REGISTER_BIT_FRAMING, (byte) 0x80);
-        }
-        long start = System.nanoTime();
-        long end = 0;
-        do{
-            byte n = readRegister(REGISTER_COM_IRQ);
-            if((n & irqWait) != 0){
-                success = true;
-                break;
-            }
-            if((n & 0x01) != 0){
-                return false;
-            }
-            end = System.nanoTime();
-        }while(start + 35700000L > end);
+    void copyResult(Rc522Result result, boolean success, int length){
+        ErrorType resultError = null;
         if(!success){
-            return false;
+            resultError = error != null ? error : ErrorType.ERROR_PROTOCOL;
         }
-        byte errorValue = readRegister(REGISTER_ERROR);
-        if((errorValue & 0x13) != 0){
-            return false;
-        }
-        clearBitMask(REGISTER_BIT_FRAMING, (byte) 0x80);
-        if(command == COMMAND_TRANSCEIVE){
-            byte n = readRegister(REGISTER_FIFO_LEVEL);
-            lastBits = (byte) (readRegister(REGISTER_CONTROL) & 0x07);
-            if(lastBits != 0){
-                backLength = (n-1)* 8 + lastBits;
-            }else{
-                backLength = n*8;
-            }
-            if(n == 0){
-                n = 1;
-            }
-
-            if( n > MAX_LENGTH){
-                n = MAX_LENGTH;
-            }
+        result.set(resultError, backLength, backData, success ? Math.min(length, backDataLength) : 0);
+    }
 
-            for(byte i = 0; i < n; i++){
-                backData[i] = readRegister(REGISTER_FIFO_DATA);
-                backDataLength = i+1;
+    /**
+     * Reads the current value on the RC522's register
+     * @param address The address to read from
+     * @return the byte value currently stored in the register
+     */
+    public byte readRegister(byte address){
+        lock.lock();
+        try {
+            spiBuffer[0] = (byte) (((address << 1) & 0x7E) | 0x80);
+            spiBuffer[1] = 0;
+            if(!transfer(2)){
+                return 0;
             }
+            return spiResponse[1];
+        } finally {
+            lock.unlock();
         }
-        return true;
     }
 
     /**
-     * Requests for a tag
-     * @return true if a tag is present
+     * Sends the first bytes of the SPI buffer to the RC522 in a single transaction.
+     * The received bytes are stored in the SPI response buffer.
+     * @param length the number of bytes to transfer
+     * @return true if the transfer was successful
      */
-    public boolean request(){
-        return this.request(COMMAND_REQUIRE_ID);
+    private boolean transfer(int length){
+        return transfer(spiBuffer, spiResponse, length);
     }
 
     /**
-     * Requests for a tag
-     * @param requestMode the type of request being made
-     * @return true if a tag is present
+     * Performs a single SPI transaction with the RC522
+     * @param txBuffer the bytes to send
+     * @param rxBuffer the array to store the received bytes to
+     * @param length the number of bytes to transfer
+     * @return true if the transfer was successful
      */
-    public boolean request(byte requestMode){
-        byte tagType[]=new byte[]{requestMode};
-
-        writeRegister(REGISTER_BIT_FRAMING, (byte) 0x07);
-
-        boolean success =  execute(COMMAND_TRANSCEIVE, tagType);
-        if(!success || backLength != 0x10){
-            backLength = 0;
+    boolean transfer(byte[] txBuffer, byte[] rxBuffer, int length){
+        boolean success;
+        try {
+            transport.transfer(txBuffer, rxBuffer, length);
+            success = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            busErrors++;
             success = false;
         }
+        transferCount++;
+        transferByteCount += length;
+        if(metricsListener != null){
+            metricsListener.onTransfer(length, success);
+        }
         return success;
-
     }
 
     /**
-     * Checks for collision errors
-     * @return true if there are no collision errors
+     * Gets the time an operation starts at, if it's being measured
+     * @return the current time in nanoseconds, or 0 if there's no metrics listener
      */
-    public boolean antiCollisionDetect(){
-        int serial_number_check = 0;
-        int i;
-
-        writeRegister(REGISTER_BIT_FRAMING, (byte) 0x00);
-        byte[] serial_number = new byte[]{COMMAND_ANTICOLLISION, 0x20};
+    private long startTiming(){
+        return metricsListener != null ? System.nanoTime() : 0;
+    }
 
-        boolean success = execute(COMMAND_TRANSCEIVE,serial_number);
-        if(success){
-            if(backDataLength == 5){
-                for(i=0; i < 4; i++){
-                    serial_number_check ^= backData[i];
-                }
-                if(serial_number_check != backData[4]){
-                    return false;
-                }
-            }
-            uid = backData;
+    /**
+     * Reports a command's duration and outcome to the metrics listener, if any
+     * @param type the type of command
+     * @param start the time returned by {@link #startTiming()} before sending it
+     * @param success whether the command succeeded
+     * @return the value of success
+     */
+    private boolean recordCommand(CommandType type, long start, boolean success){
+        if(metricsListener != null){
+            metricsListener.onCommand(type, System.nanoTime() - start, success, success ? null : error, errorFlags);
         }
         return success;
     }
 
     /**
-     * Calculates the CRC value
-     * @param data the data the crc value wil lbe generated for
-     * @return 2-byte array containing the crc value or null if something failed
+     * Reports an operation's duration, outcome and SPI traffic to the metrics listener, if any
+     * @param operation the operation
+     * @param start the time returned by {@link #startTiming()} before starting it
+     * @param startTransfers the number of SPI transactions performed before starting it
+     * @param startBytes the number of bytes exchanged before starting it
+     * @param success whether the operation succeeded
+     * @return the value of success
      */
-    @Nullable
-    private byte[] calculateCrc(byte[] data){
-        writeRegister(REGISTER_COMMAND, COMMAND_IDLE);
-        writeRegister(REGISTER_DIV_IRQ, (byte) 0x04);
-        writeRegister(REGISTER_FIFO_LEVEL, (byte) 0x80);
-
-        for(int i = 0;i < data.length-2; i++){
-            writeRegister(REGISTER_FIFO_DATA, data[i]);
+    private boolean recordOperation(Operation operation, long start, long startTransfers, long startBytes, boolean success){
+        if(metricsListener != null){
+            metricsListener.onOperation(operation, System.nanoTime() - start, success, success ? null : error,
+                    (int) (transferCount - startTransfers), (int) (transferByteCount - startBytes));
         }
-        writeRegister(REGISTER_COMMAND, COMMAND_CALCULATE_CRC);
-        long start = System.nanoTime();
-        long end = 0;
-        do{
-            byte n = readRegister(REGISTER_DIV_IRQ);
-            //Check if CRCIRq bit is set
-            if((n & 0x04) != 0){
-                writeRegister(REGISTER_COMMAND, COMMAND_IDLE);
-                return new byte[]{readRegister(REGISTER_CRC_RESULT_LOW),readRegister(REGISTER_CRC_RESULT_HIGH)};
-            }
-            end = System.nanoTime();
-        }while(start + 89000000L >= end);
-        error = ErrorType.ERROR_TIMEOUT;
-        Log.w(TAG,"Timed out calculating CRC");
-        return null;
+        return success;
     }
 
     /**
-     * Selects the tag to be used in following operations
+     * Stores a value written to a register, if the register is kept in the shadow copy
+     * @param address The register's address
+     * @param value The value written
+     */
+    void updateShadowRegister(byte address, byte value){
+        if((SHADOWED_REGISTERS & 1L << address) != 0){
+            shadowRegisters[address] = value;
+            shadowValid |= 1L << address;
+        }
+    }
+
+    /**
+     * Gets a register's value, from the shadow copy if the register is kept there and its value
+     * is already known, avoiding a SPI transaction.
+     * @param address The address to read from
+     * @return the byte value currently stored in the register
+     */
+    private byte readShadowedRegister(byte address){
+        if((shadowValid & 1L << address) != 0){
+            return shadowRegisters[address];
+        }
+        byte value = readRegister(address);
+        updateShadowRegister(address, value);
+        return value;
+    }
+
+    /**
+     * Writes several bytes to the FIFO buffer in a single SPI transaction.
+     * The MFRC522 keeps writing to the same address for every byte after the address byte, see
+     * section 8.1.2.3 in MFRC522's datasheet
+     * @param data the bytes to write
+     * @param offset the index of the first byte to write
+     * @param length the number of bytes from data to write, up to the FIFO's size
+     * @return true if the transfer was successful
+     */
+    private boolean writeFifo(byte[] data, int offset, int length){
+        spiBuffer[0] = (byte) ((REGISTER_FIFO_DATA << 1) & 0x7E);
+        System.arraycopy(data, offset, spiBuffer, 1, length);
+        return transfer(length + 1);
+    }
+
+    /**
+     * Reads several bytes from the FIFO buffer in a single SPI transaction.
+     * The read address is repeated for every byte, the last byte sent is 0 to end the read, see
+     * section 8.1.2.2 in MFRC522's datasheet
+     * @param data the array to store the read bytes to
+     * @param offset the index to store the first byte at
+     * @param length the number of bytes to read, up to the FIFO's size
+     * @return true if the transfer was successful, otherwise nothing is stored to data. Lengths
+     * the FIFO can't hold, or that don't fit in data, fail without a transfer
+     */
+    private boolean readFifo(byte[] data, int offset, int length){
+        if(length < 0 || length > MAX_LENGTH || offset < 0 || offset + length > data.length){
+            return false;
+        }
+        byte address = (byte) (((REGISTER_FIFO_DATA << 1) & 0x7E) | 0x80);
+        for(int i = 0; i < length; i++){
+            spiBuffer[i] = address;
+        }
+        spiBuffer[length] = 0;
+        if(!transfer(length + 1)){
+            return false;
+        }
+        System.arraycopy(spiResponse, 1, data, offset, length);
+        return true;
+    }
+
+    /**
+     * Switches off the RF field and puts the RC522 in soft power-down mode, see section 8.6.2 in
+     * MFRC522's datasheet. Register values are kept, but no commands can be executed until
+     * {@link #powerUp()} is called.
+     */
+    public void powerDown(){
+        lock.lock();
+        try {
+            if(poweredDown){
+                return;
+            }
+            setAntenna(false);
+            writeRegister(REGISTER_COMMAND, (byte) (COMMAND_IDLE | 0x10));
+            poweredDown = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wakes the RC522 up from soft power-down mode and switches the RF field back on.
+     * Tags in the field need a few milliseconds to power up before they can answer
+     * @return the time it took for the RC522 to become ready, in nanoseconds
+     */
+    public long powerUp(){
+        lock.lock();
+        try {
+            long start = System.nanoTime();
+            if(!poweredDown){
+                return 0;
+            }
+            writeRegister(REGISTER_COMMAND, COMMAND_IDLE);
+            // The PowerDown bit stays set until the oscillator is stable
+            while((readRegister(REGISTER_COMMAND) & 0x10) != 0){
+                if(System.nanoTime() - start > POWER_UP_TIMEOUT_NS){
+                    error = ErrorType.ERROR_TIMEOUT;
+                    Log.w(TAG, "Timed out waiting for power up");
+                    break;
+                }
+            }
+            poweredDown = false;
+            setAntenna(true);
+            return System.nanoTime() - start;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks if the RC522 is in soft power-down mode
+     * @return true if {@link #powerDown()} was called and the RC522 wasn't woken up yet
+     */
+    public boolean isPoweredDown(){
+        return poweredDown;
+    }
+
+    /**
+     * Disables or enables the RC522's antenna
+     * @param enabled State to set the antenna to
+     */
+    public void setAntenna(boolean enabled){
+        lock.lock();
+        try {
+            if(enabled){
+                byte currentState = readShadowedRegister(REGISTER_TX_CONTROL);
+                if((currentState & 0x03) != 0x03){
+                    setBitMask(REGISTER_TX_CONTROL, (byte) 0x03);
+                }
+            }else{
+                clearBitMask(REGISTER_TX_CONTROL, (byte) 0x03);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the antenna's gain by writing in the configuration register.
+     * @param rxGain the desired decibel value out of the available options
+     */
+    public void setAntennaGain(RxGain rxGain){
+        lock.lock();
+        try {
+            clearBitMask(REGISTER_RF_CONFIG, (byte) 0x70);
+            setBitMask(REGISTER_RF_CONFIG, rxGain.getValue());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the bits of a register according to a bit mask
+     * This allows turning on only specific bytes of a register without altering the rest
+     * Registers in the shadow copy are not read back from the RC522
+     * @param address The register's address
+     * @param mask The mask to apply
+     */
+    private void setBitMask(byte address, byte mask){
+        byte value = readShadowedRegister(address);
+        writeRegister(address, (byte) (value | mask));
+    }
+
+    /**
+     * Clears the bits of a register according to a bit mask
+     * This allows turning off only specific bytes of a register without altering the rest
+     * Registers in the shadow copy are not read back from the RC522
+     * @param address The register's address
+     * @param mask The mask to apply
+     */
+    private void clearBitMask(byte address, byte mask){
+        byte value = readShadowedRegister(address);
+        writeRegister(address, (byte) (value & (~mask)));
+    }
+
+    /**
+     * Waits until any of the bits in a mask are set in an interrupt request register.
+     * If the IRQ pin is available, the thread sleeps until it signals an interrupt, otherwise the
+     * register is polled.
+     * @param address The interrupt request register, ComIrqReg or DivIrqReg
+     * @param mask The bits to wait for
+     * @param timeout Maximum time to wait, in nanoseconds
+     * @return the register's last value, it doesn't match the mask if the wait timed out
+     */
+    private byte waitForIrq(byte address, int mask, long timeout){
+        byte n = pollIrq(address, mask, timeout);
+        if(transport.hasInterrupt()){
+            // Release the IRQ line so the next interrupt generates a new edge
+            writeRegister(address, (byte) 0x7F);
+        }
+        return n;
+    }
+
+    /**
+     * Waits like {@link #waitForIrq(byte, int, long)}, but leaves the register untouched, so the
+     * caller can clear only the bits it handled. The IRQ line is released once every bit enabled
+     * in ComIEnReg is cleared
+     */
+    private byte pollIrq(byte address, int mask, long timeout){
+        boolean useIrq = transport.hasInterrupt();
+        long deadline = System.nanoTime() + timeout;
+        byte n;
+        while(true){
+            if(useIrq){
+                transport.clearInterrupt();
+            }
+            n = readRegister(address);
+            if((n & mask) != 0){
+                break;
+            }
+            long remaining = deadline - System.nanoTime();
+            if(remaining <= 0){
+                break;
+            }
+            if(useIrq && !transport.awaitInterrupt(remaining) && Thread.currentThread().isInterrupted()){
+                break;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Executes a command by writing data to the FIFO buffer and calling the command.
+     * It waits for the command to complete and then reads the FIFO buffer again
+     * @param command the command to execute, as shown in section 10.3 in MFRC522's datasheet
+     * @param data byte array that will be written in the FIFO buffer
+     * @param length the number of bytes from data that will be written
+     * @param type the type of command being sent to the tag, defining the timeout
+     * @return the data in the FIFO buffer after executing the command
+     */
+    private boolean execute(byte command, byte[] data, int length, CommandType type){
+        return execute(command, data, length, type, timeouts[type.ordinal()]);
+    }
+
+    /**
+     * Executes a command, waiting for the tag's answer for a given time instead of the command
+     * type's timeout
+     * @param timeout the time to wait for the tag's answer, in microseconds
+     * @see #execute(byte, byte[], int, CommandType)
+     */
+    private boolean execute(byte command, byte[] data, int length, CommandType type, int timeout){
+        if(busFallback){
+            checkBusErrors();
+        }
+        long start = startTiming();
+        return recordCommand(type, start, executeCommand(command, data, length, type, timeout));
+    }
+
+    /**
+     * Counts a command in the current fallback window, along with the previous command's error if
+     * it could have been caused by bytes corrupted on the bus. If too many bus errors were seen in
+     * the window, the bus is checked, falling back to lower frequencies until the check passes
+     */
+    private void checkBusErrors(){
+        if(error == ErrorType.ERROR_CRC || error == ErrorType.ERROR_PROTOCOL || error == ErrorType.ERROR_COMMUNICATION){
+            busErrors++;
+        }
+        busCommands++;
+        if(busErrors < BUS_ERROR_LIMIT){
+            if(busCommands >= BUS_ERROR_WINDOW){
+                busCommands = 0;
+                busErrors = 0;
+            }
+            return;
+        }
+        // Errors can also come from the RF field, the frequency is only lowered if the bus fails
+        while(!verifyBus(CALIBRATION_ROUNDS)){
+            int lower = 0;
+            for(int speed : BUS_SPEEDS){
+                if(speed < busSpeed){
+                    lower = speed;
+                }
+            }
+            if(lower == 0){
+                Log.w(TAG, "Bus errors at the lowest speed, " + busSpeed + " Hz");
+                break;
+            }
+            Log.w(TAG, "Bus errors at " + busSpeed + " Hz, falling back to " + lower + " Hz");
+            if(!applyBusSpeed(lower)){
+                break;
+            }
+        }
+        busCommands = 0;
+        busErrors = 0;
+    }
+
+    /**
+     * Implementation of {@link #execute(byte, byte[], int, CommandType, int)}, without the metrics
+     */
+    private boolean executeCommand(byte command, byte[] data, int length, CommandType type, int timeout){
+        error = null;
+        errorFlags = 0;
+        backLength = 0;
+        backDataLength = 0;
+        setTimer(timeout);
+        // The timer is the authoritative timeout, the wait is only limited in case the RC522 doesn't answer
+        long waitTimeout = timeout * 1000L + TIMEOUT_MARGIN_NS;
+        int received = 0;
+        if(command == COMMAND_TRANSCEIVE && type.streamed){
+            received = transceiveStreaming(data, length, waitTimeout);
+            if(received < 0){
+                return false;
+            }
+        }else{
+            int irqWait = 0;
+            if(command == COMMAND_MF_AUTHENT){
+                irqWait = IRQ_IDLE;
+            }
+            if(command == COMMAND_TRANSCEIVE){
+                irqWait = IRQ_RX | IRQ_IDLE;
+            }
+            batch.clear();
+            // Only the bits being waited on may drive the IRQ pin, otherwise it could stay asserted
+            batch.write(REGISTER_COMMAND, COMMAND_IDLE)
+                    .write(REGISTER_COM_IRQ, (byte) 0x7F)
+                    .write(REGISTER_FIFO_LEVEL, (byte) 0x80)
+                    .write(REGISTER_INTERRUPT_ENABLE, (byte) (0x80 | irqWait | IRQ_TIMER));
+            // If the frame didn't reach the FIFO the command isn't started, so it can't time out
+            if(!batch.commit() || !writeFifo(data, 0, length)){
+                error = ErrorType.ERROR_COMMUNICATION;
+                return false;
+            }
+
+            writeRegister(REGISTER_COMMAND, command);
+            if(command == COMMAND_TRANSCEIVE){
+                setBitMask(REGISTER_BIT_FRAMING, (byte) 0x80);
+            }
+            byte irqValue = waitForIrq(REGISTER_COM_IRQ, irqWait | IRQ_TIMER, waitTimeout);
+            if((irqValue & irqWait) == 0){
+                error = ErrorType.ERROR_TIMEOUT;
+                return false;
+            }
+        }
+        // Status registers are read in a single transaction
+        batch.clear();
+        int errorIndex = batch.read(REGISTER_ERROR);
+        int levelIndex = -1;
+        int controlIndex = -1;
+        if(command == COMMAND_TRANSCEIVE){
+            levelIndex = batch.read(REGISTER_FIFO_LEVEL);
+            controlIndex = batch.read(REGISTER_CONTROL);
+        }
+        if(!batch.commit()){
+            error = ErrorType.ERROR_COMMUNICATION;
+            return false;
+        }
+        byte errorValue = batch.get(errorIndex);
+        errorFlags = errorValue;
+        if((errorValue & 0x13) != 0){
+            error = ErrorType.ERROR_COMMUNICATION;
+            limitBitRate();
+            return false;
+        }
+        clearBitMask(REGISTER_BIT_FRAMING, (byte) 0x80);
+        if(command == COMMAND_TRANSCEIVE){
+            int n = batch.get(levelIndex) & 0xFF;
+            if(n > MAX_LENGTH){
+                // FIFOLevelReg can't go past the FIFO's size, the value was corrupted on the bus
+                busErrors++;
+                error = ErrorType.ERROR_COMMUNICATION;
+                return false;
+            }
+            byte lastBits = (byte) (batch.get(controlIndex) & 0x07);
+            if(lastBits != 0){
+                backLength = (received + n - 1) * 8 + lastBits;
+            }else{
+                backLength = (received + n) * 8;
+            }
+            if(received + n == 0){
+                n = 1;
+            }
+            if(received + n > backData.length){
+                // The tag sent a longer frame than the reader announced
+                error = ErrorType.ERROR_PROTOCOL;
+                return false;
+            }
+
+            // backData still holds the previous answer, which mustn't pass for this one
+            if(!readFifo(backData, received, n)){
+                error = ErrorType.ERROR_COMMUNICATION;
+                return false;
+            }
+            backDataLength = received + n;
+        }
+        return true;
+    }
+
+    /**
+     * Sends a frame with the Transceive command and receives the answer, streaming both through the
+     * FIFO buffer, so they can be up to {@link #MAX_FRAME_LENGTH} bytes long. The FIFO is refilled
+     * when it raises LoAlert while sending, and drained when it raises HiAlert while receiving.
+     * Each alert is cleared after handling it, so it isn't raised again right away.
+     * @param data the frame to send
+     * @param length the frame's length
+     * @param waitTimeout the maximum time to wait for each alert, in nanoseconds
+     * @return the number of bytes of the answer already read to {@link #backData}, the rest is
+     * left in the FIFO buffer, or -1 if the exchange failed
+     */
+    private int transceiveStreaming(byte[] data, int length, long waitTimeout){
+        int sent = Math.min(length, MAX_LENGTH);
+        // A frame that filled the FIFO raised HiAlert, which can only be cleared once it was sent
+        boolean raisedHiAlert = sent >= FIFO_CHUNK;
+        int enabled = sent < length ? IRQ_LO_ALERT : raisedHiAlert ? IRQ_TX : IRQ_HI_ALERT | IRQ_RX;
+        batch.clear();
+        batch.write(REGISTER_COMMAND, COMMAND_IDLE)
+                .write(REGISTER_FIFO_LEVEL, (byte) 0x80);
+        if(!batch.commit() || !writeFifo(data, 0, sent)){
+            error = ErrorType.ERROR_COMMUNICATION;
+            return -1;
+        }
+        // Interrupts are cleared once the FIFO is filled, as flushing it raised LoAlert
+        batch.clear();
+        batch.write(REGISTER_COM_IRQ, (byte) 0x7F)
+                .write(REGISTER_INTERRUPT_ENABLE, (byte) (0x80 | enabled | IRQ_TIMER));
+        if(!batch.commit()){
+            error = ErrorType.ERROR_COMMUNICATION;
+            return -1;
+        }
+        writeRegister(REGISTER_COMMAND, COMMAND_TRANSCEIVE);
+        setBitMask(REGISTER_BIT_FRAMING, (byte) 0x80);
+
+        while(sent < length){
+            byte irqValue = pollIrq(REGISTER_COM_IRQ, IRQ_LO_ALERT | IRQ_TIMER, waitTimeout);
+            if((irqValue & IRQ_TX) != 0){
+                // The FIFO ran out before it was refilled, so the frame was cut short
+                error = ErrorType.ERROR_COMMUNICATION;
+                limitBitRate();
+                return -1;
+            }
+            if((irqValue & IRQ_LO_ALERT) == 0){
+                error = ErrorType.ERROR_TIMEOUT;
+                return -1;
+            }
+            int chunk = Math.min(length - sent, FIFO_CHUNK);
+            if(!writeFifo(data, sent, chunk)){
+                error = ErrorType.ERROR_COMMUNICATION;
+                return -1;
+            }
+            sent += chunk;
+            batch.clear();
+            batch.write(REGISTER_COM_IRQ, (byte) IRQ_LO_ALERT);
+            if(sent == length){
+                batch.write(REGISTER_INTERRUPT_ENABLE, (byte) (0x80 | IRQ_TX | IRQ_TIMER));
+            }
+            if(!batch.commit()){
+                error = ErrorType.ERROR_COMMUNICATION;
+                return -1;
+            }
+        }
+        if(raisedHiAlert){
+            if((pollIrq(REGISTER_COM_IRQ, IRQ_TX | IRQ_TIMER, waitTimeout) & IRQ_TX) == 0){
+                error = ErrorType.ERROR_TIMEOUT;
+                return -1;
+            }
+            batch.clear();
+            batch.write(REGISTER_COM_IRQ, (byte) (IRQ_TX | IRQ_HI_ALERT))
+                    .write(REGISTER_INTERRUPT_ENABLE, (byte) (0x80 | IRQ_HI_ALERT | IRQ_RX | IRQ_TIMER));
+            if(!batch.commit()){
+                error = ErrorType.ERROR_COMMUNICATION;
+                return -1;
+            }
+        }
+
+        int received = 0;
+        while(true){
+            byte irqValue = pollIrq(REGISTER_COM_IRQ, IRQ_HI_ALERT | IRQ_RX | IRQ_TIMER, waitTimeout);
+            if((irqValue & IRQ_RX) != 0){
+                break;
+            }
+            if((irqValue & IRQ_HI_ALERT) == 0){
+                error = ErrorType.ERROR_TIMEOUT;
+                return -1;
+            }
+            if(received + FIFO_CHUNK > backData.length){
+                // The tag sent a longer frame than the reader announced
+                error = ErrorType.ERROR_PROTOCOL;
+                return -1;
+            }
+            if(!readFifo(backData, received, FIFO_CHUNK)){
+                error = ErrorType.ERROR_COMMUNICATION;
+                return -1;
+            }
+            received += FIFO_CHUNK;
+            writeRegister(REGISTER_COM_IRQ, (byte) IRQ_HI_ALERT);
+        }
+        if(transport.hasInterrupt()){
+            // Release the IRQ line so the next interrupt generates a new edge
+            writeRegister(REGISTER_COM_IRQ, (byte) 0x7F);
+        }
+        return received;
+    }
+
+    /**
+     * Requests for a tag
+     * @return true if a tag is present
+     */
+    public boolean request(){
+        return this.request(COMMAND_REQUIRE_ID);
+    }
+
+    /**
+     * Requests for a tag
+     * @param requestMode the type of request being made
+     * @return true if a tag is present
+     */
+    public boolean request(byte requestMode){
+        lock.lock();
+        try {
+            commandBuffer[0] = requestMode;
+
+            // Tags are always activated at 106 kbit/s
+            if(bitRate != BitRate.KBPS_106){
+                applyBitRate(BitRate.KBPS_106);
+            }
+            writeRegister(REGISTER_BIT_FRAMING, (byte) 0x07);
+
+            boolean success =  execute(COMMAND_TRANSCEIVE, commandBuffer, 1, CommandType.REQUEST);
+            if(success && backLength != 0x10){
+                error = ErrorType.ERROR_PROTOCOL;
+                success = false;
+            }
+            if(!success){
+                backLength = 0;
+            }
+            return success;
+
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the first cascade level of the UID of a tag in the field. If several tags answer, the
+     * collisions are resolved and only one of them is read. The UID can be obtained with
+     * {@link #getUid()}, as four bytes followed by their check byte.
+     * <br>
+     * Tags with 7 or 10 byte UIDs only return their first three bytes, preceded by a cascade tag.
+     * Use {@link #activateTag(byte)} to read complete UIDs.
+     * @return true if a UID was read
+     */
+    public boolean antiCollisionDetect(){
+        lock.lock();
+        try {
+            if(!antiCollision(COMMAND_ANTICOLLISION)){
+                return false;
+            }
+            System.arraycopy(cascadeUid, 0, uid, 0, cascadeUid.length);
+            uidLength = cascadeUid.length;
+            uidRead = true;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Requests for a tag, then reads its complete UID and selects it, walking through all the
+     * cascade levels. If several tags answer, the collisions are resolved and only one of them is
+     * activated. The UID and SAK can also be obtained with {@link #getUid()} and {@link #getSak()}
+     * afterwards.
+     * @param requestMode {@link #REQUEST_IDLE} or {@link #REQUEST_ALL}
+     * @return the activated tag, or null if no tag could be activated
+     */
+    @Nullable
+    public TagInfo activateTag(byte requestMode){
+        lock.lock();
+        try {
+            if(!request(requestMode)){
+                return null;
+            }
+            atqa = (backData[0] & 0xFF) | (backData[1] & 0xFF) << 8;
+            if(!resolveUid()){
+                return null;
+            }
+            return new TagInfo(Arrays.copyOf(uid, uidLength), atqa, sak);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Finds all the tags in the field, activating them one at a time and sending each to the HALT
+     * state once found. Tags that were halted before are also included.
+     * <br>
+     * Collisions are only resolved while less than a byte of each cascade level is known. That's
+     * always the case with two tags, but three or more can collide again after that, and the
+     * tags involved aren't found, see {@link ErrorType#ERROR_COLLISION}.
+     * <br>
+     * Once done, all the found tags are halted. A tag can be selected again with
+     * {@link #request(byte)} using {@link #REQUEST_ALL}, followed by {@link #selectTag(byte[])}
+     * with its UID.
+     * @param maxTags the maximum number of tags to find
+     * @return the tags found, in the order they were activated
+     */
+    public List<TagInfo> inventory(int maxTags){
+        lock.lock();
+        try {
+            List<TagInfo> tags = new ArrayList<>();
+            // Halted tags are only woken up until the first tag is found, so they aren't found twice
+            byte requestMode = REQUEST_ALL;
+            int failures = 0;
+            while(tags.size() < maxTags){
+                if(!request(requestMode)){
+                    break;
+                }
+                atqa = (backData[0] & 0xFF) | (backData[1] & 0xFF) << 8;
+                if(!resolveUid()){
+                    if(++failures > INVENTORY_RETRIES){
+                        break;
+                    }
+                    continue;
+                }
+                failures = 0;
+                requestMode = REQUEST_IDLE;
+                tags.add(new TagInfo(Arrays.copyOf(uid, uidLength), atqa, sak));
+                haltTag();
+            }
+            return tags;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Finds up to 16 tags in the field
+     * @return the tags found, in the order they were activated
+     * @see #inventory(int)
+     */
+    public List<TagInfo> inventory(){
+        return inventory(16);
+    }
+
+    /**
+     * Reads and selects every cascade level of the UID of a tag that answered a request, storing
+     * the complete UID
+     * @return true if the tag was selected
+     */
+    private boolean resolveUid(){
+        uidRead = false;
+        int length = 0;
+        for(byte command : COMMAND_SELECT_CASCADE){
+            if(!antiCollision(command) || !selectCascadeLevel(command)){
+                return false;
+            }
+            if((sak & 0x04) == 0){
+                System.arraycopy(cascadeUid, 0, uid, length, 4);
+                uidLength = length + 4;
+                uidRead = true;
+                return true;
+            }
+            // The UID isn't complete, this level holds the cascade tag and the next three bytes
+            if(cascadeUid[0] != CASCADE_TAG){
+                error = ErrorType.ERROR_PROTOCOL;
+                return false;
+            }
+            System.arraycopy(cascadeUid, 1, uid, length, 3);
+            length += 3;
+        }
+        error = ErrorType.ERROR_PROTOCOL;
+        return false;
+    }
+
+    /**
+     * Performs the bit oriented anticollision loop of a cascade level, see section 6.5.3 in
+     * ISO/IEC 14443-3. The known bits of the UID are sent to the tags, and only the ones matching
+     * them answer with the rest. On a collision, the bit is resolved as 1 and the loop starts
+     * again with the bits known up to that point. Collisions once a full byte is known fail with
+     * {@link ErrorType#ERROR_COLLISION}.
+     * The result is stored in the cascade UID buffer.
+     * @param command the select command of the cascade level
+     * @return true if the level's four bytes and their check byte were read
+     */
+    private boolean antiCollision(byte command){
+        // Bits received after a collision are cleared, so they can be merged with the known bits
+        writeRegister(REGISTER_COLLISION, (byte) 0x00);
+        int knownBits = 0;
+        while(true){
+            int fullBytes = knownBits / 8;
+            int lastBits = knownBits % 8;
+            int frameLength = 2 + fullBytes + (lastBits != 0 ? 1 : 0);
+            commandBuffer[0] = command;
+            // NVB: number of valid bytes, including the command and NVB, and valid bits
+            commandBuffer[1] = (byte) ((2 + fullBytes) << 4 | lastBits);
+            System.arraycopy(cascadeUid, 0, commandBuffer, 2, frameLength - 2);
+            // The answer continues right after the last bit sent, so it's aligned the same way
+            writeRegister(REGISTER_BIT_FRAMING, (byte) (lastBits << 4 | lastBits));
+            if(!execute(COMMAND_TRANSCEIVE, commandBuffer, frameLength, CommandType.ANTICOLLISION)){
+                writeRegister(REGISTER_BIT_FRAMING, (byte) 0x00);
+                return false;
+            }
+            for(int i = 0; i < backDataLength && fullBytes + i < cascadeUid.length; i++){
+                byte value = backData[i];
+                if(i == 0 && lastBits != 0){
+                    int mask = (1 << lastBits) - 1;
+                    value = (byte) ((cascadeUid[fullBytes] & mask) | (value & ~mask));
+                }
+                cascadeUid[fullBytes + i] = value;
+            }
+            if((errorFlags & 0x08) == 0){
+                break;
+            }
+            // CollPos is the position of the first collision in the received frame, 1 being its
+            // first bit (section 9.3.1.15 in MFRC522's datasheet). While no full byte is known, it
+            // is also the bit of the cascade level. Once bytes are known, it could count from the
+            // byte holding the last bits sent or from the level's first bit, and no capture from
+            // a real RC522 has settled which, so those collisions aren't resolved
+            if(fullBytes != 0){
+                error = ErrorType.ERROR_COLLISION;
+                writeRegister(REGISTER_BIT_FRAMING, (byte) 0x00);
+                return false;
+            }
+            byte collision = readRegister(REGISTER_COLLISION);
+            // CollPosNotValid, the collision happened outside of the 32 bits CollPos can report
+            if((collision & 0x20) != 0){
+                error = ErrorType.ERROR_COMMUNICATION;
+                writeRegister(REGISTER_BIT_FRAMING, (byte) 0x00);
+                return false;
+            }
+            int position = collision & 0x1F;
+            if(position == 0){
+                position = 32;
+            }
+            int collisionBit = position - 1;
+            if(collisionBit < knownBits || collisionBit >= 32){
+                error = ErrorType.ERROR_COMMUNICATION;
+                writeRegister(REGISTER_BIT_FRAMING, (byte) 0x00);
+                return false;
+            }
+            cascadeUid[collisionBit / 8] |= 1 << (collisionBit % 8);
+            knownBits = collisionBit + 1;
+        }
+        writeRegister(REGISTER_BIT_FRAMING, (byte) 0x00);
+        if((cascadeUid[0] ^ cascadeUid[1] ^ cascadeUid[2] ^ cascadeUid[3]) != cascadeUid[4]){
+            error = ErrorType.ERROR_PROTOCOL;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Selects a cascade level using the UID part in the cascade UID buffer, storing the SAK
+     * @param command the select command of the cascade level
+     * @return true if the tag answered with a valid SAK
+     */
+    private boolean selectCascadeLevel(byte command){
+        commandBuffer[0] = command;
+        commandBuffer[1] = 0x70;
+        System.arraycopy(cascadeUid, 0, commandBuffer, 2, cascadeUid.length);
+        if(!appendCrc(commandBuffer, 7)){
+            return false;
+        }
+        if(!execute(COMMAND_TRANSCEIVE, commandBuffer, 9, CommandType.ANTICOLLISION)){
+            return false;
+        }
+        if(backLength != 0x18){
+            error = ErrorType.ERROR_PROTOCOL;
+            return false;
+        }
+        if(!checkCrc(backData, 3)){
+            return false;
+        }
+        sak = backData[0];
+        return true;
+    }
+
+    /**
+     * Calculates the CRC value and writes it right after the data
+     * @param data the data the crc value will be generated for, must have room for two more bytes
+     * @param length the number of bytes from data to use
+     * @return true if the crc was calculated, false if something failed
+     */
+    boolean appendCrc(byte[] data, int length){
+        long start = startTiming();
+        long startTransfers = transferCount;
+        long startBytes = transferByteCount;
+        return recordOperation(Operation.CALCULATE_CRC, start, startTransfers, startBytes, calculateCrc(data, length));
+    }
+
+    /**
+     * Implementation of {@link #appendCrc(byte[], int)}, without the metrics
+     */
+    private boolean calculateCrc(byte[] data, int length){
+        // The coprocessor reads the data from the FIFO buffer, so longer frames are done in software
+        if(!hardwareCrc || length > MAX_LENGTH){
+            int crc = calculateCrcA(data, length);
+            data[length] = (byte) crc;
+            data[length + 1] = (byte) (crc >> 8);
+            return true;
+        }
+        writeRegister(REGISTER_COMMAND, COMMAND_IDLE);
+        writeRegister(REGISTER_DIV_IRQ, (byte) 0x04);
+        writeRegister(REGISTER_FIFO_LEVEL, (byte) 0x80);
+
+        if(!writeFifo(data, 0, length)){
+            error = ErrorType.ERROR_COMMUNICATION;
+            return false;
+        }
+        writeRegister(REGISTER_COMMAND, COMMAND_CALCULATE_CRC);
+        byte n = waitForIrq(REGISTER_DIV_IRQ, 0x04, 89000000L);
+        //Check if CRCIRq bit is set
+        if((n & 0x04) != 0){
+            writeRegister(REGISTER_COMMAND, COMMAND_IDLE);
+            data[length] = readRegister(REGISTER_CRC_RESULT_LOW);
+            data[length + 1] = readRegister(REGISTER_CRC_RESULT_HIGH);
+            return true;
+        }
+        error = ErrorType.ERROR_TIMEOUT;
+        Log.w(TAG,"Timed out calculating CRC");
+        return false;
+    }
+
+    /**
+     * Checks that the last two bytes of a frame received from the tag match the CRC_A of the rest
+     * @param data the received frame
+     * @param length the frame's length, including its CRC
+     * @return true if the CRC is valid
+     */
+    private boolean checkCrc(byte[] data, int length){
+        int crc = calculateCrcA(data, length - 2);
+        if(data[length - 2] != (byte) crc || data[length - 1] != (byte) (crc >> 8)){
+            error = ErrorType.ERROR_CRC;
+            debugLog("checkCrc: invalid CRC in received frame");
+            limitBitRate();
+            return false;
+        }
+        return true;
+    }
+
+    /* CRC_A lookup table, CRC-16 with reflected polynomial 0x8408 */
+    private static final int[] CRC_A_TABLE = new int[256];
+    static {
+        for(int i = 0; i < 256; i++){
+            int crc = i;
+            for(int j = 0; j < 8; j++){
+                crc = (crc & 0x0001) != 0 ? (crc >>> 1) ^ 0x8408 : crc >>> 1;
+            }
+            CRC_A_TABLE[i] = crc;
+        }
+    }
+
+    /**
+     * Calculates the CRC_A value of a frame, as defined in ISO/IEC 14443-3 Annex B
+     * @param data the frame's data
+     * @param length the number of bytes from data to use
+     * @return the 16-bit CRC, its low byte is transmitted first
+     */
+    static int calculateCrcA(byte[] data, int length){
+        int crc = 0x6363;
+        for(int i = 0; i < length; i++){
+            crc = (crc >>> 8) ^ CRC_A_TABLE[(crc ^ data[i]) & 0xFF];
+        }
+        return crc;
+    }
+
+    /**
+     * Sends a two byte MIFARE command, followed by its CRC, using the command buffer
+     * @param command the MIFARE command
+     * @param address the block address the command operates on
+     * @param type the type of command, defining the timeout
+     * @return true if the command was executed
+     */
+    private boolean sendBlockCommand(byte command, byte address, CommandType type){
+        commandBuffer[0] = command;
+        commandBuffer[1] = address;
+        return appendCrc(commandBuffer, 2) && execute(COMMAND_TRANSCEIVE, commandBuffer, 4, type);
+    }
+
+    /**
+     * Checks if the tag's last response was a 4-bit ACK
+     * @return true if the tag acknowledged the last command
+     */
+    private boolean isAck(){
+        if(backLength == 4 && (backData[0] & 0x0F) == 0x0A){
+            return true;
+        }
+        error = ErrorType.ERROR_NAK;
+        return false;
+    }
+
+    /**
+     * Selects the tag to be used in following operations. The tag must have answered a request
+     * before.
+     * <br>
+     * Complete UIDs of 4, 7 or 10 bytes select the tag through all the cascade levels, without
+     * the need of an anticollision loop. Any other UID is taken as a first cascade level, as
+     * returned by {@link #antiCollisionDetect()}.
      * @param uid Byte array containing the tag's uid
      * @return true if no errors occurred
      */
     public boolean selectTag(byte[] uid){
-        boolean success;
-        byte data[]=  new byte[9];
-        int i,j;
+        lock.lock();
+        try {
+            return selectUid(uid, uid.length);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Selects the tag found by the last call to {@link #antiCollisionDetect()}
+     * @return true if no errors occurred
+     */
+    public boolean selectTag(){
+        lock.lock();
+        try {
+            return uidRead && selectUid(uid, uidLength);
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        data[0]=COMMAND_SELECT;
-        data[1]=0x70;
+    /**
+     * Selects a tag by its UID, see {@link #selectTag(byte[])}
+     * @param uid the array holding the UID
+     * @param length the UID's length
+     * @return true if no errors occurred
+     */
+    private boolean selectUid(byte[] uid, int length){
+        // A request leaves the framing set for 7 bit frames
+        if(readShadowedRegister(REGISTER_BIT_FRAMING) != 0){
+            writeRegister(REGISTER_BIT_FRAMING, (byte) 0x00);
+        }
+        if(length != 4 && length != 7 && length != 10){
+            System.arraycopy(uid, 0, cascadeUid, 0, cascadeUid.length);
+            return selectCascadeLevel(COMMAND_SELECT);
+        }
+        int offset = 0;
+        for(byte command : COMMAND_SELECT_CASCADE){
+            boolean last = length - offset == 4;
+            if(last){
+                System.arraycopy(uid, offset, cascadeUid, 0, 4);
+            }else{
+                cascadeUid[0] = CASCADE_TAG;
+                System.arraycopy(uid, offset, cascadeUid, 1, 3);
+            }
+            cascadeUid[4] = (byte) (cascadeUid[0] ^ cascadeUid[1] ^ cascadeUid[2] ^ cascadeUid[3]);
+            if(!selectCascadeLevel(command)){
+                return false;
+            }
+            if(last){
+                break;
+            }
+            offset += 3;
+        }
+        if(uid != this.uid){
+            System.arraycopy(uid, 0, this.uid, 0, length);
+        }
+        uidLength = length;
+        uidRead = true;
+        return true;
+    }
 
-        for(i=0, j=2 ; i<5 ;i++, j++)
-            data[j]=uid[i];
+    /**
+     * Sends the selected tag to the HALT state. The tag won't answer to {@link #request()} until it
+     * leaves the field, but it can be woken up using {@link #REQUEST_ALL}.
+     * @return true if the tag accepted the command
+     */
+    public boolean haltTag(){
+        lock.lock();
+        try {
+            commandBuffer[0] = COMMAND_END;
+            commandBuffer[1] = 0;
+            if(!appendCrc(commandBuffer, 2)){
+                return false;
+            }
+            error = null;
+            // Tags only answer HLTA if they could not process it
+            return !execute(COMMAND_TRANSCEIVE, commandBuffer, 4, CommandType.REQUEST) && error == ErrorType.ERROR_TIMEOUT;
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        byte[] crc = calculateCrc(data);
-        if(crc == null){
-            return false;
+    /**
+     * Sends a Request for Answer To Select (RATS) to the selected tag, activating its ISO/IEC 14443-4
+     * protocol, see section 5.1 in ISO/IEC 14443-4. Only tags whose SAK has bit 6 set (0x20) support
+     * it. The reader announces a maximum frame size of 256 bytes and uses CID 0.
+     * @param buffer the array to store the Answer To Select (ATS) to, without its CRC. Its first
+     *               byte is the ATS' length. At least 254 bytes long to hold any ATS, but they are
+     *               rarely longer than 20 bytes. A longer ATS fails with a protocol error
+     * @return the ATS' length, or -1 if the tag didn't answer correctly
+     */
+    public int requestAts(byte[] buffer){
+        lock.lock();
+        try {
+            commandBuffer[0] = COMMAND_RATS;
+            commandBuffer[1] = (byte) (FSDI << 4);
+            if(!appendCrc(commandBuffer, 2)){
+                return -1;
+            }
+            if(!execute(COMMAND_TRANSCEIVE, commandBuffer, 4, CommandType.ISO_DEP)){
+                return -1;
+            }
+            int length = backDataLength - 2;
+            if(length < 1 || (backData[0] & 0xFF) != length || length > buffer.length){
+                error = ErrorType.ERROR_PROTOCOL;
+                return -1;
+            }
+            if(!checkCrc(backData, backDataLength)){
+                return -1;
+            }
+            System.arraycopy(backData, 0, buffer, 0, length);
+            return length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Chooses the highest RF bit rate supported by both the reader and the tag, up to
+     * {@link #getMaxBitRate()}, and switches to it with a Protocol and Parameter Selection (PPS)
+     * request, see section 5.3 in ISO/IEC 14443-4. Must be called right after
+     * {@link #requestAts(byte[])}, before exchanging any other frame. The same bit rate is used in
+     * both directions.
+     * <br>
+     * If the tag doesn't accept the PPS request, both keep communicating at 106 kbit/s. If a frame
+     * is later corrupted at the negotiated bit rate, the maximum bit rate is lowered so the next
+     * activation negotiates a slower one. The bit rate goes back to 106 kbit/s on the next
+     * {@link #request(byte)}.
+     * @param ats the tag's ATS, as returned by {@link #requestAts(byte[])}
+     * @param length the ATS' length
+     * @return the bit rate now used
+     */
+    public BitRate negotiateBitRate(byte[] ats, int length){
+        lock.lock();
+        try {
+            BitRate rate = BitRate.KBPS_106;
+            // TA(1) follows the format byte T0 if present, it lists the divisors supported in each direction
+            if(length >= 3 && (ats[1] & 0x10) != 0){
+                int ta = ats[2] & 0xFF;
+                for(BitRate candidate : BitRate.values()){
+                    if(candidate.ordinal() > maxBitRate.ordinal()){
+                        break;
+                    }
+                    int mask = candidate.getSupportMask();
+                    if((ta & mask) == mask){
+                        rate = candidate;
+                    }
+                }
+            }
+            if(rate == bitRate){
+                return rate;
+            }
+            commandBuffer[0] = COMMAND_PPS;
+            // PPS1 follows, with the divisors from the tag (DSI) and to the tag (DRI)
+            commandBuffer[1] = 0x11;
+            commandBuffer[2] = (byte) (rate.ordinal() << 2 | rate.ordinal());
+            if(!appendCrc(commandBuffer, 3)){
+                return bitRate;
+            }
+            if(!execute(COMMAND_TRANSCEIVE, commandBuffer, 5, CommandType.ISO_DEP)){
+                return bitRate;
+            }
+            if(backDataLength != 3 || backData[0] != COMMAND_PPS){
+                error = ErrorType.ERROR_PROTOCOL;
+                return bitRate;
+            }
+            if(!checkCrc(backData, backDataLength)){
+                return bitRate;
+            }
+            // The tag switches once it answered, see section 5.4 in ISO/IEC 14443-4
+            applyBitRate(rate);
+            if(debugging){
+                debugLog("negotiateBitRate: switched to %s", rate);
+            }
+            return rate;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Programs the transmission and reception speeds and the modulation width for a bit rate
+     */
+    private void applyBitRate(BitRate rate){
+        batch.clear();
+        batch.write(REGISTER_TX_BIT_RATE, rate.getSpeedBits())
+                .write(REGISTER_RX_BIT_RATE, rate.getSpeedBits())
+                .write(REGISTER_MOD_WIDTH, rate.getModWidth());
+        if(batch.commit()){
+            bitRate = rate;
+        }
+    }
+
+    /**
+     * Lowers the highest bit rate later negotiations may choose, after a frame was corrupted while
+     * using a bit rate above 106 kbit/s
+     */
+    private void limitBitRate(){
+        if(bitRate == BitRate.KBPS_106 || maxBitRate.ordinal() < bitRate.ordinal()){
+            return;
+        }
+        maxBitRate = BitRate.values()[bitRate.ordinal() - 1];
+        Log.w(TAG, "Frame corrupted at " + bitRate + ", limiting bit rate to " + maxBitRate);
+    }
+
+    /**
+     * Gets the longest frame the reader can receive, as announced by {@link #requestAts(byte[])}
+     * @return the frame size, including its CRC, in bytes
+     */
+    int getMaxFrameLength(){
+        return MAX_FRAME_LENGTH;
+    }
+
+    /**
+     * Sends a frame to the selected tag with its CRC, and receives its answer, checking the
+     * answer's CRC. Used for ISO/IEC 14443-4 blocks
+     * @param frame the frame to send, with room for two more bytes to append the CRC to
+     * @param length the frame's length, without its CRC
+     * @param response the array to store the answer to, without its CRC
+     * @param timeout the time to wait for the answer, in microseconds
+     * @return the answer's length, or -1 if no valid answer was received
+     */
+    int transceiveFrame(byte[] frame, int length, byte[] response, int timeout){
+        return transceiveFrame(frame, length, response, CommandType.ISO_DEP, timeout);
+    }
+
+    /**
+     * Sends a frame to the selected tag with its CRC, and receives its answer, waiting for the
+     * command type's timeout
+     * @see #transceiveFrame(byte[], int, byte[], int)
+     */
+    int transceiveFrame(byte[] frame, int length, byte[] response, CommandType type){
+        return transceiveFrame(frame, length, response, type, timeouts[type.ordinal()]);
+    }
+
+    private int transceiveFrame(byte[] frame, int length, byte[] response, CommandType type, int timeout){
+        lock.lock();
+        try {
+            if(!appendCrc(frame, length)){
+                return -1;
+            }
+            if(!execute(COMMAND_TRANSCEIVE, frame, length + 2, type, timeout)){
+                return -1;
+            }
+            if(backLength == 4){
+                // A 4-bit NAK instead of the answer
+                error = ErrorType.ERROR_NAK;
+                return -1;
+            }
+            if(backDataLength < 3 || backLength != backDataLength * 8 || backDataLength - 2 > response.length){
+                error = ErrorType.ERROR_PROTOCOL;
+                return -1;
+            }
+            if(!checkCrc(backData, backDataLength)){
+                return -1;
+            }
+            System.arraycopy(backData, 0, response, 0, backDataLength - 2);
+            return backDataLength - 2;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends a frame to the selected tag with its CRC, expecting a 4-bit ACK as the answer
+     * @param frame the frame to send, with room for two more bytes to append the CRC to
+     * @param length the frame's length, without its CRC
+     * @param type the type of command, defining the timeout
+     * @return true if the tag acknowledged the frame
+     */
+    boolean transceiveAck(byte[] frame, int length, CommandType type){
+        lock.lock();
+        try {
+            return appendCrc(frame, length) && execute(COMMAND_TRANSCEIVE, frame, length + 2, type) && isAck();
+        } finally {
+            lock.unlock();
         }
-        data[7] = crc[0];
-        data[8] = crc[1];
-        success = execute(COMMAND_TRANSCEIVE, data);
-        return success && backLength == 0x18;
     }
 
     /**
@@ -489,22 +2053,57 @@ public class Rc522 {
      * @return true if authentication was successful
      */
     public boolean authenticateCard(byte authMode,byte address,byte[] key) {
-        debugLog("authenticateCard: authMode: %s, address: %d, key: %s",
-                (authMode == AUTH_A ? "A" : "B"),
-                address,
-                dataToHexString(key));
-        byte data[] = new byte[12];
+        lock.lock();
+        try {
+            if(debugging){
+                debugLog("authenticateCard: authMode: %s, address: %d, key: %s",
+                        (authMode == AUTH_A ? "A" : "B"),
+                        address,
+                        dataToHexString(key));
+            }
+            return authenticate(authMode, address, key, uid, uidLength);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Authenticates the use of a specific address for a given tag, without using the stored UID
+     * @param authMode The authentication mode, {@link #AUTH_A} or {@link #AUTH_B}
+     * @param address The byte address of the block to authenticate for
+     * @param key A six byte array containing the key used to authenticate
+     * @param uid The tag's UID
+     * @param uidLength The UID's length. For 7 and 10 byte UIDs, their last four bytes are used,
+     *                  otherwise the first four
+     * @return true if authentication was successful
+     */
+    boolean authenticate(byte authMode, byte address, byte[] key, byte[] uid, int uidLength){
+        long start = startTiming();
+        long startTransfers = transferCount;
+        long startBytes = transferByteCount;
+        return recordOperation(Operation.AUTHENTICATE, start, startTransfers, startBytes, sendAuthentication(authMode, address, key, uid, uidLength));
+    }
+
+    /**
+     * Implementation of {@link #authenticate(byte, byte, byte[], byte[], int)}, without the metrics
+     */
+    private boolean sendAuthentication(byte authMode, byte address, byte[] key, byte[] uid, int uidLength){
+        byte data[] = commandBuffer;
         int i, j;
+        int uidOffset = uidLength == 7 || uidLength == 10 ? uidLength - 4 : 0;
 
         data[0] = authMode;
         data[1] = address;
         for (i = 0, j = 2; i < 6; i++, j++)
             data[j] = key[i];
-        for (i = 0, j = 8; i < 4; i++, j++)
+        for (i = uidOffset, j = 8; j < 12; i++, j++)
             data[j] = uid[i];
 
-        boolean success = execute(COMMAND_MF_AUTHENT, data);
+        boolean success = execute(COMMAND_MF_AUTHENT, data, 12, CommandType.AUTHENTICATION);
         if((readRegister(REGISTER_RXTX_STATUS) & 0x08) == 0){
+            if(success){
+                error = ErrorType.ERROR_AUTHENTICATION;
+            }
             return false;
         }
         return success;
@@ -522,15 +2121,27 @@ public class Rc522 {
      */
     @Deprecated
     public boolean authenticateCard(byte authMode,byte address,byte[] key, byte[] uid) {
-        this.uid = uid;
-        return authenticateCard(authMode, address, key);
+        lock.lock();
+        try {
+            uidLength = Math.min(uid.length, this.uid.length);
+            System.arraycopy(uid, 0, this.uid, 0, uidLength);
+            uidRead = true;
+            return authenticateCard(authMode, address, key);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
      * Ends operations that use crypto and cleans up
      */
     public void stopCrypto(){
-        clearBitMask(REGISTER_RXTX_STATUS, (byte) 0x08);
+        lock.lock();
+        try {
+            clearBitMask(REGISTER_RXTX_STATUS, (byte) 0x08);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -541,25 +2152,47 @@ public class Rc522 {
      * @return true if reading was successful
      */
     public boolean readBlock(byte address, byte[] buffer){
-        debugLog("readBlock: address: %d",address);
-        byte data[]=new byte[4];
-        data[0]=COMMAND_READ;
-        data[1]=address;
-        byte[] crc = calculateCrc(data);
-        if(crc == null){
-            return false;
+        lock.lock();
+        try {
+            if(!readBlockData(address)){
+                return false;
+            }
+            System.arraycopy(backData, 0, buffer, 0, 16);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads a block, leaving its data at the start of the received data buffer
+     * @param address the address of the block to read data from
+     * @return true if reading was successful
+     */
+    boolean readBlockData(byte address){
+        if(debugging){
+            debugLog("readBlock: address: %d",address);
         }
-        data[2] = crc[0];
-        data[3] = crc[1];
-        boolean success = execute(COMMAND_TRANSCEIVE, data);
+        long start = startTiming();
+        long startTransfers = transferCount;
+        long startBytes = transferByteCount;
+        return recordOperation(Operation.READ, start, startTransfers, startBytes, receiveBlock(address));
+    }
+
+    /**
+     * Implementation of {@link #readBlockData(byte)}, without the metrics
+     */
+    private boolean receiveBlock(byte address){
+        boolean success = sendBlockCommand(COMMAND_READ, address, CommandType.READ);
         if(!success){
             return false;
         }
-        if(backDataLength != 16){
+        // The block's 16 bytes are followed by their 2 byte CRC
+        if(backDataLength != 18){
+            error = ErrorType.ERROR_PROTOCOL;
             return false;
         }
-        System.arraycopy(backData, 0, buffer, 0, 16);
-        return true;
+        return checkCrc(backData, backDataLength);
     }
 
     /**
@@ -584,35 +2217,39 @@ public class Rc522 {
      * @return true if writing was successful
      */
     public boolean writeBlock(byte address, byte[] data) {
-        debugLog("writeBlock: address: %d, data: %s",address, dataToHexString(data));
-        byte buff[] = new byte[4];
-        buff[0] = COMMAND_WRITE;
-        buff[1] = address;
-        byte[] crc = calculateCrc(buff);
-        if(crc == null){
-            return false;
+        lock.lock();
+        try {
+            if(debugging){
+                debugLog("writeBlock: address: %d, data: %s",address, dataToHexString(data));
+            }
+            long start = startTiming();
+            long startTransfers = transferCount;
+            long startBytes = transferByteCount;
+            return recordOperation(Operation.WRITE, start, startTransfers, startBytes, sendBlock(address, data));
+        } finally {
+            lock.unlock();
         }
-        buff[2] = crc[0];
-        buff[3] = crc[1];
+    }
 
-        boolean success = execute(COMMAND_TRANSCEIVE, buff);
+    /**
+     * Implementation of {@link #writeBlock(byte, byte[])}, without the metrics
+     */
+    private boolean sendBlock(byte address, byte[] data){
+        boolean success = sendBlockCommand(COMMAND_WRITE, address, CommandType.WRITE);
         if (!success) {
             return false;
         }
-        if (backLength != 4 || (backData[0] & 0x0F) != 0x0A) {
+        if (!isAck()) {
             return false;
         }
 
-        byte buffWrite[] = new byte[data.length + 2];
+        byte buffWrite[] = commandBuffer;
         System.arraycopy(data, 0, buffWrite, 0, data.length);
-        crc = calculateCrc(buffWrite);
-        if(crc == null){
+        if(!appendCrc(buffWrite, data.length)){
             return false;
         }
-        buffWrite[buffWrite.length - 2] = crc[0];
-        buffWrite[buffWrite.length - 1] = crc[1];
-        success = execute(COMMAND_TRANSCEIVE, buffWrite);
-        return success && !(backLength != 4 || (backData[0] & 0x0F) != 0x0A);
+        success = execute(COMMAND_TRANSCEIVE, buffWrite, data.length + 2, CommandType.WRITE);
+        return success && isAck();
     }
 
     /**
@@ -637,30 +2274,37 @@ public class Rc522 {
      * @return true if operation was successful
      */
     public boolean increaseBlock(byte address, int operand) {
-        debugLog("increaseBlock: address %d, operand %d",address, operand);
-        byte buff[] = new byte[4];
-        buff[0] = COMMAND_INCREMENT;
-        buff[1] = address;
-        byte[] crc = calculateCrc(buff);
-        if(crc == null){
-            return false;
-        }
-        buff[2] = crc[0];
-        buff[3] = crc[1];
-        boolean success = execute(COMMAND_TRANSCEIVE, buff);
-        if (backLength != 4 || (backData[0] & 0x0F) != 0x0A) {
-            return false;
+        lock.lock();
+        try {
+            if(debugging){
+                debugLog("increaseBlock: address %d, operand %d",address, operand);
+            }
+            return valueCommand(COMMAND_INCREMENT, address, operand);
+        } finally {
+            lock.unlock();
         }
-        byte buffWrite[] = new byte[6];
-        System.arraycopy(intToByteArray(operand), 0, buffWrite, 0, 4);
-        crc = calculateCrc(buffWrite);
-        if(crc == null){
-            return false;
+    }
+
+    /**
+     * Increases the value of a block by the specified operand and writes the result to a block,
+     * as a single operation. The block is only modified if both steps succeed.
+     * The blocks must be value blocks in the same sector.
+     * Tag must be selected and sector authenticated
+     * @param address the block's address
+     * @param operand the sum's operand
+     * @param destination the address of the block the result is written to, usually the same block
+     * @return true if operation was successful
+     */
+    public boolean increaseBlock(byte address, int operand, byte destination) {
+        lock.lock();
+        try {
+            if(debugging){
+                debugLog("increaseBlock: address %d, operand %d, destination %d",address, operand, destination);
+            }
+            return valueOperation(COMMAND_INCREMENT, address, operand, destination);
+        } finally {
+            lock.unlock();
         }
-        buffWrite[buffWrite.length - 2] = crc[0];
-        buffWrite[buffWrite.length - 1] = crc[1];
-        execute(COMMAND_TRANSCEIVE, buffWrite);
-        return true;
     }
 
     /**
@@ -673,33 +2317,37 @@ public class Rc522 {
      * @return true if operation was successful
      */
     public boolean decreaseBlock(byte address, int operand) {
-        debugLog("increaseBlock: address %d, operand %d",address, operand);
-        byte buff[] = new byte[4];
-        buff[0] = COMMAND_DECREMENT;
-        buff[1] = address;
-        byte[] crc = calculateCrc(buff);
-        if(crc == null){
-            return false;
-        }
-        buff[2] = crc[0];
-        buff[3] = crc[1];
-        boolean success = execute(COMMAND_TRANSCEIVE, buff);
-        if (!success) {
-            return false;
-        }
-        if (backLength != 4 || (backData[0] & 0x0F) != 0x0A) {
-            return false;
+        lock.lock();
+        try {
+            if(debugging){
+                debugLog("decreaseBlock: address %d, operand %d",address, operand);
+            }
+            return valueCommand(COMMAND_DECREMENT, address, operand);
+        } finally {
+            lock.unlock();
         }
-        byte buffWrite[] = new byte[6];
-        System.arraycopy(intToByteArray(operand), 0, buffWrite, 0, 4);
-        crc = calculateCrc(buffWrite);
-        if(crc == null){
-            return false;
+    }
+
+    /**
+     * Decreases the value of a block by the specified operand and writes the result to a block,
+     * as a single operation. The block is only modified if both steps succeed.
+     * The blocks must be value blocks in the same sector.
+     * Tag must be selected and sector authenticated
+     * @param address the block's address
+     * @param operand the substraction's operand
+     * @param destination the address of the block the result is written to, usually the same block
+     * @return true if operation was successful
+     */
+    public boolean decreaseBlock(byte address, int operand, byte destination) {
+        lock.lock();
+        try {
+            if(debugging){
+                debugLog("decreaseBlock: address %d, operand %d, destination %d",address, operand, destination);
+            }
+            return valueOperation(COMMAND_DECREMENT, address, operand, destination);
+        } finally {
+            lock.unlock();
         }
-        buffWrite[buffWrite.length - 2] = crc[0];
-        buffWrite[buffWrite.length - 1] = crc[1];
-        execute(COMMAND_TRANSCEIVE, buffWrite);
-        return true;
     }
 
     /**
@@ -708,17 +2356,15 @@ public class Rc522 {
      * @return true if operation was successful
      */
     public boolean transferBlock(byte address){
-        debugLog("transferBlock: address: %d",address);
-        byte buff[] = new byte[4];
-        buff[0] = COMMAND_TRANSFER;
-        buff[1] = address;
-        byte[] crc = calculateCrc(buff);
-        if(crc == null){
-            return false;
+        lock.lock();
+        try {
+            if(debugging){
+                debugLog("transferBlock: address: %d",address);
+            }
+            return sendBlockCommand(COMMAND_TRANSFER, address, CommandType.WRITE) && isAck();
+        } finally {
+            lock.unlock();
         }
-        buff[2] = crc[0];
-        buff[3] = crc[1];
-        return execute(COMMAND_TRANSCEIVE, buff);
     }
 
     /**
@@ -727,32 +2373,83 @@ public class Rc522 {
      * @return true if operation was successful
      */
     public boolean restoreBlock(byte address) {
-        debugLog("transferBlock: address: %d",address);
-        byte buff[] = new byte[4];
-        buff[0] = COMMAND_RESTORE;
-        buff[1] = address;
-        byte[] crc = calculateCrc(buff);
-        if(crc == null){
-            return false;
+        lock.lock();
+        try {
+            if(debugging){
+                debugLog("restoreBlock: address: %d",address);
+            }
+            return valueCommand(COMMAND_RESTORE, address, 0);
+        } finally {
+            lock.unlock();
         }
-        buff[2] = crc[0];
-        buff[3] = crc[1];
+    }
 
-        boolean success = execute(COMMAND_TRANSCEIVE, buff);
-        if (!success) {
+    /**
+     * Copies a value block to another block of the same sector, as a single operation
+     * Tag must be selected and sector authenticated
+     * @param address the address of the block to copy
+     * @param destination the address of the block to write to
+     * @return true if operation was successful
+     */
+    public boolean restoreBlock(byte address, byte destination) {
+        lock.lock();
+        try {
+            if(debugging){
+                debugLog("restoreBlock: address: %d, destination: %d",address, destination);
+            }
+            return valueOperation(COMMAND_RESTORE, address, 0, destination);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Creates a batch of value block operations, to apply several of them in one call
+     * @return an empty batch for this RC522
+     */
+    public ValueBatch newValueBatch(){
+        return new ValueBatch(this);
+    }
+
+    /**
+     * Performs a value block command, followed by a transfer of the result
+     * @param command the increment, decrement or restore command
+     * @param address the value block's address
+     * @param operand the command's operand
+     * @param destination the address of the block the result is written to
+     * @return true if both commands were acknowledged
+     */
+    boolean valueOperation(byte command, byte address, int operand, byte destination){
+        return valueCommand(command, address, operand)
+                && sendBlockCommand(COMMAND_TRANSFER, destination, CommandType.WRITE) && isAck();
+    }
+
+    /**
+     * Performs a value block command, leaving the result in the tag's transfer buffer. The tag
+     * acknowledges the command, then receives the operand, only answering it if there's an error.
+     * @param command the increment, decrement or restore command
+     * @param address the value block's address
+     * @param operand the command's operand
+     * @return true if the command was acknowledged and the operand accepted
+     */
+    private boolean valueCommand(byte command, byte address, int operand){
+        if(!sendBlockCommand(command, address, CommandType.VALUE) || !isAck()){
+            return false;
+        }
+        byte buffWrite[] = commandBuffer;
+        writeInt(operand, buffWrite, 0);
+        if(!appendCrc(buffWrite, 4)){
             return false;
         }
-        if (backLength != 4 || (backData[0] & 0x0F) != 0x0A) {
+        if(execute(COMMAND_TRANSCEIVE, buffWrite, 6, CommandType.VALUE)){
+            // Any answer to the operand is a NAK
+            error = ErrorType.ERROR_NAK;
             return false;
         }
-        byte buffWrite[] = {0,0,0,0,0,0};
-        crc = calculateCrc(buffWrite);
-        if(crc == null){
+        if(error != ErrorType.ERROR_TIMEOUT){
             return false;
         }
-        buffWrite[buffWrite.length - 2] = crc[0];
-        buffWrite[buffWrite.length - 1] = crc[1];
-        execute(COMMAND_TRANSCEIVE, buffWrite);
+        error = null;
         return true;
     }
 
@@ -765,25 +2462,32 @@ public class Rc522 {
      * @return true if writing was successful
      */
     public boolean writeValue(byte address, int value){
-        debugLog("writeValue: address: %d, value: %d",address, value);
-        byte buffer[] = new byte[16];
-        buffer[0] = (byte) (value & 0xFF);
-        buffer[1] = (byte) ((value & 0xFF00) >> 8);
-        buffer[2] = (byte) ((value & 0xFF0000) >> 16);
-        buffer[3] = (byte) ((value & 0xFF000000) >> 24);
-        buffer[4] = (byte) ~buffer[0];
-        buffer[5] = (byte) ~buffer[1];
-        buffer[6] = (byte) ~buffer[2];
-        buffer[7] = (byte) ~buffer[3];
-        buffer[8] = buffer[0];
-        buffer[9] = buffer[1];
-        buffer[10] = buffer[2];
-        buffer[11] = buffer[3];
-        buffer[12] = address;
-        buffer[13] = (byte) ~address;
-        buffer[14] = address;
-        buffer[15] = (byte) ~address;
-        return writeBlock(address, buffer);
+        lock.lock();
+        try {
+            if(debugging){
+                debugLog("writeValue: address: %d, value: %d",address, value);
+            }
+            byte buffer[] = valueBuffer;
+            buffer[0] = (byte) (value & 0xFF);
+            buffer[1] = (byte) ((value & 0xFF00) >> 8);
+            buffer[2] = (byte) ((value & 0xFF0000) >> 16);
+            buffer[3] = (byte) ((value & 0xFF000000) >> 24);
+            buffer[4] = (byte) ~buffer[0];
+            buffer[5] = (byte) ~buffer[1];
+            buffer[6] = (byte) ~buffer[2];
+            buffer[7] = (byte) ~buffer[3];
+            buffer[8] = buffer[0];
+            buffer[9] = buffer[1];
+            buffer[10] = buffer[2];
+            buffer[11] = buffer[3];
+            buffer[12] = address;
+            buffer[13] = (byte) ~address;
+            buffer[14] = address;
+            buffer[15] = (byte) ~address;
+            return writeBlock(address, buffer);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -793,12 +2497,19 @@ public class Rc522 {
      */
     @Nullable
     public Integer readValue(byte address){
-        debugLog("readValue: address: %s", address);
-        byte buffer[] = new byte[16];
-        if(!readBlock(address, buffer)){
-            return null;
+        lock.lock();
+        try {
+            if(debugging){
+                debugLog("readValue: address: %s", address);
+            }
+            byte buffer[] = valueBuffer;
+            if(!readBlock(address, buffer)){
+                return null;
+            }
+            return ((buffer[0]&0xFF)|((buffer[1]&0xFF)<<8)|((buffer[2]&0xFF)<<16)|((buffer[3]&0xFF)<<24));
+        } finally {
+            lock.unlock();
         }
-        return ((buffer[0]&0xFF)|((buffer[1]&0xFF)<<8)|((buffer[2]&0xFF)<<16)|((buffer[3]&0xFF)<<24));
     }
 
     /**
@@ -815,23 +2526,30 @@ public class Rc522 {
      * @return true if writing was successful, false otherwise or if parameters are invalid
      */
     public boolean writeTrailer(byte sector, byte[] keyA, byte[] accessBits, byte userData, byte[] keyB){
-        debugLog("writeTrailer: address: %d, keyA: %s, accessBits: %s, userData: %d, keyB: %s",
-                sector,
-                dataToHexString(keyA),
-                dataToHexString(accessBits),
-                userData,
-                dataToHexString(keyB));
-        byte address = getBlockAddress(sector, 3);
-        if(keyA.length != 6 || keyB.length != 6 || accessBits.length != 3){
-            Log.e(TAG,"writeTrailer: Parameter with incorrect length");
-            return false;
+        lock.lock();
+        try {
+            if(debugging){
+                debugLog("writeTrailer: address: %d, keyA: %s, accessBits: %s, userData: %d, keyB: %s",
+                        sector,
+                        dataToHexString(keyA),
+                        dataToHexString(accessBits),
+                        userData,
+                        dataToHexString(keyB));
+            }
+            byte address = getBlockAddress(sector, 3);
+            if(keyA.length != 6 || keyB.length != 6 || accessBits.length != 3){
+                Log.e(TAG,"writeTrailer: Parameter with incorrect length");
+                return false;
+            }
+            byte[] trailer = new byte[16];
+            System.arraycopy(keyA, 0, trailer, 0, 6);
+            System.arraycopy(accessBits, 0, trailer, 6, 3);
+            trailer[9] = userData;
+            System.arraycopy(keyB, 0, trailer, 10, 6);
+            return writeBlock(address, trailer);
+        } finally {
+            lock.unlock();
         }
-        byte[] trailer = new byte[16];
-        System.arraycopy(keyA, 0, trailer, 0, 6);
-        System.arraycopy(accessBits, 0, trailer, 6, 3);
-        trailer[9] = userData;
-        System.arraycopy(keyB, 0, trailer, 10, 6);
-        return writeBlock(address, trailer);
     }
 
     /**
@@ -864,9 +2582,20 @@ public class Rc522 {
      * @return A string representing the block's data
      */
     public static String dataToHexString(byte[] data){
-        char[] buffer = new char[data.length*3];
-        for(int i = 0; i < data.length; i++){
-            int b = data[i] & 0xFF;
+        return dataToHexString(data, 0, data.length);
+    }
+
+    /**
+     * Converts part of a byte array to a string representing its bytes in hexadecimal
+     * @param data the byte array holding the data
+     * @param offset the index of the first byte to convert
+     * @param length the number of bytes to convert
+     * @return A string representing the data
+     */
+    public static String dataToHexString(byte[] data, int offset, int length){
+        char[] buffer = new char[length*3];
+        for(int i = 0; i < length; i++){
+            int b = data[offset + i] & 0xFF;
             buffer[i*3] = HEX_CHARS[b >>> 4];
             buffer[i*3+1] = HEX_CHARS[b & 0x0F];
             buffer[i*3+2] = ' ';
@@ -874,35 +2603,346 @@ public class Rc522 {
         return new String(buffer);
     }
 
+    /**
+     * Reads every block of a MIFARE Classic 1K or 4K card, including the sector trailers,
+     * authenticating only once per sector. Block n is stored at n * 16 in the image.
+     * <br>
+     * The tag must be selected with its UID before, e.g. using {@link #activateTag(byte)}. If a
+     * sector can't be read, the tag is selected again and the next sector is tried. Key A can't be
+     * read from the trailers, so its bytes are read as zeros. Call {@link #stopCrypto()} once done.
+     * @param authMode The authentication mode, {@link #AUTH_A} or {@link #AUTH_B}
+     * @param key the six byte key used for every sector
+     * @param image the array the card's content is stored to, {@link #IMAGE_SIZE_1K} or
+     *              {@link #IMAGE_SIZE_4K} bytes long
+     * @return a bitmap of the sectors that were read, with bit n set if all blocks of sector n
+     * were stored in the image
+     */
+    public long readCardImage(byte authMode, byte[] key, byte[] image){
+        if(image.length != IMAGE_SIZE_1K && image.length != IMAGE_SIZE_4K){
+            throw new IllegalArgumentException("Image must be " + IMAGE_SIZE_1K + " or " + IMAGE_SIZE_4K + " bytes long");
+        }
+        lock.lock();
+        try {
+            if(!uidRead){
+                return 0;
+            }
+            int sectors = image.length == IMAGE_SIZE_1K ? 16 : 40;
+            long status = 0;
+            boolean selected = true;
+            for(int sector = 0; sector < sectors; sector++){
+                if(!selected && !reselect()){
+                    // The tag left the field
+                    break;
+                }
+                selected = readSector(authMode, key, sector, image);
+                if(selected){
+                    status |= 1L << sector;
+                }
+            }
+            return status;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Authenticates a sector and reads all its blocks into a card image
+     * @return true if every block was read, otherwise the tag is no longer selected
+     */
+    private boolean readSector(byte authMode, byte[] key, int sector, byte[] image){
+        int firstBlock = getFirstBlock(sector);
+        int blocks = sector < 32 ? 4 : 16;
+        if(!authenticate(authMode, (byte) firstBlock, key, uid, uidLength)){
+            return false;
+        }
+        for(int block = firstBlock; block < firstBlock + blocks; block++){
+            if(!readBlockData((byte) block)){
+                return false;
+            }
+            System.arraycopy(backData, 0, image, block * 16, 16);
+        }
+        return true;
+    }
+
+    /**
+     * Gets the address of a sector's first block, in MIFARE Classic 1K or 4K tags
+     * @param sector the sector number
+     * @return the block's address
+     */
+    private static int getFirstBlock(int sector){
+        // Sectors 32 to 39 of MIFARE Classic 4K have 16 blocks instead of 4
+        return sector < 32 ? sector * 4 : 128 + (sector - 32) * 16;
+    }
+
+    /**
+     * Authenticates a sector of the selected MIFARE Classic tag, trying the key a cache remembers
+     * for it first, and then the candidate keys in order. The key that opens the sector is stored
+     * in the cache.
+     * <br>
+     * Tags go to the HALT state when authentication fails, so the tag is selected again by its UID
+     * after every failure. The tag must be selected with its UID before, e.g. using
+     * {@link #activateTag(byte)}.
+     * @param sector the sector number
+     * @param cache the cache remembering keys, may be null
+     * @param keys the candidate keys, in the order they are tried
+     * @return the key that opened the sector, or null if none did
+     */
+    @Nullable
+    public SectorKey authenticateSector(int sector, @Nullable KeyCache cache, List<SectorKey> keys){
+        lock.lock();
+        try {
+            if(!uidRead){
+                return null;
+            }
+            byte address = (byte) getFirstBlock(sector);
+            // The caller's selection may be stale, e.g. if a later request failed, so keys failing
+            // on it are tried again
+            boolean selected = true;
+            SectorKey cached = cache != null ? cache.get(uid, uidLength, sak, sector) : null;
+            if(cached != null){
+                int outcome = tryKey(cached, address, true, false);
+                if(outcome == KEY_OPENED){
+                    // The key may come from another card of the same family
+                    cache.put(uid, uidLength, sak, sector, cached);
+                    return cached;
+                }
+                if(outcome == KEY_TAG_LOST){
+                    return null;
+                }
+                cache.remove(uid, uidLength, sak, sector);
+                selected = false;
+            }
+            for(SectorKey key : keys){
+                if(key.equals(cached)){
+                    // Already rejected by the tag
+                    continue;
+                }
+                int outcome = tryKey(key, address, selected, false);
+                if(outcome == KEY_OPENED){
+                    if(cache != null){
+                        cache.put(uid, uidLength, sak, sector, key);
+                    }
+                    return key;
+                }
+                if(outcome == KEY_TAG_LOST){
+                    return null;
+                }
+                selected = false;
+            }
+            if(!selected){
+                // Leave the tag selected for the caller
+                reselect();
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Finds the keys of the sectors of the selected MIFARE Classic tag, trying for every sector
+     * the key a cache remembers first, and then the dictionary's keys, best hit rate first. The
+     * dictionary's hit rates and the cache are updated with the outcome.
+     * <br>
+     * Tags go to the HALT state when authentication fails, so after every failure the tag is
+     * woken up and selected again by its UID, without an anticollision loop. Failed attempts take
+     * the authentication timeout, see {@link #setTimeout(CommandType, int)}.
+     * <br>
+     * The tag must be selected with its UID before, e.g. using {@link #activateTag(byte)}. Once
+     * done, the tag is authenticated for the last sector whose key was found.
+     * @param dictionary the candidate keys
+     * @param cache the cache remembering keys, may be null
+     * @param keys the array the key of every sector is stored to, null for sectors whose key wasn't
+     *             found. Its length is the number of sectors to search, e.g. 16 for MIFARE Classic
+     *             1K and 40 for 4K
+     * @return a bitmap of the sectors whose key was found, with bit n set for sector n
+     */
+    public long findSectorKeys(KeyDictionary dictionary, @Nullable KeyCache cache, SectorKey[] keys){
+        lock.lock();
+        try {
+            Arrays.fill(keys, null);
+            if(!uidRead){
+                return 0;
+            }
+            int[] order = new int[dictionary.size()];
+            int[] tried = new int[dictionary.size()];
+            long found = 0;
+            for(int sector = 0; sector < keys.length; sector++){
+                // Searching a sector leaves the tag selected, so only the caller's selection may be stale
+                if(!searchSector(sector, sector > 0, dictionary, cache, keys, order, tried)){
+                    // The tag left the field
+                    break;
+                }
+                if(keys[sector] != null){
+                    found |= 1L << sector;
+                }
+            }
+            return found;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Authenticates a sector of the selected MIFARE Classic tag, trying the key a cache remembers
+     * for it first, and then the dictionary's keys, best hit rate first
+     * @param sector the sector number
+     * @param cache the cache remembering keys, may be null
+     * @param dictionary the candidate keys
+     * @return the key that opened the sector, or null if none did
+     * @see #findSectorKeys(KeyDictionary, KeyCache, SectorKey[])
+     */
+    @Nullable
+    public SectorKey authenticateSector(int sector, @Nullable KeyCache cache, KeyDictionary dictionary){
+        lock.lock();
+        try {
+            if(!uidRead){
+                return null;
+            }
+            SectorKey[] key = new SectorKey[sector + 1];
+            searchSector(sector, false, dictionary, cache, key, new int[dictionary.size()], new int[dictionary.size()]);
+            return key[sector];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Tries the cached key and the dictionary's keys on a sector, storing the key that opened it
+     * @param sector the sector number
+     * @param fresh true if the tag is known to be selected, e.g. because a previous sector was
+     *              searched, false if the caller's selection may be stale
+     * @param dictionary the candidate keys
+     * @param cache the cache remembering keys, may be null
+     * @param keys the array the key is stored to, at the sector's index
+     * @param order buffer for the order of the dictionary's keys
+     * @param tried buffer for the keys that were tried
+     * @return false if the tag could not be selected again after a failure
+     */
+    private boolean searchSector(int sector, boolean fresh, KeyDictionary dictionary,
+                                 @Nullable KeyCache cache, SectorKey[] keys, int[] order, int[] tried){
+        byte address = (byte) getFirstBlock(sector);
+        boolean selected = true;
+        SectorKey cached = cache != null ? cache.get(uid, uidLength, sak, sector) : null;
+        if(cached != null){
+            int outcome = tryKey(cached, address, true, fresh);
+            if(outcome == KEY_OPENED){
+                cache.put(uid, uidLength, sak, sector, cached);
+                keys[sector] = cached;
+                return true;
+            }
+            if(outcome == KEY_TAG_LOST){
+                return false;
+            }
+            cache.remove(uid, uidLength, sak, sector);
+            selected = false;
+        }
+        dictionary.getOrder(sector, order);
+        // Only keys the tag rejected count as misses, not keys tried on a tag that wasn't selected
+        int count = 0;
+        int hit = -1;
+        for(int i = 0; i < order.length; i++){
+            SectorKey key = dictionary.getKey(order[i]);
+            if(key.equals(cached)){
+                // Already rejected by the tag
+                continue;
+            }
+            int outcome = tryKey(key, address, selected, fresh);
+            if(outcome == KEY_TAG_LOST){
+                dictionary.record(sector, tried, count, -1);
+                return false;
+            }
+            tried[count++] = order[i];
+            if(outcome == KEY_OPENED){
+                hit = order[i];
+                break;
+            }
+            selected = false;
+        }
+        dictionary.record(sector, tried, count, hit);
+        if(hit >= 0){
+            SectorKey key = dictionary.getKey(hit);
+            if(cache != null){
+                cache.put(uid, uidLength, sak, sector, key);
+            }
+            keys[sector] = key;
+            return true;
+        }
+        return selected || reselect();
+    }
+
+    /**
+     * Tries a key on a sector of the tag with the stored UID.
+     * <br>
+     * A tag that rejects a key stops answering, just like a tag that isn't selected, so a timeout
+     * only counts as a rejection if the tag was known to be selected, e.g. right after selecting
+     * it. Otherwise, and if the answer was corrupted, the key is tried again once the tag is
+     * selected again.
+     * @param key the key to try
+     * @param address the address of a block in the sector
+     * @param selected false if the tag must be selected again before trying the key, e.g. after a
+     *                 failed authentication
+     * @param fresh true if the tag is known to be selected, if selected is true
+     * @return {@link #KEY_OPENED}, {@link #KEY_REJECTED}, or {@link #KEY_TAG_LOST} if the tag
+     * couldn't be selected again. The tag is halted unless the key opened the sector
+     */
+    private int tryKey(SectorKey key, byte address, boolean selected, boolean fresh){
+        for(int attempt = 0; attempt < 2; attempt++){
+            if(!selected){
+                if(!reselect()){
+                    return KEY_TAG_LOST;
+                }
+                fresh = true;
+            }
+            if(authenticate(key.getKeyType(), address, key.key(), uid, uidLength)){
+                return KEY_OPENED;
+            }
+            if(error == ErrorType.ERROR_AUTHENTICATION || fresh && error == ErrorType.ERROR_TIMEOUT){
+                return KEY_REJECTED;
+            }
+            selected = false;
+        }
+        return KEY_REJECTED;
+    }
+
+    /**
+     * Selects the last selected tag again after it went to the HALT state, e.g. after a failed
+     * authentication, waking it up and selecting its UID without an anticollision loop
+     * @return true if the tag was selected
+     */
+    private boolean reselect(){
+        return uidRead && request(REQUEST_ALL) && selectUid(uid, uidLength);
+    }
+
     /**
      * Dumps all the data in all data blocks in MIFARE 1K cards with default authentication keys.
      * Card must be selected using {@link #selectTag(byte[])} before
      * This won't work if a sector's KEY A or access bits have been changed
+     * @see #readCardImage(byte, byte[], byte[])
      * @return string containing all the data
      */
     public String dumpMifare1k(){
-        byte[] key = {(byte)0xFF,(byte)0xFF,(byte)0xFF,(byte)0xFF,(byte)0xFF,(byte)0xFF};
-        StringBuilder sb = new StringBuilder();
-        for(byte i = 0; i <= 15; i++){
-            for(byte j = 0; j <= 3; j++){
-                sb.append("S").append(i).append("B").append(j).append(": ");
-                byte block = getBlockAddress(i,j);
-                byte[] buffer = new byte[16];
-                boolean success = authenticateCard(AUTH_A,block,key);
-                if(!success){
-                    sb.append("Could not authenticate\n");
-                    continue;
-                }
-                success = readBlock(block,buffer);
-                if(!success){
-                    sb.append("Could not read");
-                }else{
-                    sb.append(dataToHexString(buffer));
+        lock.lock();
+        try {
+            byte[] key = {(byte)0xFF,(byte)0xFF,(byte)0xFF,(byte)0xFF,(byte)0xFF,(byte)0xFF};
+            byte[] image = new byte[IMAGE_SIZE_1K];
+            long status = readCardImage(AUTH_A, key, image);
+            StringBuilder sb = new StringBuilder();
+            for(byte i = 0; i <= 15; i++){
+                for(byte j = 0; j <= 3; j++){
+                    sb.append("S").append(i).append("B").append(j).append(": ");
+                    if((status & 1L << i) == 0){
+                        sb.append("Could not read");
+                    }else{
+                        sb.append(dataToHexString(image, getBlockAddress(i, j) * 16, 16));
+                    }
+                    sb.append("\n");
                 }
-                sb.append("\n");
             }
+            return sb.toString();
+        } finally {
+            lock.unlock();
         }
-        return sb.toString();
     }
 
     /***
@@ -973,17 +3013,16 @@ public class Rc522 {
     }
 
     /**
-     * Converts a 32-bit signed integer into a 4-byte array
+     * Writes a 32-bit signed integer into a byte array, least significant byte first
      * @param value value to be converted
-     * @return byte array
+     * @param buffer the array to write to
+     * @param offset the position of the first byte
      */
-    private static byte[] intToByteArray(int value){
-        return new byte[]{
-                (byte) (value & 0xFF),
-                (byte) ((value & 0xFF00) >> 8),
-                (byte) ((value & 0xFF0000) >> 16),
-                (byte) ((value & 0xFF000000) >> 24)
-        };
+    private static void writeInt(int value, byte[] buffer, int offset){
+        buffer[offset] = (byte) (value & 0xFF);
+        buffer[offset + 1] = (byte) ((value & 0xFF00) >> 8);
+        buffer[offset + 2] = (byte) ((value & 0xFF0000) >> 16);
+        buffer[offset + 3] = (byte) ((value & 0xFF000000) >> 24);
     }
 
     private void debugLog(String message){
@@ -1017,10 +3056,180 @@ public class Rc522 {
         }
     }
 
+    /**
+     * RF bit rates, as defined in ISO/IEC 14443-2, and the MFRC522's settings for each.
+     * The modulation width gets shorter as bits get shorter, see section 9.3.3.4 in MFRC522's datasheet
+     */
+    public enum BitRate{
+        KBPS_106(0x26),
+        KBPS_212(0x15),
+        KBPS_424(0x0A),
+        KBPS_848(0x05);
+
+        private byte modWidth;
+        BitRate(int modWidth) {
+            this.modWidth = (byte) modWidth;
+        }
+
+        /**
+         * @return the value of the speed bits in TxModeReg and RxModeReg
+         */
+        byte getSpeedBits(){
+            return (byte) (ordinal() << 4);
+        }
+
+        /**
+         * @return the value of ModWidthReg
+         */
+        byte getModWidth(){
+            return modWidth;
+        }
+
+        /**
+         * @return the bits of an ATS' TA(1) byte that must be set for a tag to support this bit
+         * rate in both directions
+         */
+        int getSupportMask(){
+            return this == KBPS_106 ? 0 : 0x11 << (ordinal() - 1);
+        }
+
+        /**
+         * @return the bit rate, in kbit/s
+         */
+        public int getKbps(){
+            return 106 << ordinal();
+        }
+    }
+
+    /**
+     * Types of commands sent to tags, each with its own timeout.
+     * See {@link #setTimeout(CommandType, int)}
+     */
+    public enum CommandType{
+        /** REQA and WUPA */
+        REQUEST(1000),
+        /** Anticollision and select */
+        ANTICOLLISION(1000),
+        /** MIFARE authentication */
+        AUTHENTICATION(5000),
+        /** Reading blocks */
+        READ(5000),
+        /** Writing blocks and transferring value blocks */
+        WRITE(10000),
+        /**
+         * Increment, decrement and restore. The tag only answers the operand if it fails, so
+         * every successful operation waits for the whole timeout, and a NAK arriving after it is
+         * missed, taking the operation as successful. The default leaves the same margin as reads,
+         * well past the frame delay time the NAK usually comes after
+         */
+        VALUE(5000),
+        /**
+         * RATS, PPS and other ISO/IEC 14443-4 frames. The default is the activation frame waiting
+         * time, 65536 carrier periods
+         */
+        ISO_DEP(5000, true),
+        /**
+         * MIFARE Ultralight and NTAG FAST_READ, reading a range of pages. Answers are usually longer
+         * than the FIFO buffer, so they are streamed through it
+         */
+        FAST_READ(5000, true);
+
+        private int defaultTimeout;
+        /* Frames longer than the FIFO buffer are streamed through it */
+        private boolean streamed;
+        CommandType(int defaultTimeout) {
+            this(defaultTimeout, false);
+        }
+
+        CommandType(int defaultTimeout, boolean streamed) {
+            this.defaultTimeout = defaultTimeout;
+            this.streamed = streamed;
+        }
+
+        /**
+         * @return the timeout used if none is set, in microseconds
+         */
+        public int getDefaultTimeout(){
+            return defaultTimeout;
+        }
+    }
+
+    /**
+     * Operations measured by a {@link MetricsListener}
+     */
+    public enum Operation{
+        /** Calculating the CRC_A of a frame, by the RC522 if hardware CRC is enabled */
+        CALCULATE_CRC,
+        /** MIFARE authentication, including checking the crypto unit's state */
+        AUTHENTICATE,
+        /** Reading a block, including the CRC check of the answer */
+        READ,
+        /** Writing a block, both phases */
+        WRITE
+    }
+
+    /**
+     * Receives measurements of a reader's operations, see {@link #setMetricsListener(MetricsListener)}.
+     * <br>
+     * Methods are called on the thread performing the operation, while it holds the reader's lock,
+     * so they should return quickly and must not use the reader.
+     */
+    public interface MetricsListener {
+        /**
+         * Called after a command is sent to the tag and its answer received, or it fails
+         * @param type the type of command
+         * @param nanos the time taken, in nanoseconds
+         * @param success whether the command succeeded
+         * @param error the cause of the failure, null if it succeeded. Failed SPI transactions are
+         *              reported as {@link ErrorType#ERROR_COMMUNICATION}
+         * @param errorFlags the value of the RC522's ErrorReg after the command, 0 if it wasn't read
+         */
+        void onCommand(CommandType type, long nanos, boolean success, @Nullable ErrorType error, byte errorFlags);
+
+        /**
+         * Called after an operation completes or fails
+         * @param operation the operation
+         * @param nanos the time taken, in nanoseconds
+         * @param success whether the operation succeeded
+         * @param error the cause of the failure, null if it succeeded. Failed SPI transactions are
+         *              reported as {@link ErrorType#ERROR_COMMUNICATION}
+         * @param transfers the number of SPI transactions performed, including those of nested
+         *                  operations, e.g. the CRC calculation of a read
+         * @param bytes the number of bytes exchanged in those transactions
+         */
+        void onOperation(Operation operation, long nanos, boolean success, @Nullable ErrorType error, int transfers, int bytes);
+
+        /**
+         * Called after every SPI transaction with the RC522
+         * @param length the number of bytes exchanged
+         * @param success false if the transaction failed
+         */
+        void onTransfer(int length, boolean success);
+    }
+
     /**
      * Enum of possible error types
      */
-    enum ErrorType{
-        ERROR_TIMEOUT
+    public enum ErrorType{
+        /** The tag didn't answer in time */
+        ERROR_TIMEOUT,
+        /** The CRC of the tag's answer was invalid */
+        ERROR_CRC,
+        /**
+         * The RC522 reported a collision, parity or protocol error while receiving, or a SPI
+         * transfer with the RC522 failed
+         */
+        ERROR_COMMUNICATION,
+        /** The tag answered with a NAK, e.g. the block is not accessible with the current key */
+        ERROR_NAK,
+        /** The tag rejected the key */
+        ERROR_AUTHENTICATION,
+        /** The tag's answer didn't have the expected length or format */
+        ERROR_PROTOCOL,
+        /**
+         * Several tags answered the anticollision loop and collided again once a full byte of their
+         * UIDs was known, where the collision's position isn't resolved
+         */
+        ERROR_COLLISION
     }
 }
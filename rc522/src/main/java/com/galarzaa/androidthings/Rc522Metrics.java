@@ -0,0 +1,384 @@
+package com.galarzaa.androidthings;
+
+import android.support.annotation.Nullable;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects latency histograms and error counters of one or more readers, to spot readers whose
+ * performance degrades, e.g. because of a detuned antenna or noise on the bus.
+ * <br>
+ * Attach it with {@link Rc522#setMetricsListener(Rc522.MetricsListener)}. Recording doesn't create
+ * objects nor take locks, and counters can be read at any time from any thread.
+ * <pre>{@code
+ * Rc522Metrics metrics = new Rc522Metrics();
+ * rc522.setMetricsListener(metrics);
+ * ...
+ * long timeouts = metrics.getErrorCount(Rc522.CommandType.READ, Rc522.ErrorType.ERROR_TIMEOUT);
+ * Log.i(TAG, metrics.toString());
+ * }</pre>
+ *
+ * @author Allan Galarza
+ */
+public class Rc522Metrics implements Rc522.MetricsListener {
+    /** ErrorReg's ProtocolErr bit, a frame had an invalid structure */
+    public static final int FLAG_PROTOCOL = 0x01;
+    /** ErrorReg's ParityErr bit */
+    public static final int FLAG_PARITY = 0x02;
+    /** ErrorReg's CRCErr bit, only set when the RC522 checks CRCs itself */
+    public static final int FLAG_CRC = 0x04;
+    /** ErrorReg's CollErr bit, a bit collision was detected */
+    public static final int FLAG_COLLISION = 0x08;
+    /** ErrorReg's BufferOvfl bit, more data was received than fits in the FIFO */
+    public static final int FLAG_BUFFER_OVERFLOW = 0x10;
+    /** ErrorReg's TempErr bit, the antenna drivers were switched off because of overheating */
+    public static final int FLAG_TEMPERATURE = 0x40;
+    /** ErrorReg's WrErr bit, data was written to the FIFO at the wrong time */
+    public static final int FLAG_WRITE = 0x80;
+
+    private static final int COMMAND_TYPES = Rc522.CommandType.values().length;
+    private static final int OPERATIONS = Rc522.Operation.values().length;
+    private static final int ERROR_TYPES = Rc522.ErrorType.values().length;
+
+    private final LatencyHistogram[] commandLatency = new LatencyHistogram[COMMAND_TYPES];
+    private final LatencyHistogram[] operationLatency = new LatencyHistogram[OPERATIONS];
+    /* Failures per command type or operation, indexed by type * (ERROR_TYPES + 1) + error, the
+     * last error index being failures without an error type */
+    private final AtomicLongArray commandErrors = new AtomicLongArray(COMMAND_TYPES * (ERROR_TYPES + 1));
+    private final AtomicLongArray operationErrors = new AtomicLongArray(OPERATIONS * (ERROR_TYPES + 1));
+    /* Commands that ended with each of ErrorReg's bits set */
+    private final AtomicLongArray errorFlags = new AtomicLongArray(8);
+    private final AtomicLong transfers = new AtomicLong();
+    private final AtomicLong transferBytes = new AtomicLong();
+    private final AtomicLong transferFailures = new AtomicLong();
+    /* SPI transactions and bytes of each operation, including those of nested operations */
+    private final AtomicLongArray operationTransfers = new AtomicLongArray(OPERATIONS);
+    private final AtomicLongArray operationTransferBytes = new AtomicLongArray(OPERATIONS);
+
+    public Rc522Metrics(){
+        for(int i = 0; i < COMMAND_TYPES; i++){
+            commandLatency[i] = new LatencyHistogram();
+        }
+        for(int i = 0; i < OPERATIONS; i++){
+            operationLatency[i] = new LatencyHistogram();
+        }
+    }
+
+    @Override
+    public void onCommand(Rc522.CommandType type, long nanos, boolean success, @Nullable Rc522.ErrorType error, byte flags) {
+        commandLatency[type.ordinal()].record(nanos);
+        if(!success){
+            commandErrors.incrementAndGet(errorIndex(type.ordinal(), error));
+        }
+        int bits = flags & 0xFF;
+        while(bits != 0){
+            errorFlags.incrementAndGet(Integer.numberOfTrailingZeros(bits));
+            bits &= bits - 1;
+        }
+    }
+
+    @Override
+    public void onOperation(Rc522.Operation operation, long nanos, boolean success, @Nullable Rc522.ErrorType error, int transfers, int bytes) {
+        operationLatency[operation.ordinal()].record(nanos);
+        operationTransfers.addAndGet(operation.ordinal(), transfers);
+        operationTransferBytes.addAndGet(operation.ordinal(), bytes);
+        if(!success){
+            operationErrors.incrementAndGet(errorIndex(operation.ordinal(), error));
+        }
+    }
+
+    @Override
+    public void onTransfer(int length, boolean success) {
+        transfers.incrementAndGet();
+        transferBytes.addAndGet(length);
+        if(!success){
+            transferFailures.incrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the latency histogram of a type of command sent to the tag
+     * @param type the type of command
+     * @return the command type's histogram
+     */
+    public LatencyHistogram getLatency(Rc522.CommandType type){
+        return commandLatency[type.ordinal()];
+    }
+
+    /**
+     * Gets the latency histogram of an operation
+     * @param operation the operation
+     * @return the operation's histogram
+     */
+    public LatencyHistogram getLatency(Rc522.Operation operation){
+        return operationLatency[operation.ordinal()];
+    }
+
+    /**
+     * Gets the number of commands of a type that failed with an error.
+     * Note that {@link Rc522.CommandType#VALUE} commands time out when they succeed
+     * @param type the type of command
+     * @param error the error, or null for failures reported without one. Failures of the SPI bus
+     *              are counted as {@link Rc522.ErrorType#ERROR_COMMUNICATION}
+     * @return the number of failures
+     */
+    public long getErrorCount(Rc522.CommandType type, @Nullable Rc522.ErrorType error){
+        return commandErrors.get(errorIndex(type.ordinal(), error));
+    }
+
+    /**
+     * Gets the number of times an operation failed with an error
+     * @param operation the operation
+     * @param error the error, or null for failures reported without one. Failures of the SPI bus
+     *              are counted as {@link Rc522.ErrorType#ERROR_COMMUNICATION}
+     * @return the number of failures
+     */
+    public long getErrorCount(Rc522.Operation operation, @Nullable Rc522.ErrorType error){
+        return operationErrors.get(errorIndex(operation.ordinal(), error));
+    }
+
+    /**
+     * Gets the number of times an operation failed, for any reason
+     * @param operation the operation
+     * @return the number of failures
+     */
+    public long getFailureCount(Rc522.Operation operation){
+        long total = 0;
+        int base = operation.ordinal() * (ERROR_TYPES + 1);
+        for(int i = 0; i <= ERROR_TYPES; i++){
+            total += operationErrors.get(base + i);
+        }
+        return total;
+    }
+
+    /**
+     * Gets the number of commands that ended with a bit of the RC522's ErrorReg set
+     * @param flag one of the FLAG constants, e.g. {@link #FLAG_PARITY}
+     * @return the number of commands
+     */
+    public long getErrorFlagCount(int flag){
+        if(Integer.bitCount(flag & 0xFF) != 1){
+            throw new IllegalArgumentException("Flag must be a single ErrorReg bit");
+        }
+        return errorFlags.get(Integer.numberOfTrailingZeros(flag));
+    }
+
+    /**
+     * Gets the number of SPI transactions performed
+     * @return the number of transactions
+     */
+    public long getTransferCount(){
+        return transfers.get();
+    }
+
+    /**
+     * Gets the number of bytes exchanged in SPI transactions, counting each full-duplex byte once
+     * @return the number of bytes
+     */
+    public long getTransferByteCount(){
+        return transferBytes.get();
+    }
+
+    /**
+     * Gets the number of SPI transactions performed by an operation, including those of the
+     * operations it's made of, e.g. the CRC calculation of a read
+     * @param operation the operation
+     * @return the number of transactions
+     */
+    public long getTransferCount(Rc522.Operation operation){
+        return operationTransfers.get(operation.ordinal());
+    }
+
+    /**
+     * Gets the number of bytes exchanged in the SPI transactions of an operation
+     * @param operation the operation
+     * @return the number of bytes
+     */
+    public long getTransferByteCount(Rc522.Operation operation){
+        return operationTransferBytes.get(operation.ordinal());
+    }
+
+    /**
+     * Gets the number of SPI transactions that failed
+     * @return the number of failed transactions
+     */
+    public long getTransferFailureCount(){
+        return transferFailures.get();
+    }
+
+    /**
+     * Clears all histograms and counters. Measurements recorded while resetting may be kept
+     */
+    public void reset(){
+        for(LatencyHistogram histogram : commandLatency){
+            histogram.reset();
+        }
+        for(LatencyHistogram histogram : operationLatency){
+            histogram.reset();
+        }
+        clear(commandErrors);
+        clear(operationErrors);
+        clear(errorFlags);
+        clear(operationTransfers);
+        clear(operationTransferBytes);
+        transfers.set(0);
+        transferBytes.set(0);
+        transferFailures.set(0);
+    }
+
+    /**
+     * Returns a summary of the metrics, with the median and 99th percentile of every command type
+     * and operation that was measured
+     * @return a multi-line summary
+     */
+    @Override
+    public String toString(){
+        StringBuilder sb = new StringBuilder();
+        for(Rc522.CommandType type : Rc522.CommandType.values()){
+            LatencyHistogram histogram = getLatency(type);
+            if(histogram.getCount() > 0){
+                appendHistogram(sb, type.name(), histogram);
+                sb.append(String.format(Locale.US, " timeouts=%d communicationErrors=%d%n",
+                        getErrorCount(type, Rc522.ErrorType.ERROR_TIMEOUT),
+                        getErrorCount(type, Rc522.ErrorType.ERROR_COMMUNICATION)));
+            }
+        }
+        for(Rc522.Operation operation : Rc522.Operation.values()){
+            LatencyHistogram histogram = getLatency(operation);
+            if(histogram.getCount() > 0){
+                appendHistogram(sb, operation.name(), histogram);
+                sb.append(String.format(Locale.US, " failures=%d transfers=%d bytes=%d%n",
+                        getFailureCount(operation), getTransferCount(operation), getTransferByteCount(operation)));
+            }
+        }
+        sb.append(String.format(Locale.US, "SPI: transfers=%d bytes=%d failures=%d",
+                getTransferCount(), getTransferByteCount(), getTransferFailureCount()));
+        return sb.toString();
+    }
+
+    private static void appendHistogram(StringBuilder sb, String name, LatencyHistogram histogram){
+        sb.append(String.format(Locale.US, "%s: count=%d p50<%dus p99<%dus max=%dus",
+                name, histogram.getCount(), histogram.getPercentileMicros(50),
+                histogram.getPercentileMicros(99), histogram.getMaxMicros()));
+    }
+
+    private static int errorIndex(int type, @Nullable Rc522.ErrorType error){
+        return type * (ERROR_TYPES + 1) + (error != null ? error.ordinal() : ERROR_TYPES);
+    }
+
+    private static void clear(AtomicLongArray array){
+        for(int i = 0; i < array.length(); i++){
+            array.set(i, 0);
+        }
+    }
+
+    /**
+     * A histogram of durations, with buckets of exponentially growing size: bucket 0 counts
+     * durations under 1 microsecond, and bucket i durations from 2^(i-1) up to 2^i microseconds
+     */
+    public static final class LatencyHistogram {
+        /** Number of buckets, the last one counts every duration of 2^30 microseconds or more */
+        public static final int BUCKETS = 32;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        LatencyHistogram(){
+        }
+
+        void record(long nanos){
+            long micros = nanos / 1000;
+            int bucket = micros == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            long max = maxNanos.get();
+            while(nanos > max && !maxNanos.compareAndSet(max, nanos)){
+                max = maxNanos.get();
+            }
+        }
+
+        void reset(){
+            clear(buckets);
+            count.set(0);
+            totalNanos.set(0);
+            maxNanos.set(0);
+        }
+
+        /**
+         * Gets the number of durations recorded
+         * @return the number of durations
+         */
+        public long getCount(){
+            return count.get();
+        }
+
+        /**
+         * Gets the number of durations in a bucket
+         * @param bucket the bucket's index, from 0 to {@link #BUCKETS} - 1
+         * @return the number of durations
+         */
+        public long getBucketCount(int bucket){
+            return buckets.get(bucket);
+        }
+
+        /**
+         * Gets the exclusive upper limit of a bucket
+         * @param bucket the bucket's index, from 0 to {@link #BUCKETS} - 1
+         * @return the limit, in microseconds
+         */
+        public static long getBucketLimitMicros(int bucket){
+            return 1L << bucket;
+        }
+
+        /**
+         * Gets the average duration
+         * @return the average, in microseconds, 0 if nothing was recorded
+         */
+        public double getMeanMicros(){
+            long n = count.get();
+            return n == 0 ? 0 : totalNanos.get() / 1000.0 / n;
+        }
+
+        /**
+         * Gets the longest duration recorded
+         * @return the duration, in microseconds
+         */
+        public long getMaxMicros(){
+            return maxNanos.get() / 1000;
+        }
+
+        /**
+         * Gets an upper limit for a percentile of the durations, the limit of the bucket it falls in
+         * @param percentile the percentile, from 0 to 100
+         * @return the limit, in microseconds, 0 if nothing was recorded
+         */
+        public long getPercentileMicros(double percentile){
+            if(percentile < 0 || percentile > 100){
+                throw new IllegalArgumentException("Percentile must be between 0 and 100");
+            }
+            long total = 0;
+            long[] counts = new long[BUCKETS];
+            for(int i = 0; i < BUCKETS; i++){
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            if(total == 0){
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile / 100 * total);
+            long seen = 0;
+            for(int i = 0; i < BUCKETS; i++){
+                seen += counts[i];
+                if(seen >= rank && counts[i] > 0){
+                    return getBucketLimitMicros(i);
+                }
+            }
+            return getBucketLimitMicros(BUCKETS - 1);
+        }
+    }
+}
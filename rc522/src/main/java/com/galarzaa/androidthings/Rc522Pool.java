@@ -0,0 +1,255 @@
+package com.galarzaa.androidthings;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Polls several RC522 readers, notifying listeners when tags enter or leave any of their fields.
+ * <br>
+ * Readers are grouped by the physical SPI bus they are connected to. Each bus gets its own thread,
+ * which interleaves the polls of its readers so only one of them uses the bus at a time, while
+ * readers on different buses are polled in parallel. Every reader keeps its own adaptive poll
+ * interval, see {@link Rc522Scanner}.
+ * <br>
+ * Readers sharing a SPI device through GPIO chip selects can be wrapped with
+ * {@link GpioChipSelectSpiDevice} and added under the same bus name.
+ * <br>
+ * Readers stay in the pool once added, and can't be polled by a {@link Rc522Scanner} of their
+ * own, which would use the bus from another thread. Other threads can still use them through
+ * sessions, see {@link #getBusLock(String)}.
+ *
+ * @author Allan Galarza
+ */
+public class Rc522Pool {
+    private static final String TAG = "Rc522Pool";
+    /* Longest time a bus thread sleeps, so new readers are picked up */
+    private static final long MAX_SLEEP_NS = 100000000L;
+
+    private final Map<String, Bus> buses = new LinkedHashMap<>();
+    private final List<Rc522Scanner.TagListener> listeners = new CopyOnWriteArrayList<>();
+    private boolean running = false;
+
+    /**
+     * Adds a reader to the pool. If the pool is running, the reader starts being polled right away
+     * @param busName name identifying the physical SPI bus the reader is connected to, e.g. "SPI0"
+     * @param rc522 the reader
+     * @return the scanner polling the reader, which can be used to configure it and get its
+     * statistics, but not started, as the pool polls it
+     * @throws IllegalArgumentException if the reader is already polled by a scanner or a pool
+     */
+    public synchronized Rc522Scanner addReader(String busName, Rc522 rc522){
+        if(!rc522.claimPoller(this)){
+            throw new IllegalArgumentException("Reader is already polled by a scanner or a Rc522Pool");
+        }
+        Bus bus = buses.get(busName);
+        if(bus == null){
+            bus = new Bus(busName);
+            buses.put(busName, bus);
+            if(running){
+                bus.start();
+            }
+        }
+        Rc522Scanner scanner = new Rc522Scanner(rc522, true);
+        for(Rc522Scanner.TagListener listener : listeners){
+            scanner.addTagListener(listener);
+        }
+        bus.entries.add(new Entry(scanner));
+        return scanner;
+    }
+
+    /**
+     * Adds a listener to be notified when tags are detected or removed by any reader
+     * @param listener the listener to add
+     */
+    public synchronized void addTagListener(Rc522Scanner.TagListener listener){
+        listeners.add(listener);
+        for(Rc522Scanner scanner : getScanners()){
+            scanner.addTagListener(listener);
+        }
+    }
+
+    /**
+     * Removes a previously added listener
+     * @param listener the listener to remove
+     */
+    public synchronized void removeTagListener(Rc522Scanner.TagListener listener){
+        listeners.remove(listener);
+        for(Rc522Scanner scanner : getScanners()){
+            scanner.removeTagListener(listener);
+        }
+    }
+
+    /**
+     * Gets the scanners of all the readers in the pool, in the order they were added per bus
+     * @return a list of scanners
+     */
+    public synchronized List<Rc522Scanner> getScanners(){
+        List<Rc522Scanner> scanners = new ArrayList<>();
+        for(Bus bus : buses.values()){
+            for(Entry entry : bus.entries){
+                scanners.add(entry.scanner);
+            }
+        }
+        return Collections.unmodifiableList(scanners);
+    }
+
+    /**
+     * Gets the lock held while a reader on a bus is being polled. Holding it allows using any of
+     * the bus' readers from other threads without interfering with the polls. To use a single
+     * reader, opening a {@link Rc522Session} on it is enough, unless readers share a SPI device
+     * through {@link GpioChipSelectSpiDevice}
+     * @param busName the bus' name
+     * @return the bus' lock, or null if there are no readers on that bus
+     */
+    public synchronized ReentrantLock getBusLock(String busName){
+        Bus bus = buses.get(busName);
+        return bus == null ? null : bus.lock;
+    }
+
+    /**
+     * Gets the number of tags detected by all readers so far
+     * @return the number of detections
+     */
+    public long getDetectionCount(){
+        long count = 0;
+        for(Rc522Scanner scanner : getScanners()){
+            count += scanner.getDetectionCount();
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of polls performed by all readers so far
+     * @return the number of polls
+     */
+    public long getPollCount(){
+        long count = 0;
+        for(Rc522Scanner scanner : getScanners()){
+            count += scanner.getPollCount();
+        }
+        return count;
+    }
+
+    /**
+     * Starts polling all readers, using a thread per bus
+     */
+    public synchronized void start(){
+        if(running){
+            return;
+        }
+        running = true;
+        for(Bus bus : buses.values()){
+            bus.start();
+        }
+    }
+
+    /**
+     * Stops polling and waits for all bus threads to finish
+     */
+    public synchronized void stop(){
+        if(!running){
+            return;
+        }
+        running = false;
+        for(Bus bus : buses.values()){
+            bus.stop();
+        }
+    }
+
+    /**
+     * A reader and the time it should be polled next
+     */
+    private static class Entry {
+        final Rc522Scanner scanner;
+        long nextPoll;
+
+        Entry(Rc522Scanner scanner){
+            this.scanner = scanner;
+            this.nextPoll = System.nanoTime();
+        }
+    }
+
+    /**
+     * The readers sharing a SPI bus, and the thread polling them
+     */
+    private static class Bus implements Runnable {
+        final String name;
+        final List<Entry> entries = new CopyOnWriteArrayList<>();
+        final ReentrantLock lock = new ReentrantLock();
+        private Thread thread;
+        private volatile boolean running;
+
+        Bus(String name){
+            this.name = name;
+        }
+
+        void start(){
+            running = true;
+            thread = new Thread(this, TAG + "-" + name);
+            thread.start();
+        }
+
+        void stop(){
+            running = false;
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+
+        @Override
+        public void run() {
+            while(running){
+                long now = System.nanoTime();
+                long nextWake = now + MAX_SLEEP_NS;
+                try {
+                    for(Entry entry : entries){
+                        if(entry.nextPoll - now <= 0){
+                            int interval;
+                            lock.lock();
+                            try {
+                                interval = entry.scanner.runCycle();
+                            } catch (RuntimeException e) {
+                                Log.e(TAG, "Poll failed on bus " + name, e);
+                                interval = entry.scanner.getPollInterval();
+                            } finally {
+                                lock.unlock();
+                            }
+                            entry.nextPoll = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(interval);
+                        }
+                        if(entry.nextPoll - nextWake < 0){
+                            nextWake = entry.nextPoll;
+                        }
+                    }
+                    long delay = nextWake - System.nanoTime();
+                    if(delay > 0){
+                        TimeUnit.NANOSECONDS.sleep(delay);
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            for(Entry entry : entries){
+                Rc522 rc522 = entry.scanner.getRc522();
+                try {
+                    if(rc522.isPoweredDown()){
+                        rc522.powerUp();
+                    }
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Failed waking the RC522 up", e);
+                }
+            }
+        }
+    }
+}
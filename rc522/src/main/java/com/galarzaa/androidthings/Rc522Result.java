@@ -0,0 +1,117 @@
+package com.galarzaa.androidthings;
+
+/**
+ * Holds the outcome of an operation performed through a {@link Rc522Session}: whether it
+ * succeeded, the error if it didn't, and the data received from the tag.
+ * <br>
+ * Results are supplied by the caller and overwritten by every operation they are passed to, so a
+ * thread can reuse the same result without creating new objects. A result should only be used by
+ * one thread at a time.
+ *
+ * @author Allan Galarza
+ */
+public class Rc522Result {
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private Rc522.ErrorType error;
+    private int bitLength;
+    private byte[] data;
+    private int length;
+
+    /**
+     * Creates an empty result
+     */
+    public Rc522Result(){
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty result
+     * @param capacity the number of data bytes it can hold before having to grow
+     */
+    public Rc522Result(int capacity){
+        this.data = new byte[capacity];
+    }
+
+    /**
+     * Checks if the operation succeeded
+     * @return true if there was no error
+     */
+    public boolean isSuccess(){
+        return error == null;
+    }
+
+    /**
+     * Gets the reason why the operation failed
+     * @return the error's type, or null if the operation succeeded
+     */
+    public Rc522.ErrorType getError(){
+        return error;
+    }
+
+    /**
+     * Gets the number of bits received in the tag's last answer, including any CRC
+     * @return the number of bits
+     */
+    public int getBitLength(){
+        return bitLength;
+    }
+
+    /**
+     * Gets the number of data bytes held by this result. What the data contains depends on the
+     * operation, see {@link Rc522Session}'s methods
+     * @return the number of bytes
+     */
+    public int getLength(){
+        return length;
+    }
+
+    /**
+     * Gets a single byte of data
+     * @param index the byte's index, must be less than {@link #getLength()}
+     * @return the byte's value
+     */
+    public byte get(int index){
+        if(index < 0 || index >= length){
+            throw new IndexOutOfBoundsException("Index " + index + " out of " + length + " bytes");
+        }
+        return data[index];
+    }
+
+    /**
+     * Copies the data into an existing array
+     * @param buffer the array to copy to, it must be at least {@link #getLength()} bytes long
+     * @return the number of bytes copied
+     */
+    public int getData(byte[] buffer){
+        System.arraycopy(data, 0, buffer, 0, length);
+        return length;
+    }
+
+    /**
+     * Gets a copy of the data
+     * @return a new array with the data
+     */
+    public byte[] getData(){
+        byte[] copy = new byte[length];
+        System.arraycopy(data, 0, copy, 0, length);
+        return copy;
+    }
+
+    /**
+     * Replaces the content of this result
+     * @param error the operation's error, null if it succeeded
+     * @param bitLength the number of bits received
+     * @param source the array holding the received data
+     * @param length the number of bytes from source to copy
+     */
+    void set(Rc522.ErrorType error, int bitLength, byte[] source, int length){
+        if(length > data.length){
+            data = new byte[Math.max(length, data.length * 2)];
+        }
+        System.arraycopy(source, 0, data, 0, length);
+        this.error = error;
+        this.bitLength = bitLength;
+        this.length = length;
+    }
+}
@@ -0,0 +1,440 @@
+package com.galarzaa.androidthings;
+
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Polls a RC522 for tags on a dedicated thread, notifying listeners when tags enter or leave the
+ * field.
+ * <br>
+ * Tags are woken up with {@link Rc522#REQUEST_ALL}, selected and then halted on every poll, so a
+ * tag that stays in the field is only reported once. Listeners are called on the scanner's thread
+ * while the tag is still selected, so they can authenticate and read it right away.
+ * <br>
+ * The poll interval adapts to the activity: it's kept short while tags are present or were seen
+ * recently, and it grows up to the idle interval while the field stays empty.
+ * <br>
+ * In low power idle mode, the RF field is switched off and the RC522 is put in soft power-down
+ * between polls while the field is empty, waking it up only for short sensing windows.
+ * <br>
+ * Each poll runs in a {@link Rc522Session}, so other threads can use the RC522 between polls by
+ * opening their own sessions. Listeners are called while the poll's session is open.
+ * <br>
+ * Only one scanner can poll a reader at a time, and readers added to a {@link Rc522Pool} are
+ * polled by the pool's bus threads only.
+ *
+ * @author Allan Galarza
+ */
+public class Rc522Scanner {
+    private static final String TAG = "Rc522Scanner";
+
+    private final Rc522 rc522;
+    /* Polled by a Rc522Pool's bus thread instead of its own */
+    private final boolean pooled;
+    private final List<TagListener> listeners = new CopyOnWriteArrayList<>();
+
+    /* Settings, changed by other threads while polling */
+    private volatile int fastInterval = 20;
+    private volatile int idleInterval = 250;
+    private volatile int activeWindow = 2000;
+    private volatile int removalThreshold = 2;
+    private volatile boolean lowPowerIdle = false;
+    private volatile int fieldSettleTime = 5;
+
+    private Thread thread;
+    private volatile boolean running = false;
+
+    private final Rc522Result result = new Rc522Result();
+    private TagInfo currentTag;
+    private boolean tagPresent = false;
+    private int misses;
+    private volatile long lastSeen;
+    private volatile int interval;
+
+    /* Guards the field's state, which is read together by getDutyCycle */
+    private final Object fieldLock = new Object();
+    private boolean started = false;
+    private long startTime;
+    private boolean fieldOn;
+    private long fieldOnSince;
+    private long fieldOnTime;
+    private volatile long wakeUpLatency;
+
+    private volatile long pollCount;
+    private volatile long detectionCount;
+    private volatile long pollTime;
+
+    /**
+     * Creates a scanner for a RC522
+     * @param rc522 the reader to poll
+     */
+    public Rc522Scanner(Rc522 rc522){
+        this(rc522, false);
+    }
+
+    /**
+     * Creates a scanner for a RC522
+     * @param rc522 the reader to poll
+     * @param pooled true if a {@link Rc522Pool} polls it, so it can't be started
+     */
+    Rc522Scanner(Rc522 rc522, boolean pooled){
+        this.rc522 = rc522;
+        this.pooled = pooled;
+        this.interval = fastInterval;
+    }
+
+    /**
+     * Adds a listener to be notified when tags are detected or removed
+     * @param listener the listener to add
+     */
+    public void addTagListener(TagListener listener){
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a previously added listener
+     * @param listener the listener to remove
+     */
+    public void removeTagListener(TagListener listener){
+        listeners.remove(listener);
+    }
+
+    /**
+     * Sets the poll interval used while tags are present or were seen recently
+     * @param milliseconds the interval, in milliseconds
+     */
+    public void setFastInterval(int milliseconds){
+        this.fastInterval = milliseconds;
+    }
+
+    /**
+     * Sets the longest poll interval, reached when no tags have been seen for a while
+     * @param milliseconds the interval, in milliseconds
+     */
+    public void setIdleInterval(int milliseconds){
+        this.idleInterval = milliseconds;
+    }
+
+    /**
+     * Sets for how long the fast interval is kept after the last tag was seen
+     * @param milliseconds the time, in milliseconds
+     */
+    public void setActiveWindow(int milliseconds){
+        this.activeWindow = milliseconds;
+    }
+
+    /**
+     * Sets the number of consecutive polls without an answer before a tag is considered removed
+     * @param polls the number of polls
+     */
+    public void setRemovalThreshold(int polls){
+        this.removalThreshold = polls;
+    }
+
+    /**
+     * Enables or disables the low power idle mode. While enabled and no tags have been seen for
+     * longer than the active window, the RF field is off and the RC522 is in soft power-down mode
+     * between polls. Sessions opened by other threads meanwhile wake the RC522 up while they're
+     * open, see {@link Rc522#openSession()}.
+     * @param lowPowerIdle true to enable, false to disable
+     */
+    public void setLowPowerIdle(boolean lowPowerIdle){
+        this.lowPowerIdle = lowPowerIdle;
+    }
+
+    /**
+     * Sets the time to wait after switching the RF field on before polling, so tags in the field
+     * can power up. ISO/IEC 14443-3 requires at least 5 milliseconds.
+     * @param milliseconds the time, in milliseconds
+     */
+    public void setFieldSettleTime(int milliseconds){
+        this.fieldSettleTime = milliseconds;
+    }
+
+    /**
+     * Gets the time the RC522 took to wake up from soft power-down the last time, not including
+     * the field settle time
+     * @return the latency, in nanoseconds
+     */
+    public long getWakeUpLatency(){
+        return wakeUpLatency;
+    }
+
+    /**
+     * Gets the fraction of time the RF field has been on since the scanner started, not counting
+     * sessions opened by other threads while idling in low power mode
+     * @return a value between 0 and 1
+     */
+    public float getDutyCycle(){
+        synchronized(fieldLock){
+            long now = System.nanoTime();
+            long total = now - startTime;
+            if(!started || total <= 0){
+                return 1;
+            }
+            long on = fieldOnTime;
+            if(fieldOn){
+                on += now - fieldOnSince;
+            }
+            return (float) on / total;
+        }
+    }
+
+    /**
+     * Gets the number of polls performed so far
+     * @return the number of polls
+     */
+    public long getPollCount(){
+        return pollCount;
+    }
+
+    /**
+     * Gets the number of tags detected so far
+     * @return the number of detections
+     */
+    public long getDetectionCount(){
+        return detectionCount;
+    }
+
+    /**
+     * Gets the average time spent on each poll, including the listeners' callbacks
+     * @return the average time, in nanoseconds
+     */
+    public long getAveragePollTime(){
+        long polls = pollCount;
+        return polls == 0 ? 0 : pollTime / polls;
+    }
+
+    /**
+     * Gets the poll interval currently in use
+     * @return the interval, in milliseconds
+     */
+    public int getPollInterval(){
+        return interval;
+    }
+
+    /**
+     * Gets the reader used by this scanner
+     * @return the RC522
+     */
+    public Rc522 getRc522(){
+        return rc522;
+    }
+
+    /**
+     * Starts polling on a new thread. Does nothing if the scanner is already running.
+     * <br>
+     * If polling throws an unexpected exception, it's logged and the scanner stops, which can be
+     * checked with {@link #isRunning()}
+     * @throws IllegalStateException if the scanner belongs to a {@link Rc522Pool}, or the reader
+     * is already polled by another scanner or a pool, as their threads would share the SPI bus
+     */
+    public synchronized void start(){
+        if(pooled){
+            throw new IllegalStateException("Scanner is polled by its Rc522Pool");
+        }
+        if(running){
+            return;
+        }
+        // A thread that stopped on its own may still be finishing
+        if(!joinThread()){
+            return;
+        }
+        if(!rc522.claimPoller(this)){
+            throw new IllegalStateException("Reader is already polled by another scanner or a Rc522Pool");
+        }
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while(running){
+                        Thread.sleep(runCycle());
+                    }
+                } catch (InterruptedException e) {
+                    // Stopped
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Polling failed, scanner stopped", e);
+                } finally {
+                    try {
+                        if(rc522.isPoweredDown()){
+                            rc522.powerUp();
+                        }
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "Failed waking the RC522 up", e);
+                    } finally {
+                        rc522.releasePoller(Rc522Scanner.this);
+                        running = false;
+                    }
+                }
+            }
+        }, TAG);
+        thread.start();
+    }
+
+    /**
+     * Stops polling and waits for the scanner's thread to finish, even if it already stopped on
+     * its own. If called from a listener, the thread finishes after the listener returns
+     */
+    public synchronized void stop(){
+        running = false;
+        if(thread != null && thread != Thread.currentThread()){
+            thread.interrupt();
+        }
+        joinThread();
+    }
+
+    /**
+     * Waits for the scanner's thread to finish, if there's one
+     * @return true if there's no thread left, false if interrupted while waiting or called from
+     * the scanner's thread
+     */
+    private boolean joinThread(){
+        if(thread == null){
+            return true;
+        }
+        if(thread == Thread.currentThread()){
+            return false;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        thread = null;
+        return true;
+    }
+
+    /**
+     * Checks if the scanner's thread is running
+     * @return true if it's polling
+     */
+    public boolean isRunning(){
+        return running;
+    }
+
+    /**
+     * Performs a poll, waking the RC522 up before and powering it down after if low power idle is
+     * enabled
+     * @return the time to wait until the next cycle, in milliseconds
+     * @throws InterruptedException if interrupted while waiting for the field to settle
+     */
+    int runCycle() throws InterruptedException {
+        synchronized(fieldLock){
+            if(!started){
+                started = true;
+                startTime = System.nanoTime();
+                fieldOn = !rc522.isPoweredDown();
+                fieldOnSince = startTime;
+            }
+        }
+        if(rc522.isPoweredDown()){
+            wakeUpLatency = rc522.powerUp();
+            synchronized(fieldLock){
+                fieldOn = true;
+                fieldOnSince = System.nanoTime();
+            }
+            Thread.sleep(fieldSettleTime);
+        }
+        poll();
+        if(lowPowerIdle && !tagPresent && System.currentTimeMillis() - lastSeen >= activeWindow){
+            rc522.powerDown();
+            synchronized(fieldLock){
+                fieldOn = false;
+                fieldOnTime += System.nanoTime() - fieldOnSince;
+            }
+        }
+        return interval;
+    }
+
+    /**
+     * Performs a single poll, notifying the listeners of any change and updating the interval
+     * until the next poll
+     * @return true if a tag was found
+     */
+    boolean poll(){
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+        boolean found;
+        try (Rc522Session session = rc522.openSession()) {
+            TagInfo tag = session.activate(Rc522.REQUEST_ALL, result);
+            found = tag != null;
+            if(found){
+                misses = 0;
+                lastSeen = now;
+                if(tagPresent && !currentTag.equals(tag)){
+                    notifyRemoved();
+                }
+                if(!tagPresent){
+                    currentTag = tag;
+                    tagPresent = true;
+                    detectionCount++;
+                    notifyDetected();
+                }
+                session.stopCrypto();
+                session.halt(result);
+            }else if(tagPresent && ++misses >= removalThreshold){
+                notifyRemoved();
+            }
+        }
+        updateInterval(now);
+        pollCount++;
+        pollTime += System.nanoTime() - start;
+        return found;
+    }
+
+    /**
+     * Keeps the fast interval while tags are around, doubling it on every empty poll afterwards
+     */
+    private void updateInterval(long now){
+        if(tagPresent || now - lastSeen < activeWindow){
+            interval = fastInterval;
+        }else{
+            interval = Math.min(Math.max(interval, fastInterval) * 2, idleInterval);
+        }
+    }
+
+    private void notifyDetected(){
+        for(TagListener listener : listeners){
+            try {
+                listener.onTagDetected(rc522, currentTag.getUid(), currentTag.getSak());
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Listener failed handling a detected tag", e);
+            }
+        }
+    }
+
+    private void notifyRemoved(){
+        tagPresent = false;
+        for(TagListener listener : listeners){
+            try {
+                listener.onTagRemoved(rc522, currentTag.getUid());
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Listener failed handling a removed tag", e);
+            }
+        }
+    }
+
+    /**
+     * Receives notifications when tags enter or leave a RC522's field
+     */
+    public interface TagListener {
+        /**
+         * Called when a new tag is found. The tag is selected while this method runs.
+         * @param rc522 the reader that found the tag
+         * @param uid the tag's complete UID, 4, 7 or 10 bytes long
+         * @param sak the tag's select acknowledge, identifying its type
+         */
+        void onTagDetected(Rc522 rc522, byte[] uid, byte sak);
+
+        /**
+         * Called when a tag is no longer answering
+         * @param rc522 the reader that lost the tag
+         * @param uid the tag's UID
+         */
+        void onTagRemoved(Rc522 rc522, byte[] uid);
+    }
+}
@@ -0,0 +1,202 @@
+package com.galarzaa.androidthings;
+
+import java.util.List;
+
+/**
+ * Gives a thread exclusive use of a RC522 for a sequence of operations, e.g. selecting a tag,
+ * authenticating and reading it, without other threads interleaving their own operations.
+ * <br>
+ * Sessions are opened with {@link Rc522#openSession()} and must be closed by the same thread,
+ * preferably with a try-with-resources statement. Operations write their outcome into a
+ * {@link Rc522Result} supplied by the caller, instead of the reader's shared state:
+ * <pre>{@code
+ * Rc522Result result = new Rc522Result();
+ * try (Rc522Session session = rc522.openSession()) {
+ *     if (session.readBlock(block, result)) {
+ *         result.getData(buffer);
+ *     }
+ * }
+ * }</pre>
+ * The reader's own methods can also be called while the session is open, as the session's lock is
+ * reentrant.
+ *
+ * @author Allan Galarza
+ */
+public class Rc522Session implements AutoCloseable {
+    private final Rc522 rc522;
+    /* Whether opening the session woke the reader up from soft power-down */
+    private final boolean wokeUp;
+    private boolean open = true;
+
+    Rc522Session(Rc522 rc522, boolean wokeUp){
+        this.rc522 = rc522;
+        this.wokeUp = wokeUp;
+    }
+
+    /**
+     * Gets the reader this session belongs to
+     * @return the RC522
+     */
+    public Rc522 getRc522(){
+        return rc522;
+    }
+
+    /**
+     * Requests for a tag. On success, the result holds the tag's two byte ATQA
+     * @param requestMode {@link Rc522#REQUEST_IDLE} or {@link Rc522#REQUEST_ALL}
+     * @param result the result to fill
+     * @return true if a tag answered
+     */
+    public boolean request(byte requestMode, Rc522Result result){
+        checkOpen();
+        rc522.copyResult(result, rc522.request(requestMode), 2);
+        return result.isSuccess();
+    }
+
+    /**
+     * Gets the UID of a tag in the field. On success, the result holds the four UID bytes
+     * followed by their check byte
+     * @param result the result to fill
+     * @return true if a UID was read without collisions
+     */
+    public boolean antiCollision(Rc522Result result){
+        checkOpen();
+        rc522.copyResult(result, rc522.antiCollisionDetect(), 5);
+        return result.isSuccess();
+    }
+
+    /**
+     * Requests for a tag, reads its complete UID and selects it. On success, the result holds the
+     * tag's SAK
+     * @param requestMode {@link Rc522#REQUEST_IDLE} or {@link Rc522#REQUEST_ALL}
+     * @param result the result to fill
+     * @return the activated tag, or null if no tag could be activated
+     * @see Rc522#activateTag(byte)
+     */
+    public TagInfo activate(byte requestMode, Rc522Result result){
+        checkOpen();
+        TagInfo tag = rc522.activateTag(requestMode);
+        rc522.copyResult(result, tag != null, 1);
+        return tag;
+    }
+
+    /**
+     * Finds all the tags in the field, leaving them halted
+     * @param maxTags the maximum number of tags to find
+     * @return the tags found
+     * @see Rc522#inventory(int)
+     */
+    public List<TagInfo> inventory(int maxTags){
+        checkOpen();
+        return rc522.inventory(maxTags);
+    }
+
+    /**
+     * Selects a tag. On success, the result holds the tag's SAK
+     * @param uid the tag's complete UID, or its first cascade level as returned by
+     *            {@link #antiCollision(Rc522Result)}
+     * @param result the result to fill
+     * @return true if the tag was selected
+     */
+    public boolean select(byte[] uid, Rc522Result result){
+        checkOpen();
+        rc522.copyResult(result, rc522.selectTag(uid), 1);
+        return result.isSuccess();
+    }
+
+    /**
+     * Authenticates the use of a block of the selected tag
+     * @param authMode {@link Rc522#AUTH_A} or {@link Rc522#AUTH_B}
+     * @param address the block's address
+     * @param key the six byte key
+     * @param uid the tag's UID
+     * @param result the result to fill
+     * @return true if authentication was successful
+     */
+    public boolean authenticate(byte authMode, byte address, byte[] key, byte[] uid, Rc522Result result){
+        checkOpen();
+        rc522.copyResult(result, rc522.authenticate(authMode, address, key, uid, uid.length), 0);
+        return result.isSuccess();
+    }
+
+    /**
+     * Reads a block of the selected tag. On success, the result holds the block's 16 bytes
+     * @param address the block's address
+     * @param result the result to fill
+     * @return true if the block was read
+     */
+    public boolean readBlock(byte address, Rc522Result result){
+        checkOpen();
+        rc522.copyResult(result, rc522.readBlockData(address), 16);
+        return result.isSuccess();
+    }
+
+    /**
+     * Writes a block of the selected tag
+     * @param address the block's address
+     * @param data the 16 bytes to write
+     * @param result the result to fill
+     * @return true if the tag acknowledged the write
+     */
+    public boolean writeBlock(byte address, byte[] data, Rc522Result result){
+        checkOpen();
+        rc522.copyResult(result, rc522.writeBlock(address, data), 0);
+        return result.isSuccess();
+    }
+
+    /**
+     * Sends the selected tag to the HALT state
+     * @param result the result to fill
+     * @return true if the tag accepted the command
+     */
+    public boolean halt(Rc522Result result){
+        checkOpen();
+        rc522.copyResult(result, rc522.haltTag(), 0);
+        return result.isSuccess();
+    }
+
+    /**
+     * Ends operations that use crypto
+     */
+    public void stopCrypto(){
+        checkOpen();
+        rc522.stopCrypto();
+    }
+
+    /**
+     * Checks if the session is still open
+     * @return true if {@link #close()} wasn't called yet
+     */
+    public boolean isOpen(){
+        return open;
+    }
+
+    /**
+     * Closes the session, allowing other threads to use the reader. Does nothing if it's already
+     * closed. If opening the session woke the reader up, it's powered down again
+     */
+    @Override
+    public void close(){
+        if(!open){
+            return;
+        }
+        checkOpen();
+        open = false;
+        try {
+            if(wokeUp && !rc522.isPoweredDown()){
+                rc522.powerDown();
+            }
+        } finally {
+            rc522.getLock().unlock();
+        }
+    }
+
+    private void checkOpen(){
+        if(!open){
+            throw new IllegalStateException("Session is closed");
+        }
+        if(!rc522.getLock().isHeldByCurrentThread()){
+            throw new IllegalStateException("Session belongs to another thread");
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.galarzaa.androidthings;
+
+import java.io.IOException;
+
+/**
+ * Connection between the driver and a RC522, either real hardware, see {@link SpiDeviceTransport},
+ * or a stand-in such as the simulator the tests and benchmarks use, see {@code rc522/src/simulator}.
+ * <br>
+ * Transports are used while holding the reader's lock, so they don't need to be thread safe,
+ * except for signaling interrupts.
+ *
+ * @author Allan Galarza
+ */
+public interface Rc522Transport {
+    /**
+     * Performs a single SPI transaction with the RC522, see section 8.1.2 in MFRC522's datasheet
+     * @param txBuffer the bytes to send
+     * @param rxBuffer the array to store the received bytes to
+     * @param length the number of bytes to transfer
+     * @throws IOException if the transaction failed
+     */
+    void transfer(byte[] txBuffer, byte[] rxBuffer, int length) throws IOException;
+
+    /**
+     * Sets the SPI clock frequency
+     * @param frequencyHz the frequency, in Hz
+     * @throws IOException if the frequency couldn't be set
+     */
+    void setFrequency(int frequencyHz) throws IOException;
+
+    /**
+     * Checks if the transport is notified when the RC522's IRQ pin signals an interrupt.
+     * Otherwise, the driver polls the interrupt registers to wait for commands
+     * @return true if {@link #awaitInterrupt(long)} can be used
+     */
+    boolean hasInterrupt();
+
+    /**
+     * Forgets any interrupt signaled until now
+     */
+    void clearInterrupt();
+
+    /**
+     * Waits until the IRQ pin signals an interrupt, returning right away if one was signaled since
+     * the last call to {@link #clearInterrupt()}
+     * @param timeoutNanos the maximum time to wait, in nanoseconds
+     * @return true if an interrupt was signaled, false if the wait timed out or the thread was
+     * interrupted
+     */
+    boolean awaitInterrupt(long timeoutNanos);
+
+    /**
+     * Releases the resources used by the transport. Devices and pins given by the caller are not
+     * closed, as they are owned by the caller
+     */
+    void close();
+}
@@ -0,0 +1,334 @@
+package com.galarzaa.androidthings;
+
+import android.util.Log;
+
+import com.google.android.things.pio.SpiDevice;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Wraps a SPI device, recording every transaction to a log that can be replayed later with a
+ * {@link ReplaySpiDevice}, e.g. to reproduce a problem seen in the field.
+ * <br>
+ * Records are kept in memory and written to the log in blocks by a background thread, so the
+ * thread using the device only waits if it fills a block before the previous one was written.
+ * If writing the log fails, recording stops, but the device keeps working.
+ * <pre>{@code
+ * RecordingSpiDevice device = new RecordingSpiDevice(spiDevice, new File(getFilesDir(), "rc522.log"));
+ * Rc522 rc522 = new Rc522(device, resetPin);
+ * ...
+ * device.close();
+ * }</pre>
+ *
+ * @author Allan Galarza
+ */
+public class RecordingSpiDevice implements SpiDevice {
+    private static final String TAG = "RecordingSpiDevice";
+    /* Size of each of the two in-memory blocks */
+    private static final int BLOCK_SIZE = 32 * 1024;
+
+    private final SpiDevice device;
+    private final OutputStream out;
+    private final ExecutorService writer;
+    private Future<?> pendingWrite;
+    private volatile IOException writeError;
+
+    private byte[] block = new byte[BLOCK_SIZE];
+    /* Block being written by the background thread, reused once the write completes */
+    private byte[] spare = new byte[BLOCK_SIZE];
+    private int position;
+    private long lastTimestamp;
+    private long recordCount;
+    private boolean recording = true;
+
+    /**
+     * Records a device's transactions to a file, replacing its contents
+     * @param device the device to record
+     * @param file the log file
+     * @throws IOException if the file couldn't be opened
+     */
+    public RecordingSpiDevice(SpiDevice device, File file) throws IOException {
+        this(device, new FileOutputStream(file));
+    }
+
+    /**
+     * Records a device's transactions to a stream. The stream is closed along with this device
+     * @param device the device to record
+     * @param out the stream to write the log to
+     */
+    public RecordingSpiDevice(SpiDevice device, OutputStream out){
+        this.device = device;
+        this.out = out;
+        this.writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        position = SpiLog.writeHeader(block, System.currentTimeMillis());
+        lastTimestamp = System.nanoTime();
+    }
+
+    @Override
+    public synchronized void transfer(byte[] txBuffer, byte[] rxBuffer, int length) throws IOException {
+        long timestamp = System.nanoTime();
+        try {
+            device.transfer(txBuffer, rxBuffer, length);
+        } catch (IOException e) {
+            record(SpiLog.TRANSFER | SpiLog.FAILED, timestamp, txBuffer, null, length);
+            throw e;
+        }
+        record(SpiLog.TRANSFER, timestamp, txBuffer, rxBuffer, length);
+    }
+
+    @Override
+    public synchronized void write(byte[] buffer, int length) throws IOException {
+        long timestamp = System.nanoTime();
+        try {
+            device.write(buffer, length);
+        } catch (IOException e) {
+            record(SpiLog.WRITE | SpiLog.FAILED, timestamp, buffer, null, length);
+            throw e;
+        }
+        record(SpiLog.WRITE, timestamp, buffer, null, length);
+    }
+
+    @Override
+    public synchronized void read(byte[] buffer, int length) throws IOException {
+        long timestamp = System.nanoTime();
+        try {
+            device.read(buffer, length);
+        } catch (IOException e) {
+            record(SpiLog.READ | SpiLog.FAILED, timestamp, null, null, length);
+            throw e;
+        }
+        record(SpiLog.READ, timestamp, null, buffer, length);
+    }
+
+    @Override
+    public synchronized void setFrequency(int frequencyHz) throws IOException {
+        long timestamp = System.nanoTime();
+        try {
+            device.setFrequency(frequencyHz);
+        } catch (IOException e) {
+            recordFrequency(SpiLog.FREQUENCY | SpiLog.FAILED, timestamp, frequencyHz);
+            throw e;
+        }
+        recordFrequency(SpiLog.FREQUENCY, timestamp, frequencyHz);
+    }
+
+    @Override
+    public void setMode(int mode) throws IOException {
+        device.setMode(mode);
+    }
+
+    @Override
+    public void setBitJustification(int justification) throws IOException {
+        device.setBitJustification(justification);
+    }
+
+    @Override
+    public void setBitsPerWord(int bitsPerWord) throws IOException {
+        device.setBitsPerWord(bitsPerWord);
+    }
+
+    @Override
+    public void setCsChange(boolean change) throws IOException {
+        device.setCsChange(change);
+    }
+
+    @Override
+    public void setDelay(int delayUs) throws IOException {
+        device.setDelay(delayUs);
+    }
+
+    @Override
+    public String getName() {
+        return device.getName();
+    }
+
+    /**
+     * Checks if transactions are still being recorded
+     * @return false if writing the log failed or the device was closed
+     */
+    public synchronized boolean isRecording(){
+        return recording;
+    }
+
+    /**
+     * Gets the number of calls recorded so far
+     * @return the number of records
+     */
+    public synchronized long getRecordCount(){
+        return recordCount;
+    }
+
+    /**
+     * Writes all the records kept in memory to the log, waiting until they're written
+     * @throws IOException if writing the log failed
+     */
+    public synchronized void flush() throws IOException {
+        if(!recording){
+            return;
+        }
+        submitBlock();
+        awaitWrite();
+        if(writeError == null){
+            out.flush();
+        }
+        checkWriteError();
+    }
+
+    /**
+     * Writes the remaining records and closes the log and the wrapped device
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if(recording){
+                submitBlock();
+                awaitWrite();
+                recording = false;
+            }
+            writer.shutdown();
+            out.close();
+        } finally {
+            device.close();
+        }
+        checkWriteError();
+    }
+
+    private void record(int type, long timestamp, byte[] tx, byte[] rx, int length){
+        if(!reserve(3 * SpiLog.MAX_VARINT_LENGTH + 2 * length)){
+            return;
+        }
+        byte[] b = block;
+        b[position++] = (byte) type;
+        position = SpiLog.writeVarint(b, position, elapsedMicros(timestamp));
+        position = SpiLog.writeVarint(b, position, length);
+        if(tx != null){
+            System.arraycopy(tx, 0, b, position, length);
+            position += length;
+        }
+        if(rx != null){
+            System.arraycopy(rx, 0, b, position, length);
+            position += length;
+        }
+        recordCount++;
+    }
+
+    private void recordFrequency(int type, long timestamp, int frequencyHz){
+        if(!reserve(1 + 2 * SpiLog.MAX_VARINT_LENGTH)){
+            return;
+        }
+        block[position++] = (byte) type;
+        position = SpiLog.writeVarint(block, position, elapsedMicros(timestamp));
+        position = SpiLog.writeVarint(block, position, frequencyHz & 0xFFFFFFFFL);
+        recordCount++;
+    }
+
+    /**
+     * Gets the time since the previous record, advancing by whole microseconds so rounding
+     * errors don't accumulate
+     */
+    private long elapsedMicros(long timestamp){
+        long micros = Math.max(0, (timestamp - lastTimestamp) / 1000);
+        lastTimestamp += micros * 1000;
+        return micros;
+    }
+
+    /**
+     * Makes room for a record in the current block, handing the block to the background thread
+     * if it's full
+     * @param length the record's maximum length
+     * @return false if the record can't be recorded
+     */
+    private boolean reserve(int length){
+        if(!recording){
+            return false;
+        }
+        if(writeError != null){
+            stopRecording();
+            return false;
+        }
+        if(position + length > block.length){
+            submitBlock();
+            if(length > block.length){
+                // Only large reads and writes need more than a block
+                block = new byte[length];
+                spare = new byte[length];
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hands the current block to the background thread, after the previous one is written
+     */
+    private void submitBlock(){
+        awaitWrite();
+        if(position == 0){
+            return;
+        }
+        final byte[] full = block;
+        final int length = position;
+        block = spare;
+        spare = full;
+        position = 0;
+        pendingWrite = writer.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    out.write(full, 0, length);
+                } catch (IOException e) {
+                    writeError = e;
+                }
+            }
+        });
+    }
+
+    private void awaitWrite(){
+        if(pendingWrite == null){
+            return;
+        }
+        boolean interrupted = false;
+        while(true){
+            try {
+                pendingWrite.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                writeError = new IOException(e.getCause());
+                break;
+            }
+        }
+        pendingWrite = null;
+        if(interrupted){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void stopRecording(){
+        recording = false;
+        Log.w(TAG, "Stopped recording, could not write the log", writeError);
+    }
+
+    private void checkWriteError() throws IOException {
+        IOException error = writeError;
+        if(error != null){
+            recording = false;
+            throw error;
+        }
+    }
+}
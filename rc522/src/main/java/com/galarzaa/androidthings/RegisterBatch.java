@@ -0,0 +1,137 @@
+package com.galarzaa.androidthings;
+
+/**
+ * Queues register reads and writes so they can be sent to the RC522 with as few SPI transactions
+ * as possible.
+ * <br>
+ * While reading, the MFRC522 accepts a new address on every byte, so consecutive reads are sent in
+ * a single transaction. While writing, every byte after the address goes to that same address, so
+ * only consecutive writes to the same register are merged, see section 8.1.2 in MFRC522's
+ * datasheet.
+ * <br>
+ * Batches are obtained with {@link Rc522#newBatch()} and can be reused after calling {@link #clear()}.
+ * The reader's lock is held while a batch is committed, but a batch itself should only be used by
+ * one thread at a time.
+ *
+ * @author Allan Galarza
+ */
+public class RegisterBatch {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private final Rc522 rc522;
+    private byte[] addresses = new byte[DEFAULT_CAPACITY];
+    private byte[] values = new byte[DEFAULT_CAPACITY];
+    private boolean[] reads = new boolean[DEFAULT_CAPACITY];
+    private byte[] txBuffer = new byte[DEFAULT_CAPACITY + 1];
+    private byte[] rxBuffer = new byte[DEFAULT_CAPACITY + 1];
+    private int size;
+
+    RegisterBatch(Rc522 rc522){
+        this.rc522 = rc522;
+    }
+
+    /**
+     * Queues a write to a register
+     * @param address The address to write to
+     * @param value The value that will be written
+     * @return this batch, to allow chaining calls
+     */
+    public RegisterBatch write(byte address, byte value){
+        int index = add(address, false);
+        values[index] = value;
+        return this;
+    }
+
+    /**
+     * Queues a read of a register. The value can be obtained with {@link #get(int)} once the batch
+     * has been committed
+     * @param address The address to read from
+     * @return the index of the read in this batch
+     */
+    public int read(byte address){
+        return add(address, true);
+    }
+
+    /**
+     * Gets a value obtained by a read in this batch, after committing it
+     * @param index the index returned by {@link #read(byte)}
+     * @return the register's value
+     */
+    public byte get(int index){
+        return values[index];
+    }
+
+    /**
+     * Removes all the queued operations, so the batch can be reused
+     */
+    public void clear(){
+        size = 0;
+    }
+
+    /**
+     * Sends all the queued operations to the RC522, in the order they were added.
+     * The operations stay queued, so the same batch can be committed again.
+     * @return true if all transactions were successful
+     */
+    public boolean commit(){
+        rc522.getLock().lock();
+        try {
+            int i = 0;
+            while(i < size){
+                int length = 0;
+                int first = i;
+                if(reads[i]){
+                    while(i < size && reads[i]){
+                        txBuffer[length++] = (byte) (((addresses[i] << 1) & 0x7E) | 0x80);
+                        i++;
+                    }
+                    txBuffer[length++] = 0;
+                    if(!rc522.transfer(txBuffer, rxBuffer, length)){
+                        return false;
+                    }
+                    for(int j = first; j < i; j++){
+                        values[j] = rxBuffer[j - first + 1];
+                    }
+                }else{
+                    byte address = addresses[i];
+                    txBuffer[length++] = (byte) ((address << 1) & 0x7E);
+                    while(i < size && !reads[i] && addresses[i] == address){
+                        txBuffer[length++] = values[i];
+                        i++;
+                    }
+                    if(!rc522.transfer(txBuffer, rxBuffer, length)){
+                        return false;
+                    }
+                    rc522.updateShadowRegister(address, values[i - 1]);
+                }
+            }
+            return true;
+        } finally {
+            rc522.getLock().unlock();
+        }
+    }
+
+    private int add(byte address, boolean read){
+        if(size == addresses.length){
+            grow();
+        }
+        addresses[size] = address;
+        reads[size] = read;
+        return size++;
+    }
+
+    private void grow(){
+        int capacity = addresses.length * 2;
+        byte[] newAddresses = new byte[capacity];
+        byte[] newValues = new byte[capacity];
+        boolean[] newReads = new boolean[capacity];
+        System.arraycopy(addresses, 0, newAddresses, 0, size);
+        System.arraycopy(values, 0, newValues, 0, size);
+        System.arraycopy(reads, 0, newReads, 0, size);
+        addresses = newAddresses;
+        values = newValues;
+        reads = newReads;
+        txBuffer = new byte[capacity + 1];
+        rxBuffer = new byte[capacity + 1];
+    }
+}
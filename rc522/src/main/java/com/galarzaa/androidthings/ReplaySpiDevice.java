@@ -0,0 +1,211 @@
+package com.galarzaa.androidthings;
+
+import com.google.android.things.pio.SpiDevice;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A SPI device that answers with the data recorded by a {@link RecordingSpiDevice}, so a captured
+ * session can be run again without the hardware, e.g. as a regression or performance test.
+ * <br>
+ * Calls must be made in the same order, with the same data, as when they were recorded, otherwise
+ * an {@link IllegalStateException} describing the difference is thrown. Calls that failed while
+ * recording throw an {@link IOException} again. Answers are given immediately, regardless of how
+ * long the original calls took.
+ * <pre>{@code
+ * ReplaySpiDevice device = new ReplaySpiDevice(new File("rc522.log"));
+ * Rc522 rc522 = new Rc522(device, resetPin);
+ * // Repeat the operations performed while recording
+ * ...
+ * if (!device.isFinished()) {
+ *     // The driver performed fewer transactions than recorded
+ * }
+ * }</pre>
+ *
+ * @author Allan Galarza
+ */
+public class ReplaySpiDevice implements SpiDevice {
+    private final InputStream in;
+    private final long startTime;
+    private byte[] data = new byte[256];
+    private long recordCount;
+    private long elapsedMicros;
+
+    /**
+     * Replays a log file
+     * @param file the log file
+     * @throws IOException if the file couldn't be opened or isn't a valid log
+     */
+    public ReplaySpiDevice(File file) throws IOException {
+        this(new FileInputStream(file));
+    }
+
+    /**
+     * Replays a log from a stream. The stream is closed along with this device
+     * @param in the stream to read the log from
+     * @throws IOException if the stream doesn't contain a valid log
+     */
+    public ReplaySpiDevice(InputStream in) throws IOException {
+        this.in = in.markSupported() ? in : new BufferedInputStream(in);
+        this.startTime = SpiLog.readHeader(this.in);
+    }
+
+    @Override
+    public synchronized void transfer(byte[] txBuffer, byte[] rxBuffer, int length) throws IOException {
+        boolean failed = nextRecord(SpiLog.TRANSFER, length);
+        compare(txBuffer, length);
+        if(failed){
+            throw new IOException("Transfer failed while recording");
+        }
+        SpiLog.readFully(in, rxBuffer, length);
+    }
+
+    @Override
+    public synchronized void write(byte[] buffer, int length) throws IOException {
+        boolean failed = nextRecord(SpiLog.WRITE, length);
+        compare(buffer, length);
+        if(failed){
+            throw new IOException("Write failed while recording");
+        }
+    }
+
+    @Override
+    public synchronized void read(byte[] buffer, int length) throws IOException {
+        if(nextRecord(SpiLog.READ, length)){
+            throw new IOException("Read failed while recording");
+        }
+        SpiLog.readFully(in, buffer, length);
+    }
+
+    @Override
+    public synchronized void setFrequency(int frequencyHz) throws IOException {
+        boolean failed = nextRecord(SpiLog.FREQUENCY, frequencyHz);
+        if(failed){
+            throw new IOException("Setting the frequency failed while recording");
+        }
+    }
+
+    @Override
+    public void setMode(int mode) {
+    }
+
+    @Override
+    public void setBitJustification(int justification) {
+    }
+
+    @Override
+    public void setBitsPerWord(int bitsPerWord) {
+    }
+
+    @Override
+    public void setCsChange(boolean change) {
+    }
+
+    @Override
+    public void setDelay(int delayUs) {
+    }
+
+    @Override
+    public String getName() {
+        return "Replay";
+    }
+
+    /**
+     * Gets the time the log was recorded
+     * @return the time the recording started, in milliseconds since the epoch
+     */
+    public long getStartTime(){
+        return startTime;
+    }
+
+    /**
+     * Gets the number of records replayed so far
+     * @return the number of records
+     */
+    public synchronized long getRecordCount(){
+        return recordCount;
+    }
+
+    /**
+     * Gets the time the last replayed call was made at while recording
+     * @return the time since the recording started, in microseconds
+     */
+    public synchronized long getRecordedMicros(){
+        return elapsedMicros;
+    }
+
+    /**
+     * Checks if every record in the log was replayed
+     * @return true if the log has no more records
+     * @throws IOException if the log couldn't be read
+     */
+    public synchronized boolean isFinished() throws IOException {
+        in.mark(1);
+        int b = in.read();
+        in.reset();
+        return b < 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Reads the next record's header, checking it matches the call being made
+     * @param type the type of call
+     * @param value the call's length, or frequency for frequency changes
+     * @return true if the call failed while recording
+     */
+    private boolean nextRecord(int type, long value) throws IOException {
+        if(isFinished()){
+            throw new IllegalStateException(String.format("Record %d: log ended, %s not recorded",
+                    recordCount, describe(type, value)));
+        }
+        int recordedType = SpiLog.readByte(in);
+        elapsedMicros += SpiLog.readVarint(in);
+        long recordedValue = SpiLog.readVarint(in);
+        if((recordedType & ~SpiLog.FAILED) != type || recordedValue != (type == SpiLog.FREQUENCY ? value & 0xFFFFFFFFL : value)){
+            throw new IllegalStateException(String.format("Record %d: expected %s, replaying %s",
+                    recordCount, describe(recordedType & ~SpiLog.FAILED, recordedValue), describe(type, value)));
+        }
+        recordCount++;
+        return (recordedType & SpiLog.FAILED) != 0;
+    }
+
+    /**
+     * Reads the data sent by the recorded call, checking it matches the data being sent
+     */
+    private void compare(byte[] buffer, int length) throws IOException {
+        if(data.length < length){
+            data = new byte[length];
+        }
+        SpiLog.readFully(in, data, length);
+        for(int i = 0; i < length; i++){
+            if(data[i] != buffer[i]){
+                throw new IllegalStateException(String.format("Record %d: expected %s, replaying %s",
+                        recordCount - 1, Rc522.dataToHexString(data, 0, length).trim(),
+                        Rc522.dataToHexString(buffer, 0, length).trim()));
+            }
+        }
+    }
+
+    private static String describe(int type, long value){
+        switch(type){
+            case SpiLog.TRANSFER:
+                return "transfer of " + value + " bytes";
+            case SpiLog.WRITE:
+                return "write of " + value + " bytes";
+            case SpiLog.READ:
+                return "read of " + value + " bytes";
+            case SpiLog.FREQUENCY:
+                return "frequency of " + value + " Hz";
+            default:
+                return "record of type " + type;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.galarzaa.androidthings;
+
+import java.util.Arrays;
+
+/**
+ * A MIFARE Classic key, along with the key type it's used as.
+ *
+ * @author Allan Galarza
+ */
+public final class SectorKey {
+    private final byte keyType;
+    private final byte[] key;
+
+    /**
+     * Creates a key
+     * @param keyType {@link Rc522#AUTH_A} or {@link Rc522#AUTH_B}
+     * @param key the six byte key
+     */
+    public SectorKey(byte keyType, byte[] key){
+        if(keyType != Rc522.AUTH_A && keyType != Rc522.AUTH_B){
+            throw new IllegalArgumentException("Key type must be AUTH_A or AUTH_B");
+        }
+        if(key.length != 6){
+            throw new IllegalArgumentException("Key must be 6 bytes long");
+        }
+        this.keyType = keyType;
+        this.key = key.clone();
+    }
+
+    /**
+     * Gets the key type
+     * @return {@link Rc522#AUTH_A} or {@link Rc522#AUTH_B}
+     */
+    public byte getKeyType(){
+        return keyType;
+    }
+
+    /**
+     * Gets the key
+     * @return a copy of the six byte key
+     */
+    public byte[] getKey(){
+        return key.clone();
+    }
+
+    /**
+     * Gets the key without copying it, for use by the library
+     */
+    byte[] key(){
+        return key;
+    }
+
+    @Override
+    public boolean equals(Object o){
+        if(this == o){
+            return true;
+        }
+        if(!(o instanceof SectorKey)){
+            return false;
+        }
+        SectorKey other = (SectorKey) o;
+        return keyType == other.keyType && Arrays.equals(key, other.key);
+    }
+
+    @Override
+    public int hashCode(){
+        return 31 * keyType + Arrays.hashCode(key);
+    }
+
+    @Override
+    public String toString(){
+        return (keyType == Rc522.AUTH_A ? "A " : "B ") + Rc522.dataToHexString(key).trim();
+    }
+}
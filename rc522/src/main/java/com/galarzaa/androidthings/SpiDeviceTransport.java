@@ -0,0 +1,101 @@
+package com.galarzaa.androidthings;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.annotation.Nullable;
+
+import com.google.android.things.pio.Gpio;
+import com.google.android.things.pio.GpioCallback;
+import com.google.android.things.pio.SpiDevice;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connects to a RC522 through an Android Things SPI device, and optionally its IRQ pin.
+ *
+ * @author Allan Galarza
+ */
+public class SpiDeviceTransport implements Rc522Transport {
+    private static final String TAG = "SpiDeviceTransport";
+
+    private final SpiDevice device;
+    private Gpio irqPin;
+    private HandlerThread irqThread;
+    private final Semaphore irqSemaphore = new Semaphore(0);
+    private final GpioCallback irqCallback = new GpioCallback() {
+        @Override
+        public boolean onGpioEdge(Gpio gpio) {
+            irqSemaphore.release();
+            return true;
+        }
+    };
+
+    /**
+     * Connects to a RC522 through a SPI device, configuring its pins
+     * @param device SPI port used on the board
+     * @param resetPin Pin connected to the RST pin on the RC522, or null if it's wired high
+     * @param irqPin Pin connected to the IRQ pin on the RC522, or null to poll the interrupt
+     *               registers instead
+     * @throws IOException if the pins couldn't be configured
+     */
+    public SpiDeviceTransport(SpiDevice device, @Nullable Gpio resetPin, @Nullable Gpio irqPin) throws IOException {
+        this.device = device;
+        if(resetPin != null){
+            resetPin.setDirection(Gpio.DIRECTION_OUT_INITIALLY_HIGH);
+        }
+        if(irqPin != null){
+            // IRQ is configured as an inverted push-pull output, so it goes low on interrupts
+            this.irqPin = irqPin;
+            irqThread = new HandlerThread(TAG);
+            irqThread.start();
+            irqPin.setDirection(Gpio.DIRECTION_IN);
+            irqPin.setActiveType(Gpio.ACTIVE_HIGH);
+            irqPin.setEdgeTriggerType(Gpio.EDGE_FALLING);
+            irqPin.registerGpioCallback(new Handler(irqThread.getLooper()), irqCallback);
+        }
+    }
+
+    @Override
+    public void transfer(byte[] txBuffer, byte[] rxBuffer, int length) throws IOException {
+        device.transfer(txBuffer, rxBuffer, length);
+    }
+
+    @Override
+    public void setFrequency(int frequencyHz) throws IOException {
+        device.setFrequency(frequencyHz);
+    }
+
+    @Override
+    public boolean hasInterrupt() {
+        return irqPin != null;
+    }
+
+    @Override
+    public void clearInterrupt() {
+        irqSemaphore.drainPermits();
+    }
+
+    @Override
+    public boolean awaitInterrupt(long timeoutNanos) {
+        try {
+            return irqSemaphore.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Stops listening to the IRQ pin, if one was given
+     */
+    @Override
+    public void close() {
+        if(irqPin != null){
+            irqPin.unregisterGpioCallback(irqCallback);
+            irqThread.quitSafely();
+            irqPin = null;
+        }
+    }
+}
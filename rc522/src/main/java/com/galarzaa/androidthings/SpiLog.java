@@ -0,0 +1,151 @@
+package com.galarzaa.androidthings;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Format of the logs written by {@link RecordingSpiDevice} and read by {@link ReplaySpiDevice}.
+ * <br>
+ * A log starts with a header: the magic number, the format's version and the time the recording
+ * started, in milliseconds since the epoch. Every call to the device follows as a record:
+ * <ul>
+ * <li>The record's type, with {@link #FAILED} set if the call threw an exception</li>
+ * <li>Microseconds since the previous record, as a varint</li>
+ * <li>For transfers, reads and writes: the number of bytes as a varint, followed by the sent bytes
+ * for transfers and writes, and by the received bytes for successful transfers and reads</li>
+ * <li>For frequency changes: the frequency in Hz, as a varint</li>
+ * </ul>
+ * Varints are stored 7 bits per byte, least significant group first, with the high bit set on
+ * every byte but the last.
+ *
+ * @author Allan Galarza
+ */
+final class SpiLog {
+    /* "RCSL" */
+    static final int MAGIC = 0x5243534C;
+    static final int VERSION = 1;
+    /* Magic number, version and start time */
+    static final int HEADER_LENGTH = 13;
+
+    static final int TRANSFER = 1;
+    static final int WRITE = 2;
+    static final int READ = 3;
+    static final int FREQUENCY = 4;
+    /* Flag added to the type of a call that threw an exception */
+    static final int FAILED = 0x80;
+
+    /* Longest encoding of a 64-bit varint */
+    static final int MAX_VARINT_LENGTH = 10;
+
+    private SpiLog(){
+    }
+
+    /**
+     * Writes the header of a log
+     * @param buffer the array to write to, with room for {@link #HEADER_LENGTH} bytes
+     * @param startTime the time the recording started, in milliseconds since the epoch
+     * @return the number of bytes written
+     */
+    static int writeHeader(byte[] buffer, long startTime){
+        writeInt(buffer, 0, MAGIC);
+        buffer[4] = VERSION;
+        writeInt(buffer, 5, (int) (startTime >>> 32));
+        writeInt(buffer, 9, (int) startTime);
+        return HEADER_LENGTH;
+    }
+
+    /**
+     * Reads and validates the header of a log
+     * @param in the stream to read from
+     * @return the time the recording started, in milliseconds since the epoch
+     * @throws IOException if the stream doesn't start with a valid header
+     */
+    static long readHeader(InputStream in) throws IOException {
+        if(readInt(in) != MAGIC){
+            throw new IOException("Not a SPI log");
+        }
+        int version = readByte(in);
+        if(version != VERSION){
+            throw new IOException("Unsupported SPI log version: " + version);
+        }
+        return (long) readInt(in) << 32 | readInt(in) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Writes an unsigned varint
+     * @param buffer the array to write to
+     * @param position the index to write at
+     * @param value the value, taken as unsigned
+     * @return the index after the last byte written
+     */
+    static int writeVarint(byte[] buffer, int position, long value){
+        while((value & ~0x7FL) != 0){
+            buffer[position++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    /**
+     * Reads an unsigned varint
+     * @param in the stream to read from
+     * @return the value
+     * @throws IOException if the stream ends or the varint is too long
+     */
+    static long readVarint(InputStream in) throws IOException {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7){
+            int b = readByte(in);
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0){
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in SPI log");
+    }
+
+    /**
+     * Reads a single byte
+     * @param in the stream to read from
+     * @return the byte, from 0 to 255
+     * @throws EOFException if the stream ended
+     */
+    static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if(b < 0){
+            throw new EOFException("Unexpected end of SPI log");
+        }
+        return b;
+    }
+
+    /**
+     * Reads an exact number of bytes
+     * @param in the stream to read from
+     * @param buffer the array to store the bytes to
+     * @param length the number of bytes to read
+     * @throws EOFException if the stream ended
+     */
+    static void readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int read = 0;
+        while(read < length){
+            int n = in.read(buffer, read, length - read);
+            if(n < 0){
+                throw new EOFException("Unexpected end of SPI log");
+            }
+            read += n;
+        }
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value){
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(InputStream in) throws IOException {
+        return readByte(in) << 24 | readByte(in) << 16 | readByte(in) << 8 | readByte(in);
+    }
+}
@@ -0,0 +1,92 @@
+package com.galarzaa.androidthings;
+
+import java.util.Arrays;
+
+/**
+ * Identification of an ISO/IEC 14443 type A tag, as obtained while activating it.
+ *
+ * @author Allan Galarza
+ */
+public final class TagInfo {
+    private final byte[] uid;
+    private final int atqa;
+    private final byte sak;
+
+    TagInfo(byte[] uid, int atqa, byte sak){
+        this.uid = uid;
+        this.atqa = atqa;
+        this.sak = sak;
+    }
+
+    /**
+     * Gets the tag's complete UID
+     * @return a copy of the UID, 4, 7 or 10 bytes long
+     */
+    public byte[] getUid(){
+        return uid.clone();
+    }
+
+    /**
+     * Gets the length of the tag's UID
+     * @return 4, 7 or 10
+     */
+    public int getUidLength(){
+        return uid.length;
+    }
+
+    /**
+     * Gets the tag's ATQA (Answer to request)
+     * @return the ATQA, with its first received byte as the least significant one
+     */
+    public int getAtqa(){
+        return atqa;
+    }
+
+    /**
+     * Gets the tag's SAK (Select acknowledge), which identifies its type.
+     * For example, 0x08 for MIFARE Classic 1K and 0x00 for MIFARE Ultralight
+     * @return the SAK byte
+     */
+    public byte getSak(){
+        return sak;
+    }
+
+    /**
+     * Checks if the tag has the given UID
+     * @param uid the UID to compare with
+     * @return true if the UIDs are equal
+     */
+    public boolean hasUid(byte[] uid){
+        return Arrays.equals(this.uid, uid);
+    }
+
+    /**
+     * Returns a string representation of the tag's UID, in hexadecimal
+     * @return A string representing the tag's UID
+     */
+    public String getUidString(){
+        return Rc522.dataToHexString(uid).trim();
+    }
+
+    @Override
+    public boolean equals(Object o){
+        if(this == o){
+            return true;
+        }
+        if(!(o instanceof TagInfo)){
+            return false;
+        }
+        TagInfo other = (TagInfo) o;
+        return atqa == other.atqa && sak == other.sak && Arrays.equals(uid, other.uid);
+    }
+
+    @Override
+    public int hashCode(){
+        return Arrays.hashCode(uid);
+    }
+
+    @Override
+    public String toString(){
+        return String.format("TagInfo{uid=%s, atqa=%04X, sak=%02X}", getUidString(), atqa, sak & 0xFF);
+    }
+}
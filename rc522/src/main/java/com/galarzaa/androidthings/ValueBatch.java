@@ -0,0 +1,139 @@
+package com.galarzaa.androidthings;
+
+/**
+ * Queues value block operations, so they can be applied to a MIFARE Classic tag in one call,
+ * e.g. debiting a balance and updating its backup, or moving value between two blocks.
+ * <br>
+ * Every operation is an increment, decrement or restore followed by a transfer of the result, so
+ * a block is only modified if its whole operation succeeds. All the blocks must be in the sector
+ * the tag is authenticated for. Operations are applied in the order they were added, stopping at
+ * the first failure, as the tag halts after a failed command.
+ * <br>
+ * Batches are obtained with {@link Rc522#newValueBatch()} and can be reused after calling
+ * {@link #clear()}.
+ *
+ * @author Allan Galarza
+ */
+public class ValueBatch {
+    private static final int DEFAULT_CAPACITY = 4;
+
+    private final Rc522 rc522;
+    private byte[] commands = new byte[DEFAULT_CAPACITY];
+    private byte[] addresses = new byte[DEFAULT_CAPACITY];
+    private int[] operands = new int[DEFAULT_CAPACITY];
+    private byte[] destinations = new byte[DEFAULT_CAPACITY];
+    private int size;
+    private int completed;
+
+    ValueBatch(Rc522 rc522){
+        this.rc522 = rc522;
+    }
+
+    /**
+     * Queues an increment of a value block
+     * @param address the block's address
+     * @param operand the sum's operand
+     * @param destination the address of the block the result is written to
+     * @return this batch, to allow chaining calls
+     */
+    public ValueBatch increase(byte address, int operand, byte destination){
+        add(Rc522.COMMAND_INCREMENT, address, operand, destination);
+        return this;
+    }
+
+    /**
+     * Queues a decrement of a value block
+     * @param address the block's address
+     * @param operand the substraction's operand
+     * @param destination the address of the block the result is written to
+     * @return this batch, to allow chaining calls
+     */
+    public ValueBatch decrease(byte address, int operand, byte destination){
+        add(Rc522.COMMAND_DECREMENT, address, operand, destination);
+        return this;
+    }
+
+    /**
+     * Queues a copy of a value block to another block
+     * @param address the address of the block to copy
+     * @param destination the address of the block to write to
+     * @return this batch, to allow chaining calls
+     */
+    public ValueBatch restore(byte address, byte destination){
+        add(Rc522.COMMAND_RESTORE, address, 0, destination);
+        return this;
+    }
+
+    /**
+     * Gets the number of queued operations
+     * @return the number of operations
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Removes all the queued operations, so the batch can be reused
+     */
+    public void clear(){
+        size = 0;
+        completed = 0;
+    }
+
+    /**
+     * Applies all the queued operations to the selected tag, in the order they were added.
+     * The operations stay queued, so the same batch can be committed again.
+     * @return true if all operations were successful
+     */
+    public boolean commit(){
+        rc522.getLock().lock();
+        try {
+            completed = 0;
+            while(completed < size){
+                if(!rc522.valueOperation(commands[completed], addresses[completed], operands[completed], destinations[completed])){
+                    return false;
+                }
+                completed++;
+            }
+            return true;
+        } finally {
+            rc522.getLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the number of operations applied by the last commit. If it failed, the operation at
+     * this index is the one that failed, and the ones after it weren't attempted
+     * @return the number of successful operations
+     */
+    public int getCompletedCount(){
+        return completed;
+    }
+
+    private void add(byte command, byte address, int operand, byte destination){
+        if(size == commands.length){
+            grow();
+        }
+        commands[size] = command;
+        addresses[size] = address;
+        operands[size] = operand;
+        destinations[size] = destination;
+        size++;
+    }
+
+    private void grow(){
+        int capacity = commands.length * 2;
+        byte[] newCommands = new byte[capacity];
+        byte[] newAddresses = new byte[capacity];
+        int[] newOperands = new int[capacity];
+        byte[] newDestinations = new byte[capacity];
+        System.arraycopy(commands, 0, newCommands, 0, size);
+        System.arraycopy(addresses, 0, newAddresses, 0, size);
+        System.arraycopy(operands, 0, newOperands, 0, size);
+        System.arraycopy(destinations, 0, newDestinations, 0, size);
+        commands = newCommands;
+        addresses = newAddresses;
+        operands = newOperands;
+        destinations = newDestinations;
+    }
+}
@@ -0,0 +1,36 @@
+package com.galarzaa.androidthings.simulator;
+
+/**
+ * Bitwise CRC_A, independent from the driver's table driven implementation
+ *
+ * @author Allan Galarza
+ */
+final class Crc {
+    private Crc(){
+    }
+
+    static int calculate(byte[] data, int offset, int length){
+        int crc = 0x6363;
+        for(int i = offset; i < offset + length; i++){
+            crc ^= data[i] & 0xFF;
+            for(int j = 0; j < 8; j++){
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0x8408 : crc >>> 1;
+            }
+        }
+        return crc;
+    }
+
+    static void append(byte[] data, int length){
+        int crc = calculate(data, 0, length);
+        data[length] = (byte) crc;
+        data[length + 1] = (byte) (crc >> 8);
+    }
+
+    static boolean check(byte[] data, int length){
+        if(length < 3){
+            return false;
+        }
+        int crc = calculate(data, 0, length - 2);
+        return data[length - 2] == (byte) crc && data[length - 1] == (byte) (crc >> 8);
+    }
+}
@@ -0,0 +1,199 @@
+package com.galarzaa.androidthings.simulator;
+
+/**
+ * A tag implementing the ISO/IEC 14443-3 type A activation sequence: REQA/WUPA, bit oriented
+ * anticollision over up to three cascade levels, SELECT and HLTA.
+ *
+ * @author Allan Galarza
+ */
+public abstract class Iso14443Card extends SimulatedCard {
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_READY = 1;
+    private static final int STATE_ACTIVE = 2;
+    private static final int STATE_HALT = 3;
+
+    private final byte[] uid;
+    private final int atqa;
+    private final byte sak;
+    private final byte[][] cascadeLevels;
+    private int state = STATE_IDLE;
+    private boolean halted = false;
+    private int level;
+
+    /**
+     * @param uid the card's UID, 4, 7 or 10 bytes long
+     * @param atqa the answer to request, its low byte is sent first
+     * @param sak the select acknowledge sent at the last cascade level
+     */
+    protected Iso14443Card(byte[] uid, int atqa, byte sak){
+        if(uid.length != 4 && uid.length != 7 && uid.length != 10){
+            throw new IllegalArgumentException("UID must be 4, 7 or 10 bytes long");
+        }
+        this.uid = uid.clone();
+        this.atqa = atqa;
+        this.sak = sak;
+        int levels = uid.length == 4 ? 1 : uid.length == 7 ? 2 : 3;
+        cascadeLevels = new byte[levels][5];
+        int offset = 0;
+        for(int i = 0; i < levels; i++){
+            byte[] cl = cascadeLevels[i];
+            int j = 0;
+            if(i < levels - 1){
+                cl[j++] = (byte) 0x88;
+            }
+            while(j < 4){
+                cl[j++] = uid[offset++];
+            }
+            cl[4] = (byte) (cl[0] ^ cl[1] ^ cl[2] ^ cl[3]);
+        }
+    }
+
+    /**
+     * @return a copy of the card's UID
+     */
+    public byte[] getUid(){
+        return uid.clone();
+    }
+
+    /**
+     * Checks if the last four bytes of the card's UID, the ones used by MIFARE authentication,
+     * match the given bytes
+     */
+    boolean matchesUid(byte[] data, int offset){
+        for(int i = 0; i < 4; i++){
+            if(uid[uid.length - 4 + i] != data[offset + i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the card has been selected and can receive memory commands
+     */
+    protected boolean isActive(){
+        return state == STATE_ACTIVE;
+    }
+
+    /**
+     * Sends the card to the HALT state, as it happens after failed authentications
+     */
+    protected void halt(){
+        state = STATE_HALT;
+        halted = true;
+        onDeselect();
+    }
+
+    /**
+     * Sends the card back to IDLE, or to HALT if it had been halted before being woken up
+     */
+    protected void idle(){
+        state = halted ? STATE_HALT : STATE_IDLE;
+        onDeselect();
+    }
+
+    @Override
+    protected void powerOff(){
+        state = STATE_IDLE;
+        halted = false;
+        onDeselect();
+    }
+
+    /**
+     * Called when the card leaves the ACTIVE state
+     */
+    protected void onDeselect(){
+    }
+
+    @Override
+    protected final int transceive(byte[] frame, int bits, byte[] response){
+        if(bits == 7){
+            int command = frame[0] & 0x7F;
+            if(command == 0x26 && state == STATE_IDLE || command == 0x52 && (state == STATE_IDLE || state == STATE_HALT)){
+                state = STATE_READY;
+                level = 0;
+                response[0] = (byte) atqa;
+                response[1] = (byte) (atqa >> 8);
+                return 16;
+            }
+            if(state == STATE_READY || state == STATE_ACTIVE){
+                idle();
+            }
+            return -1;
+        }
+        if(state == STATE_READY){
+            return anticollision(frame, bits, response);
+        }
+        if(state == STATE_ACTIVE){
+            if(bits == 32 && frame[0] == 0x50 && frame[1] == 0 && Crc.check(frame, 4)){
+                halt();
+                return -1;
+            }
+            return transceiveActive(frame, bits, response);
+        }
+        return -1;
+    }
+
+    private int anticollision(byte[] frame, int bits, byte[] response){
+        int selectCode = 0x93 + 2 * level;
+        if(bits < 16 || (frame[0] & 0xFF) != selectCode){
+            idle();
+            return -1;
+        }
+        byte[] cl = cascadeLevels[level];
+        int nvb = frame[1] & 0xFF;
+        if(nvb == 0x70){
+            if(bits != 72 || !Crc.check(frame, 9)){
+                return -1;
+            }
+            for(int i = 0; i < 5; i++){
+                if(frame[2 + i] != cl[i]){
+                    return -1;
+                }
+            }
+            boolean last = level == cascadeLevels.length - 1;
+            response[0] = last ? sak : 0x04;
+            Crc.append(response, 1);
+            if(last){
+                state = STATE_ACTIVE;
+            }else{
+                level++;
+            }
+            return 24;
+        }
+        int knownBits = ((nvb >> 4) - 2) * 8 + (nvb & 0x0F);
+        if(knownBits < 0 || knownBits > 40 || bits != 16 + knownBits){
+            return -1;
+        }
+        for(int i = 0; i < knownBits; i++){
+            if(getBit(frame, 16 + i) != getBit(cl, i)){
+                return -1;
+            }
+        }
+        for(int i = 0; i < (40 - knownBits + 7) / 8; i++){
+            response[i] = 0;
+        }
+        for(int i = knownBits; i < 40; i++){
+            setBit(response, i - knownBits, getBit(cl, i));
+        }
+        return 40 - knownBits;
+    }
+
+    /**
+     * Handles a frame received while the card is selected
+     * @return the number of bits in the response, or -1 if the card doesn't answer
+     */
+    protected abstract int transceiveActive(byte[] frame, int bits, byte[] response);
+
+    static int getBit(byte[] data, int bit){
+        return (data[bit >> 3] >> (bit & 7)) & 1;
+    }
+
+    static void setBit(byte[] data, int bit, int value){
+        if(value != 0){
+            data[bit >> 3] |= 1 << (bit & 7);
+        }else{
+            data[bit >> 3] &= ~(1 << (bit & 7));
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.galarzaa.androidthings.simulator;
+
+/**
+ * A tag implementing ISO/IEC 14443-4: it answers RATS with an ATS, accepts PPS requests switching
+ * to the bit rates it supports, exchanges APDUs in chained I-blocks, and leaves the protocol on
+ * S(DESELECT). The ATS announces a 256 byte frame size, a frame waiting time of about 77 ms and
+ * support for CID.
+ * <br>
+ * APDUs are handled by {@link #processApdu(byte[], int, byte[])}, which answers every command with
+ * "instruction not supported" unless overridden.
+ *
+ * @author Allan Galarza
+ */
+public class IsoDepCard extends Iso14443Card {
+    private static final int RATS = 0xE0;
+    private static final int PPS = 0xD0;
+    private static final int DESELECT = 0xC2;
+    private static final int WTX = 0xF2;
+    /* Frame sizes for each FSDI value */
+    private static final int[] FRAME_SIZES = {16, 24, 32, 40, 48, 64, 96, 128, 256};
+
+    /* Divisors supported in each direction, as announced in TA(1) */
+    private int bitRates = 0x77;
+    private boolean acceptsPps = true;
+
+    private boolean protocolActive;
+    private boolean ppsAllowed;
+    private int receiveBitRate;
+    private int sendBitRate;
+    /* Largest frame the reader accepts, from RATS */
+    private int readerFrameSize;
+    private int blockNumber;
+    private final byte[] command = new byte[4096];
+    private int commandLength;
+    private final byte[] answer = new byte[4096];
+    private int answerLength;
+    private int answerOffset;
+    /* Last block sent, repeated when the reader asks for it */
+    private final byte[] lastBlock = new byte[258];
+    private int lastBlockBits;
+    private int extensions;
+    private int pendingExtensions;
+
+    /**
+     * Creates a tag supporting every bit rate up to 848 kbit/s
+     * @param uid the card's UID, 4 or 7 bytes long
+     */
+    public IsoDepCard(byte[] uid){
+        super(uid, uid.length == 4 ? 0x0004 : 0x0344, (byte) 0x20);
+    }
+
+    /**
+     * Sets the bit rates announced in the ATS' TA(1) byte
+     * @param ta bit 1 to 3 for 212, 424 and 848 kbit/s towards the card, bits 5 to 7 for the same
+     *           rates towards the reader
+     */
+    public void setBitRates(int ta){
+        bitRates = ta & 0x77;
+    }
+
+    /**
+     * Makes the card ignore PPS requests, as some cards do despite announcing higher bit rates
+     */
+    public void setAcceptsPps(boolean acceptsPps){
+        this.acceptsPps = acceptsPps;
+    }
+
+    /**
+     * Makes the card request waiting time extensions before answering each APDU
+     * @param extensions the number of S(WTX) requests sent before each answer
+     */
+    public void setWaitingTimeExtensions(int extensions){
+        this.extensions = extensions;
+    }
+
+    /**
+     * @return true if the card answered RATS and wasn't deselected since
+     */
+    public boolean isProtocolActive(){
+        return protocolActive;
+    }
+
+    @Override
+    protected int getReceiveBitRate(){
+        return receiveBitRate;
+    }
+
+    @Override
+    protected int getSendBitRate(){
+        return sendBitRate;
+    }
+
+    @Override
+    protected void onDeselect(){
+        protocolActive = false;
+        ppsAllowed = false;
+        receiveBitRate = 0;
+        sendBitRate = 0;
+        commandLength = 0;
+        lastBlockBits = 0;
+    }
+
+    @Override
+    protected int transceiveActive(byte[] frame, int bits, byte[] response){
+        if(bits < 24 || bits % 8 != 0 || !Crc.check(frame, bits / 8)){
+            return -1;
+        }
+        int length = bits / 8 - 2;
+        int command = frame[0] & 0xFF;
+        if(!protocolActive){
+            if(command != RATS || length != 2){
+                return -1;
+            }
+            protocolActive = true;
+            ppsAllowed = true;
+            readerFrameSize = FRAME_SIZES[Math.min((frame[1] >> 4) & 0x0F, FRAME_SIZES.length - 1)];
+            blockNumber = 1;
+            commandLength = 0;
+            answerLength = 0;
+            answerOffset = 0;
+            lastBlockBits = 0;
+            // TA(1), TB(1) and TC(1) follow, with FSCI 8 (256 bytes)
+            response[0] = 5;
+            response[1] = 0x78;
+            response[2] = (byte) bitRates;
+            // FWI 8 and SFGI 0
+            response[3] = (byte) 0x80;
+            response[4] = 0x02;
+            Crc.append(response, 5);
+            return 7 * 8;
+        }
+        boolean pps = ppsAllowed;
+        ppsAllowed = false;
+        if((command & 0xF0) == PPS && length == 3 && pps){
+            if(!acceptsPps || frame[1] != 0x11){
+                return -1;
+            }
+            int dri = frame[2] & 0x03;
+            int dsi = (frame[2] >> 2) & 0x03;
+            if(dri != 0 && (bitRates & 1 << (dri - 1)) == 0 || dsi != 0 && (bitRates & 0x10 << (dsi - 1)) == 0){
+                return -1;
+            }
+            receiveBitRate = dri;
+            sendBitRate = dsi;
+            response[0] = frame[0];
+            Crc.append(response, 1);
+            return 3 * 8;
+        }
+        if(command == DESELECT && length == 1){
+            response[0] = frame[0];
+            Crc.append(response, 1);
+            halt();
+            return 3 * 8;
+        }
+        return transceiveBlock(frame, length, response);
+    }
+
+    /**
+     * Handles an ISO/IEC 14443-4 block other than PPS and S(DESELECT), following the rules in
+     * section 7.5 of ISO/IEC 14443-4
+     * @param frame the block, followed by its CRC
+     * @param length the block's length, without its CRC
+     * @param response the array to store the response to, followed by its CRC
+     * @return the number of bits in the response, including its CRC, or -1 if the card doesn't answer
+     */
+    protected int transceiveBlock(byte[] frame, int length, byte[] response){
+        int pcb = frame[0] & 0xFF;
+        int header = 1 + ((pcb & 0x08) != 0 ? 1 : 0) + ((pcb & 0x04) != 0 ? 1 : 0);
+        if((pcb & 0xE2) == 0x02){
+            // I-block
+            blockNumber = pcb & 0x01;
+            int information = length - header;
+            if(commandLength + information > command.length){
+                return -1;
+            }
+            System.arraycopy(frame, header, command, commandLength, information);
+            commandLength += information;
+            if((pcb & 0x10) != 0){
+                return sendBlock(response, 0xA2 | blockNumber, null, 0, 0);
+            }
+            answerLength = processApdu(command, commandLength, answer);
+            answerOffset = 0;
+            commandLength = 0;
+            pendingExtensions = extensions;
+            return sendAnswer(response);
+        }
+        if((pcb & 0xF6) == 0xA2){
+            // R(ACK), for the next chained block if the reader toggled its block number
+            if((pcb & 0x01) != blockNumber && answerOffset < answerLength){
+                blockNumber = pcb & 0x01;
+                return sendAnswer(response);
+            }
+            return repeatBlock(response);
+        }
+        if((pcb & 0xF6) == 0xB2){
+            // R(NAK), the reader didn't receive the last block
+            if((pcb & 0x01) == blockNumber){
+                return repeatBlock(response);
+            }
+            return sendBlock(response, 0xA2 | blockNumber, null, 0, 0);
+        }
+        if((pcb & 0xF7) == WTX && length == header + 1){
+            return sendAnswer(response);
+        }
+        return -1;
+    }
+
+    /**
+     * Processes a command APDU
+     * @param command the command
+     * @param length the command's length
+     * @param response the array to store the response to, up to 4096 bytes
+     * @return the response's length, including its status word
+     */
+    protected int processApdu(byte[] command, int length, byte[] response){
+        response[0] = 0x6D;
+        response[1] = 0x00;
+        return 2;
+    }
+
+    /**
+     * Sends the next part of the current answer, or requests a waiting time extension first
+     */
+    private int sendAnswer(byte[] response){
+        if(pendingExtensions > 0){
+            pendingExtensions--;
+            lastBlock[0] = 0x01;
+            return sendBlock(response, WTX, lastBlock, 0, 1);
+        }
+        int chunk = Math.min(readerFrameSize - 3, answerLength - answerOffset);
+        boolean chaining = answerOffset + chunk < answerLength;
+        int offset = answerOffset;
+        answerOffset += chunk;
+        return sendBlock(response, 0x02 | blockNumber | (chaining ? 0x10 : 0), answer, offset, chunk);
+    }
+
+    private int sendBlock(byte[] response, int pcb, byte[] data, int offset, int length){
+        response[0] = (byte) pcb;
+        if(length > 0){
+            System.arraycopy(data, offset, response, 1, length);
+        }
+        Crc.append(response, length + 1);
+        lastBlockBits = (length + 3) * 8;
+        System.arraycopy(response, 0, lastBlock, 0, length + 3);
+        return lastBlockBits;
+    }
+
+    private int repeatBlock(byte[] response){
+        if(lastBlockBits == 0){
+            return -1;
+        }
+        System.arraycopy(lastBlock, 0, response, 0, lastBlockBits / 8);
+        return lastBlockBits;
+    }
+}
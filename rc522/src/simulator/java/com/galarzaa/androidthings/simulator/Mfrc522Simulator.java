@@ -0,0 +1,712 @@
+package com.galarzaa.androidthings.simulator;
+
+import com.galarzaa.androidthings.Rc522Transport;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-memory model of the MFRC522's register file, FIFO, timer and command set, answering SPI
+ * transactions like the real chip, so the driver can run without the hardware:
+ * <pre>{@code
+ * Mfrc522Simulator simulator = new Mfrc522Simulator();
+ * simulator.addCard(new MifareClassicCard(new byte[]{0x01, 0x02, 0x03, 0x04}, false));
+ * Rc522 rc522 = new Rc522(simulator);
+ * }</pre>
+ * Frames are sent and received in simulated time: the FIFO is emptied at the programmed bit rate
+ * while a frame is sent, so it can be refilled, and filled while the answer arrives, raising the
+ * water level alerts. Reading ComIrqReg skips ahead to the next interrupt enabled in ComIEnReg, as
+ * if the host waited for it, so a command completes on the first poll. With the IRQ pin connected,
+ * see {@link #setInterruptPin(boolean)}, the time runs while the driver waits for the pin instead.
+ * If no tag answers, the timer
+ * expires if it's started automatically (TAuto in TModeReg), as the driver configures it. Other
+ * commands complete as soon as they are started.
+ * <br>
+ * Besides counting SPI traffic, the simulator estimates the time the real hardware would spend
+ * on the bus and on the air, see {@link #getElapsedMicros()}, so protocol changes can be compared
+ * without it.
+ *
+ * @author Allan Galarza
+ */
+public class Mfrc522Simulator implements Rc522Transport {
+    private static final int COMMAND = 0x01;
+    private static final int COM_IEN = 0x02;
+    private static final int DIV_IEN = 0x03;
+    private static final int COM_IRQ = 0x04;
+    private static final int DIV_IRQ = 0x05;
+    private static final int ERROR = 0x06;
+    private static final int STATUS_2 = 0x08;
+    private static final int FIFO_DATA = 0x09;
+    private static final int FIFO_LEVEL = 0x0A;
+    private static final int WATER_LEVEL = 0x0B;
+    private static final int CONTROL = 0x0C;
+    private static final int BIT_FRAMING = 0x0D;
+    private static final int COLL = 0x0E;
+    private static final int TX_MODE = 0x12;
+    private static final int RX_MODE = 0x13;
+    private static final int TX_CONTROL = 0x14;
+    private static final int CRC_RESULT_HIGH = 0x21;
+    private static final int CRC_RESULT_LOW = 0x22;
+    private static final int TIMER_MODE = 0x2A;
+    private static final int TIMER_PRESCALER = 0x2B;
+    private static final int TIMER_RELOAD_HIGH = 0x2C;
+    private static final int TIMER_RELOAD_LOW = 0x2D;
+    private static final int TIMER_COUNTER_HIGH = 0x2E;
+    private static final int TIMER_COUNTER_LOW = 0x2F;
+    private static final int VERSION = 0x37;
+
+    private static final int FIFO_SIZE = 64;
+
+    /* Carrier frequency, 13.56 MHz */
+    private static final double CARRIER_HZ = 13.56e6;
+    /* Duration of a bit at 106 kbit/s, 128 carrier cycles */
+    private static final double BIT_NANOS = 128 * 1e9 / CARRIER_HZ;
+    /* Frame delay time between the reader's frame and the tag's answer, see ISO/IEC 14443-3 6.2.1.1 */
+    private static final double FRAME_DELAY_NANOS = 1236 * 1e9 / CARRIER_HZ;
+    /* Bits exchanged by the three passes of a MIFARE authentication, including parity bits */
+    private static final int AUTHENTICATION_BITS = (6 + 4 + 8 + 4) * 9;
+
+    private final byte[] registers = new byte[64];
+    private final byte[] fifo = new byte[FIFO_SIZE];
+    private int fifoStart;
+    private int fifoLength;
+
+    private final List<SimulatedCard> field = new ArrayList<>();
+    private final byte[] frame = new byte[512];
+    private final byte[] response = new byte[512];
+    private final byte[] merged = new byte[512];
+    private final byte[] key = new byte[6];
+
+    /* Frame being sent by Transceive, its bytes are taken from the FIFO as they go on air */
+    private boolean sending;
+    private int frameLength;
+    private double sendNanos;
+    private double sendByteNanos;
+    /* Answer being received, its bytes are moved to the FIFO as they arrive */
+    private boolean receiving;
+    private int answerLength;
+    private int answerIndex;
+    private int answerLastBits;
+    private double receiveNanos;
+    private double receiveByteNanos;
+    private boolean timerRunning;
+    private double timerNanos;
+    /* IRQ pin, an edge is signaled when an enabled interrupt is raised while none was */
+    private boolean interruptPin;
+    private boolean irqAsserted;
+    private boolean irqEdge;
+
+    private long transfers;
+    private long bytes;
+    private int frequency = 1000000;
+    private int maxFrequency = Integer.MAX_VALUE;
+    private int maxBitRate = 3;
+    private double elapsedNanos;
+
+    /**
+     * Creates a simulator with an empty field, with its registers at their reset values
+     */
+    public Mfrc522Simulator(){
+        reset();
+    }
+
+    /**
+     * Places a card in the reader's field
+     */
+    public synchronized void addCard(SimulatedCard card){
+        field.add(card);
+    }
+
+    /**
+     * Takes a card out of the reader's field
+     */
+    public synchronized void removeCard(SimulatedCard card){
+        if(field.remove(card)){
+            card.powerOff();
+        }
+    }
+
+    /**
+     * Sends every card in the field back to its idle state, as if they had been taken out of the
+     * field and put back, without any SPI traffic
+     */
+    public synchronized void resetCards(){
+        for(SimulatedCard card : field){
+            card.powerOff();
+        }
+    }
+
+    /**
+     * Gets the number of SPI transactions handled since the counters were reset
+     * @return the number of transactions
+     */
+    public synchronized long getTransferCount(){
+        return transfers;
+    }
+
+    /**
+     * Gets the number of bytes exchanged over SPI since the counters were reset
+     * @return the number of bytes
+     */
+    public synchronized long getByteCount(){
+        return bytes;
+    }
+
+    /**
+     * Gets an estimate of the time the real hardware would have spent since the counters were
+     * reset: SPI transactions at the current frequency, frames exchanged with the tags at the
+     * programmed bit rates, and expired timers. The time spent by the host between transactions isn't
+     * included
+     * @return the estimated time, in microseconds
+     */
+    public synchronized long getElapsedMicros(){
+        return (long) (elapsedNanos / 1000);
+    }
+
+    /**
+     * Gets the SPI clock frequency last set by the driver
+     * @return the frequency, in Hz
+     */
+    public synchronized int getFrequency(){
+        return frequency;
+    }
+
+    /**
+     * Sets the highest SPI clock frequency the simulated wiring supports. Above it, every byte
+     * read from the RC522 arrives shifted by one bit, as when the host samples MISO too early
+     * @param frequencyHz the frequency, in Hz
+     */
+    public synchronized void setMaxFrequency(int frequencyHz){
+        maxFrequency = frequencyHz;
+    }
+
+    /**
+     * Sets the highest bit rate the simulated antenna receives reliably. Answers at higher bit
+     * rates are received with parity errors
+     * @param kbps the bit rate, 106, 212, 424 or 848 kbit/s
+     */
+    public synchronized void setMaxBitRate(int kbps){
+        maxBitRate = 31 - Integer.numberOfLeadingZeros(kbps / 106);
+    }
+
+    /**
+     * Connects the simulated IRQ pin, so the driver waits for interrupts instead of polling the
+     * interrupt registers. Reading ComIrqReg then returns its current value, and
+     * {@link #awaitInterrupt(long)} lets the simulated time run until an interrupt enabled in
+     * ComIEnReg or DivIEnReg is raised. Must be set before the driver is created
+     * @param connected true to connect the pin
+     */
+    public synchronized void setInterruptPin(boolean connected){
+        interruptPin = connected;
+        irqEdge = false;
+        updateIrqLine();
+    }
+
+    /**
+     * Resets the SPI transaction, byte and time counters
+     */
+    public synchronized void resetCounters(){
+        transfers = 0;
+        bytes = 0;
+        elapsedNanos = 0;
+    }
+
+    /**
+     * Gets a register's current value, without the side effects of reading it over SPI
+     * @param address the register's address
+     * @return the register's value
+     */
+    public synchronized byte peekRegister(int address){
+        if(address == FIFO_LEVEL){
+            return (byte) fifoLength;
+        }
+        return registers[address];
+    }
+
+    private void reset(){
+        for(int i = 0; i < registers.length; i++){
+            registers[i] = 0;
+        }
+        registers[COMMAND] = 0x20;
+        registers[COM_IEN] = (byte) 0x80;
+        registers[COM_IRQ] = 0x14;
+        registers[0x0B] = 0x08;
+        registers[CONTROL] = 0x10;
+        registers[COLL] = (byte) 0x80;
+        registers[0x11] = 0x3F;
+        registers[TX_CONTROL] = (byte) 0x80;
+        registers[0x18] = (byte) 0x84;
+        registers[0x19] = 0x4D;
+        registers[0x24] = 0x26;
+        registers[0x26] = 0x48;
+        registers[0x27] = (byte) 0x88;
+        registers[0x28] = 0x20;
+        registers[0x29] = 0x20;
+        registers[VERSION] = (byte) 0x92;
+        fifoStart = 0;
+        fifoLength = 0;
+        stopTransceive();
+        setField(false);
+    }
+
+    @Override
+    public synchronized void transfer(byte[] txBuffer, byte[] rxBuffer, int length) {
+        transfers++;
+        bytes += length;
+        double byteNanos = 8 * 1e9 / frequency;
+        elapsedNanos += byteNanos;
+        if(length == 0){
+            return;
+        }
+        rxBuffer[0] = 0;
+        if((txBuffer[0] & 0x80) != 0){
+            for(int i = 1; i < length; i++){
+                // Every byte is handled at the time it's clocked, as the FIFO may change meanwhile
+                elapsedNanos += byteNanos;
+                advance();
+                rxBuffer[i] = read((txBuffer[i - 1] >> 1) & 0x3F);
+                updateIrqLine();
+            }
+            if(frequency > maxFrequency){
+                for(int i = length - 1; i > 0; i--){
+                    rxBuffer[i] = (byte) ((rxBuffer[i] & 0xFF) >> 1 | (rxBuffer[i - 1] & 0x01) << 7);
+                }
+            }
+        }else{
+            int address = (txBuffer[0] >> 1) & 0x3F;
+            for(int i = 1; i < length; i++){
+                elapsedNanos += byteNanos;
+                advance();
+                rxBuffer[i] = 0;
+                write(address, txBuffer[i]);
+                updateIrqLine();
+            }
+        }
+    }
+
+    private byte read(int address){
+        switch(address){
+            case FIFO_DATA:
+                if(fifoLength == 0){
+                    return 0;
+                }
+                byte value = fifo[fifoStart];
+                fifoStart = (fifoStart + 1) % FIFO_SIZE;
+                fifoLength--;
+                updateAlerts();
+                return value;
+            case FIFO_LEVEL:
+                return (byte) fifoLength;
+            case COM_IRQ:
+                // Without the IRQ pin, the host would poll until an enabled interrupt is raised
+                int enabled = registers[COM_IEN] & 0x7F;
+                while(!interruptPin && (registers[COM_IRQ] & enabled) == 0 && skipToNextEvent()){
+                    advance();
+                }
+                return registers[COM_IRQ];
+            default:
+                return registers[address];
+        }
+    }
+
+    private void write(int address, byte value){
+        switch(address){
+            case COMMAND:
+                registers[COMMAND] = (byte) ((registers[COMMAND] & 0x20) | (value & 0x3F));
+                startCommand(value & 0x0F);
+                break;
+            case COM_IRQ:
+            case DIV_IRQ:
+                if((value & 0x80) != 0){
+                    registers[address] |= value & 0x7F;
+                }else{
+                    registers[address] &= ~(value & 0x7F);
+                }
+                // The alerts are raised again if the FIFO is still past its water level
+                updateAlerts();
+                break;
+            case FIFO_DATA:
+                if(fifoLength < FIFO_SIZE){
+                    fifo[(fifoStart + fifoLength) % FIFO_SIZE] = value;
+                    fifoLength++;
+                    updateAlerts();
+                }else{
+                    registers[ERROR] |= 0x10;
+                }
+                break;
+            case FIFO_LEVEL:
+                if((value & 0x80) != 0){
+                    fifoStart = 0;
+                    fifoLength = 0;
+                    registers[ERROR] &= ~0x10;
+                    updateAlerts();
+                }
+                break;
+            case BIT_FRAMING:
+                registers[BIT_FRAMING] = value;
+                if((value & 0x80) != 0 && (registers[COMMAND] & 0x0F) == 0x0C && !sending && !receiving){
+                    startTransceive();
+                }
+                break;
+            case TX_CONTROL:
+                registers[TX_CONTROL] = value;
+                setField((value & 0x03) != 0);
+                break;
+            case ERROR:
+            case VERSION:
+                break;
+            default:
+                registers[address] = value;
+        }
+    }
+
+    private boolean fieldOn = false;
+
+    private void setField(boolean on){
+        if(fieldOn && !on){
+            for(SimulatedCard card : field){
+                card.powerOff();
+            }
+        }
+        fieldOn = on;
+    }
+
+    private int drainFifo(byte[] buffer){
+        int length = fifoLength;
+        for(int i = 0; i < length; i++){
+            buffer[i] = fifo[(fifoStart + i) % FIFO_SIZE];
+        }
+        fifoStart = 0;
+        fifoLength = 0;
+        return length;
+    }
+
+    private void startCommand(int command){
+        switch(command){
+            case 0x00:
+                stopTransceive();
+                break;
+            case 0x03: {
+                int length = drainFifo(frame);
+                int crc = Crc.calculate(frame, 0, length);
+                registers[CRC_RESULT_LOW] = (byte) crc;
+                registers[CRC_RESULT_HIGH] = (byte) (crc >> 8);
+                registers[DIV_IRQ] |= 0x04;
+                break;
+            }
+            case 0x0E:
+                authenticate();
+                break;
+            case 0x0F:
+                reset();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void authenticate(){
+        int length = drainFifo(frame);
+        registers[ERROR] = 0;
+        if(length < 12 || !fieldOn){
+            expireTimer();
+            return;
+        }
+        System.arraycopy(frame, 2, key, 0, 6);
+        boolean answered = false;
+        // Indexed loops, so the simulator doesn't allocate while measuring the driver's allocations
+        for(int i = 0; i < field.size(); i++){
+            SimulatedCard card = field.get(i);
+            if(card instanceof Iso14443Card && ((Iso14443Card) card).isActive()
+                    && ((Iso14443Card) card).matchesUid(frame, 8)){
+                answered = true;
+                if(card.authenticate(frame[0], frame[1] & 0xFF, key)){
+                    elapsedNanos += AUTHENTICATION_BITS * BIT_NANOS + 2 * FRAME_DELAY_NANOS;
+                    registers[STATUS_2] |= 0x08;
+                    registers[COM_IRQ] |= 0x10;
+                    registers[COMMAND] &= ~0x0F;
+                    return;
+                }
+            }
+        }
+        if(answered){
+            // The tag answered the first pass, but not the reader's answer to its challenge
+            elapsedNanos += (6 + 4 + 8) * 9 * BIT_NANOS + FRAME_DELAY_NANOS;
+        }
+        expireTimer();
+    }
+
+    /**
+     * Lets the timer run out after a frame that wasn't answered, if it was started automatically
+     */
+    private void expireTimer(){
+        if((registers[TIMER_MODE] & 0x80) == 0){
+            return;
+        }
+        int prescaler = (registers[TIMER_MODE] & 0x0F) << 8 | registers[TIMER_PRESCALER] & 0xFF;
+        int reload = (registers[TIMER_RELOAD_HIGH] & 0xFF) << 8 | registers[TIMER_RELOAD_LOW] & 0xFF;
+        elapsedNanos += (reload + 1) * (2.0 * prescaler + 1) * 1e9 / CARRIER_HZ;
+        raiseTimerIrq();
+    }
+
+    /**
+     * Raises LoAlert and HiAlert while the FIFO is past the water level, see section 9.3.1.13 in
+     * MFRC522's datasheet
+     */
+    private void updateAlerts(){
+        int waterLevel = registers[WATER_LEVEL] & 0x3F;
+        if(fifoLength <= waterLevel){
+            registers[COM_IRQ] |= 0x04;
+        }
+        if(FIFO_SIZE - fifoLength <= waterLevel){
+            registers[COM_IRQ] |= 0x08;
+        }
+    }
+
+    private void startTransceive(){
+        int txRate = (registers[TX_MODE] >> 4) & 0x07;
+        registers[ERROR] = 0;
+        sending = true;
+        frameLength = 0;
+        // Every full byte is sent with a parity bit
+        sendByteNanos = 9 * BIT_NANOS / (1 << txRate);
+        sendNanos = elapsedNanos;
+    }
+
+    private void stopTransceive(){
+        sending = false;
+        receiving = false;
+        timerRunning = false;
+    }
+
+    /**
+     * Moves the simulated time forward to the next byte sent or received, or to the timer's
+     * expiration
+     * @return false if nothing is pending
+     */
+    private boolean skipToNextEvent(){
+        double next;
+        if(sending){
+            next = sendNanos;
+        }else if(receiving){
+            // The timer can run out before a late answer starts
+            next = timerRunning ? Math.min(receiveNanos, timerNanos) : receiveNanos;
+        }else if(timerRunning){
+            next = timerNanos;
+        }else{
+            return false;
+        }
+        if(next > elapsedNanos){
+            elapsedNanos = next;
+        }
+        return true;
+    }
+
+    /**
+     * Sends, receives and expires everything due by the current simulated time
+     */
+    private void advance(){
+        while(sending && sendNanos <= elapsedNanos){
+            if(fifoLength == 0){
+                // The frame ends when the FIFO runs out of data
+                sending = false;
+                transceive(sendNanos);
+                break;
+            }
+            frame[frameLength++] = fifo[fifoStart];
+            fifoStart = (fifoStart + 1) % FIFO_SIZE;
+            fifoLength--;
+            sendNanos += sendByteNanos;
+            updateAlerts();
+        }
+        while(receiving && receiveNanos <= elapsedNanos){
+            if(answerIndex == 0 && timerRunning){
+                // TAuto stops the timer when the answer starts, unless it ran out before
+                if(timerNanos <= receiveNanos){
+                    raiseTimerIrq();
+                }
+                timerRunning = false;
+            }
+            if(answerIndex == answerLength){
+                receiving = false;
+                registers[CONTROL] = (byte) ((registers[CONTROL] & ~0x07) | answerLastBits);
+                registers[COM_IRQ] |= 0x20;
+                break;
+            }
+            if(fifoLength < FIFO_SIZE){
+                fifo[(fifoStart + fifoLength) % FIFO_SIZE] = response[answerIndex];
+                fifoLength++;
+                updateAlerts();
+            }else{
+                // The host didn't drain the FIFO in time
+                registers[ERROR] |= 0x10;
+            }
+            answerIndex++;
+            if(answerIndex < answerLength){
+                receiveNanos += receiveByteNanos;
+            }
+        }
+        if(timerRunning && timerNanos <= elapsedNanos){
+            timerRunning = false;
+            raiseTimerIrq();
+        }
+    }
+
+    /**
+     * Sets the timer's counter to 0, raising TimerIRq
+     */
+    private void raiseTimerIrq(){
+        registers[TIMER_COUNTER_HIGH] = 0;
+        registers[TIMER_COUNTER_LOW] = 0;
+        registers[COM_IRQ] |= 0x01;
+    }
+
+    /**
+     * Updates the IRQ pin, which is asserted while any interrupt enabled in ComIEnReg or DivIEnReg
+     * is raised
+     */
+    private void updateIrqLine(){
+        boolean asserted = (registers[COM_IRQ] & registers[COM_IEN] & 0x7F) != 0
+                || (registers[DIV_IRQ] & registers[DIV_IEN] & 0x14) != 0;
+        if(asserted && !irqAsserted){
+            irqEdge = true;
+        }
+        irqAsserted = asserted;
+    }
+
+    /**
+     * Delivers a frame sent by the reader to the cards, and starts receiving their answers
+     * @param endNanos the time the frame ended
+     */
+    private void transceive(double endNanos){
+        int txLastBits = registers[BIT_FRAMING] & 0x07;
+        int rxAlign = (registers[BIT_FRAMING] >> 4) & 0x07;
+        int length = frameLength;
+        int bits = txLastBits == 0 ? length * 8 : (length - 1) * 8 + txLastBits;
+        int txRate = (registers[TX_MODE] >> 4) & 0x07;
+        int rxRate = (registers[RX_MODE] >> 4) & 0x07;
+        registers[COM_IRQ] |= 0x40;
+        int responseBits = -1;
+        int collision = -1;
+        double answerDelay = 0;
+        if(fieldOn){
+            for(int c = 0; c < field.size(); c++){
+                SimulatedCard card = field.get(c);
+                if(card.getReceiveBitRate() != txRate){
+                    // The card can't decode the frame
+                    continue;
+                }
+                // Cards changing their bit rate do it after answering
+                int sendRate = card.getSendBitRate();
+                int cardBits = card.transceive(frame, bits, response);
+                if(cardBits < 0){
+                    continue;
+                }
+                answerDelay = Math.max(answerDelay, card.getAnswerDelayNanos());
+                if(sendRate != rxRate){
+                    // The reader can't decode the answer
+                    registers[ERROR] |= 0x01;
+                    cardBits = 0;
+                }else if(rxRate > maxBitRate){
+                    registers[ERROR] |= 0x02;
+                }
+                if(responseBits < 0){
+                    responseBits = cardBits;
+                    System.arraycopy(response, 0, merged, 0, (cardBits + 7) / 8);
+                    continue;
+                }
+                int common = Math.min(responseBits, cardBits);
+                for(int i = 0; i < common; i++){
+                    if(Iso14443Card.getBit(merged, i) != Iso14443Card.getBit(response, i)){
+                        if(collision < 0 || i < collision){
+                            collision = i;
+                        }
+                        break;
+                    }
+                }
+                responseBits = Math.max(responseBits, cardBits);
+            }
+        }
+        // TAuto starts the timer when the frame ends, the answer stops it
+        if((registers[TIMER_MODE] & 0x80) != 0){
+            int prescaler = (registers[TIMER_MODE] & 0x0F) << 8 | registers[TIMER_PRESCALER] & 0xFF;
+            int reload = (registers[TIMER_RELOAD_HIGH] & 0xFF) << 8 | registers[TIMER_RELOAD_LOW] & 0xFF;
+            timerRunning = true;
+            timerNanos = endNanos + (reload + 1) * (2.0 * prescaler + 1) * 1e9 / CARRIER_HZ;
+        }
+        if(responseBits < 0){
+            return;
+        }
+        if(collision >= 0){
+            Iso14443Card.setBit(merged, collision, 1);
+            if((registers[COLL] & 0x80) == 0){
+                for(int i = collision + 1; i < responseBits; i++){
+                    Iso14443Card.setBit(merged, i, 0);
+                }
+            }
+            int position = rxAlign + collision + 1;
+            registers[COLL] = (byte) ((registers[COLL] & 0x80) | (position > 32 ? 0x20 : position & 0x1F));
+            registers[ERROR] |= 0x08;
+        }
+        // The answer is aligned as it will be stored in the FIFO, the cards are done with response
+        int total = rxAlign + responseBits;
+        answerLength = (total + 7) / 8;
+        for(int i = 0; i < answerLength; i++){
+            response[i] = 0;
+        }
+        for(int i = 0; i < responseBits; i++){
+            Iso14443Card.setBit(response, rxAlign + i, Iso14443Card.getBit(merged, i));
+        }
+        answerIndex = 0;
+        answerLastBits = total % 8;
+        receiving = true;
+        receiveByteNanos = 9 * BIT_NANOS / (1 << rxRate);
+        // The first byte arrives after the frame delay time, every full byte has a parity bit
+        receiveNanos = endNanos + FRAME_DELAY_NANOS + answerDelay + Math.min(9, total) * BIT_NANOS / (1 << rxRate);
+    }
+
+    @Override
+    public synchronized void setFrequency(int frequencyHz) {
+        frequency = frequencyHz;
+    }
+
+    /**
+     * Checks if the IRQ pin is connected, see {@link #setInterruptPin(boolean)}. Otherwise, the
+     * driver polls the interrupt registers
+     */
+    @Override
+    public synchronized boolean hasInterrupt() {
+        return interruptPin;
+    }
+
+    @Override
+    public synchronized void clearInterrupt() {
+        irqEdge = false;
+    }
+
+    /**
+     * Runs the simulated time until the IRQ pin signals an interrupt, or the timeout elapses
+     */
+    @Override
+    public synchronized boolean awaitInterrupt(long timeoutNanos) {
+        if(!interruptPin){
+            return false;
+        }
+        double deadline = elapsedNanos + timeoutNanos;
+        while(!irqEdge){
+            if(!skipToNextEvent() || elapsedNanos > deadline){
+                // Nothing else happens before the wait times out
+                elapsedNanos = deadline;
+                return false;
+            }
+            advance();
+            updateIrqLine();
+        }
+        irqEdge = false;
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,229 @@
+package com.galarzaa.androidthings.simulator;
+
+/**
+ * A MIFARE Classic 1K or 4K tag. Crypto1 is not simulated, once authenticated the card exchanges
+ * plain frames, which is what the reader's FIFO shows on real hardware as well.
+ * Access bits are not enforced, any key that opens a sector allows every operation in it.
+ *
+ * @author Allan Galarza
+ */
+public class MifareClassicCard extends Iso14443Card {
+    private static final byte ACK = 0x0A;
+    private static final byte NAK = 0x04;
+
+    private final byte[][] blocks;
+    private int authenticatedSector = -1;
+    private int pendingCommand = -1;
+    private int pendingBlock;
+    private final byte[] transferBuffer = new byte[16];
+    /* Delay of the NAK to a rejected value operand, and of the answer being sent */
+    private double valueNakDelayNanos;
+    private double answerDelayNanos;
+
+    /**
+     * Creates a card with default transport keys and empty data blocks
+     * @param uid the card's UID, 4 or 7 bytes long
+     * @param fourK true for a 4K card, false for 1K
+     */
+    public MifareClassicCard(byte[] uid, boolean fourK){
+        super(uid, uid.length == 4 ? 0x0004 : 0x0044, fourK ? (byte) 0x18 : (byte) 0x08);
+        blocks = new byte[fourK ? 256 : 64][16];
+        System.arraycopy(uid, 0, blocks[0], 0, uid.length);
+        for(int sector = 0; sector < getSectorCount(); sector++){
+            byte[] trailer = blocks[getTrailerBlock(sector)];
+            for(int i = 0; i < 6; i++){
+                trailer[i] = (byte) 0xFF;
+                trailer[10 + i] = (byte) 0xFF;
+            }
+            trailer[6] = (byte) 0xFF;
+            trailer[7] = 0x07;
+            trailer[8] = (byte) 0x80;
+            trailer[9] = 0x69;
+        }
+    }
+
+    /**
+     * Delays the NAK sent when the operand of an increment, decrement or restore is rejected
+     * @param micros the time the NAK is sent after the frame delay time, in microseconds
+     */
+    public void setValueNakDelay(int micros){
+        valueNakDelayNanos = micros * 1000.0;
+    }
+
+    /**
+     * @return the number of sectors, 16 for 1K cards and 40 for 4K cards
+     */
+    public int getSectorCount(){
+        return blocks.length == 64 ? 16 : 40;
+    }
+
+    /**
+     * @return the sector a block belongs to, sectors past 32 on 4K cards have 16 blocks
+     */
+    public static int getSector(int block){
+        return block < 128 ? block / 4 : 32 + (block - 128) / 16;
+    }
+
+    /**
+     * @return the block holding the sector's keys and access bits
+     */
+    public static int getTrailerBlock(int sector){
+        return sector < 32 ? sector * 4 + 3 : 128 + (sector - 32) * 16 + 15;
+    }
+
+    /**
+     * @return the block's current contents
+     */
+    public byte[] getBlock(int block){
+        return blocks[block].clone();
+    }
+
+    /**
+     * Replaces a block's contents, including trailers and the manufacturer block
+     * @param data the new contents, 16 bytes long
+     */
+    public void setBlock(int block, byte[] data){
+        System.arraycopy(data, 0, blocks[block], 0, 16);
+    }
+
+    /**
+     * Changes a sector's keys, keeping its access bits
+     */
+    public void setKeys(int sector, byte[] keyA, byte[] keyB){
+        byte[] trailer = blocks[getTrailerBlock(sector)];
+        System.arraycopy(keyA, 0, trailer, 0, 6);
+        System.arraycopy(keyB, 0, trailer, 10, 6);
+    }
+
+    @Override
+    protected boolean authenticate(byte keyType, int block, byte[] key){
+        if(!isActive() || block >= blocks.length){
+            return false;
+        }
+        int sector = getSector(block);
+        byte[] trailer = blocks[getTrailerBlock(sector)];
+        int offset = keyType == 0x60 ? 0 : 10;
+        for(int i = 0; i < 6; i++){
+            if(trailer[offset + i] != key[i]){
+                halt();
+                return false;
+            }
+        }
+        authenticatedSector = sector;
+        pendingCommand = -1;
+        return true;
+    }
+
+    @Override
+    protected void onDeselect(){
+        authenticatedSector = -1;
+        pendingCommand = -1;
+    }
+
+    @Override
+    protected int transceiveActive(byte[] frame, int bits, byte[] response){
+        int length = bits / 8;
+        if(bits % 8 != 0 || !Crc.check(frame, length)){
+            return nak(response);
+        }
+        if(pendingCommand != -1){
+            int command = pendingCommand;
+            pendingCommand = -1;
+            if(command == 0xA0){
+                if(length != 18){
+                    return nak(response);
+                }
+                System.arraycopy(frame, 0, blocks[pendingBlock], 0, 16);
+                return ack(response);
+            }
+            if(length != 6){
+                return nak(response);
+            }
+            if(!isValueBlock(blocks[pendingBlock])){
+                answerDelayNanos = valueNakDelayNanos;
+                return nak(response);
+            }
+            int value = readValue(blocks[pendingBlock]);
+            int operand = (frame[0] & 0xFF) | (frame[1] & 0xFF) << 8 | (frame[2] & 0xFF) << 16 | (frame[3] & 0xFF) << 24;
+            int result = command == 0xC1 ? value + operand : command == 0xC0 ? value - operand : value;
+            writeValue(transferBuffer, result, blocks[pendingBlock][12]);
+            // Successful value operations are not answered
+            return -1;
+        }
+        if(length != 4){
+            return nak(response);
+        }
+        int command = frame[0] & 0xFF;
+        int block = frame[1] & 0xFF;
+        if(authenticatedSector == -1 || block >= blocks.length || getSector(block) != authenticatedSector){
+            return nak(response);
+        }
+        switch(command){
+            case 0x30:
+                System.arraycopy(blocks[block], 0, response, 0, 16);
+                if(block == getTrailerBlock(authenticatedSector)){
+                    // Key A can never be read back
+                    for(int i = 0; i < 6; i++){
+                        response[i] = 0;
+                    }
+                }
+                Crc.append(response, 16);
+                return 18 * 8;
+            case 0xA0:
+            case 0xC0:
+            case 0xC1:
+            case 0xC2:
+                pendingCommand = command;
+                pendingBlock = block;
+                return ack(response);
+            case 0xB0:
+                System.arraycopy(transferBuffer, 0, blocks[block], 0, 12);
+                blocks[block][12] = (byte) block;
+                blocks[block][13] = (byte) ~block;
+                blocks[block][14] = (byte) block;
+                blocks[block][15] = (byte) ~block;
+                return ack(response);
+            default:
+                return nak(response);
+        }
+    }
+
+    @Override
+    protected double getAnswerDelayNanos(){
+        double delay = answerDelayNanos;
+        answerDelayNanos = 0;
+        return delay;
+    }
+
+    private int ack(byte[] response){
+        response[0] = ACK;
+        return 4;
+    }
+
+    private int nak(byte[] response){
+        idle();
+        response[0] = NAK;
+        return 4;
+    }
+
+    private static boolean isValueBlock(byte[] block){
+        for(int i = 0; i < 4; i++){
+            if(block[i] != block[i + 8] || block[i] != (byte) ~block[i + 4]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readValue(byte[] block){
+        return (block[0] & 0xFF) | (block[1] & 0xFF) << 8 | (block[2] & 0xFF) << 16 | (block[3] & 0xFF) << 24;
+    }
+
+    private static void writeValue(byte[] block, int value, byte address){
+        for(int i = 0; i < 4; i++){
+            block[i] = (byte) (value >> (8 * i));
+            block[i + 4] = (byte) ~block[i];
+            block[i + 8] = block[i];
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.galarzaa.androidthings.simulator;
+
+/**
+ * An NTAG213, NTAG215 or NTAG216 tag, answering READ, FAST_READ, WRITE, GET_VERSION and PWD_AUTH,
+ * see section 10 in NTAG213/215/216's datasheet.
+ * <br>
+ * Pages from AUTH0 on can be protected with a password, see {@link #setPassword(byte[], byte[], int, boolean)}.
+ * Lock bytes and the capability container's one-time programming are not enforced, and the
+ * password and its acknowledge always read as zeros.
+ *
+ * @author Allan Galarza
+ */
+public class NtagCard extends Iso14443Card {
+    private static final byte ACK = 0x0A;
+    /* NAK for invalid arguments, such as pages out of range or a wrong password */
+    private static final byte NAK_INVALID = 0x00;
+    private static final byte NAK_CRC = 0x01;
+
+    private final byte[][] pages;
+    private final byte storageSize;
+    private boolean authenticated;
+
+    /**
+     * Creates a tag with its capability container set for NDEF and an empty user memory
+     * @param uid the tag's UID, 7 bytes long
+     * @param model 213, 215 or 216
+     */
+    public NtagCard(byte[] uid, int model){
+        super(uid, 0x0044, (byte) 0x00);
+        if(uid.length != 7){
+            throw new IllegalArgumentException("UID must be 7 bytes long");
+        }
+        int userBytes;
+        switch(model){
+            case 213:
+                userBytes = 144;
+                storageSize = 0x0F;
+                break;
+            case 215:
+                userBytes = 504;
+                storageSize = 0x11;
+                break;
+            case 216:
+                userBytes = 888;
+                storageSize = 0x13;
+                break;
+            default:
+                throw new IllegalArgumentException("Model must be 213, 215 or 216");
+        }
+        // UID and lock pages, user memory, and the dynamic lock and configuration pages
+        pages = new byte[4 + userBytes / 4 + 5][4];
+        pages[0][0] = uid[0];
+        pages[0][1] = uid[1];
+        pages[0][2] = uid[2];
+        pages[0][3] = (byte) (0x88 ^ uid[0] ^ uid[1] ^ uid[2]);
+        System.arraycopy(uid, 3, pages[1], 0, 4);
+        pages[2][0] = (byte) (uid[3] ^ uid[4] ^ uid[5] ^ uid[6]);
+        pages[2][1] = 0x48;
+        pages[3][0] = (byte) 0xE1;
+        pages[3][1] = 0x10;
+        pages[3][2] = (byte) (userBytes / 8);
+        // AUTH0 past the last page disables password protection
+        pages[pages.length - 4][3] = (byte) 0xFF;
+        for(int i = 0; i < 4; i++){
+            pages[pages.length - 2][i] = (byte) 0xFF;
+        }
+    }
+
+    /**
+     * @return the number of pages, including the configuration pages
+     */
+    public int getPageCount(){
+        return pages.length;
+    }
+
+    /**
+     * @return the page's current contents
+     */
+    public byte[] getPage(int page){
+        return pages[page].clone();
+    }
+
+    /**
+     * Replaces a page's contents, including read-only pages
+     * @param data the new contents, 4 bytes long
+     */
+    public void setPage(int page, byte[] data){
+        System.arraycopy(data, 0, pages[page], 0, 4);
+    }
+
+    /**
+     * Protects the pages from AUTH0 on with a password
+     * @param password the password, 4 bytes long
+     * @param pack the password acknowledge sent when authenticating, 2 bytes long
+     * @param auth0 the first protected page
+     * @param protectReads true to protect reads as well as writes
+     */
+    public void setPassword(byte[] password, byte[] pack, int auth0, boolean protectReads){
+        System.arraycopy(password, 0, pages[pages.length - 2], 0, 4);
+        System.arraycopy(pack, 0, pages[pages.length - 1], 0, 2);
+        pages[pages.length - 4][3] = (byte) auth0;
+        if(protectReads){
+            pages[pages.length - 3][0] |= (byte) 0x80;
+        }else{
+            pages[pages.length - 3][0] &= (byte) 0x7F;
+        }
+    }
+
+    @Override
+    protected void onDeselect(){
+        authenticated = false;
+    }
+
+    @Override
+    protected int transceiveActive(byte[] frame, int bits, byte[] response){
+        int length = bits / 8;
+        if(bits % 8 != 0 || length < 3 || !Crc.check(frame, length)){
+            return nak(response, NAK_CRC);
+        }
+        length -= 2;
+        switch(frame[0] & 0xFF){
+            case 0x60:
+                if(length != 1){
+                    return nak(response, NAK_INVALID);
+                }
+                byte[] version = {0x00, 0x04, 0x04, 0x02, 0x01, 0x00, storageSize, 0x03};
+                System.arraycopy(version, 0, response, 0, version.length);
+                Crc.append(response, version.length);
+                return (version.length + 2) * 8;
+            case 0x30: {
+                int page = frame[1] & 0xFF;
+                if(length != 2 || page >= pages.length || !canRead(page)){
+                    return nak(response, NAK_INVALID);
+                }
+                for(int i = 0; i < 4; i++){
+                    if(page == pages.length || !canRead(page)){
+                        // Reading rolls over to page 0 at protected pages as well
+                        page = 0;
+                    }
+                    readPage(page++, response, i * 4);
+                }
+                Crc.append(response, 16);
+                return 18 * 8;
+            }
+            case 0x3A: {
+                int start = frame[1] & 0xFF;
+                int end = frame[2] & 0xFF;
+                if(length != 3 || start > end || end >= pages.length || !canRead(end)){
+                    return nak(response, NAK_INVALID);
+                }
+                for(int page = start; page <= end; page++){
+                    readPage(page, response, (page - start) * 4);
+                }
+                int answerLength = (end - start + 1) * 4;
+                Crc.append(response, answerLength);
+                return (answerLength + 2) * 8;
+            }
+            case 0xA2: {
+                int page = frame[1] & 0xFF;
+                if(length != 6 || page < 2 || page >= pages.length || !canWrite(page)){
+                    return nak(response, NAK_INVALID);
+                }
+                System.arraycopy(frame, 2, pages[page], 0, 4);
+                response[0] = ACK;
+                return 4;
+            }
+            case 0x1B: {
+                if(length != 5){
+                    return nak(response, NAK_INVALID);
+                }
+                byte[] password = pages[pages.length - 2];
+                for(int i = 0; i < 4; i++){
+                    if(frame[1 + i] != password[i]){
+                        return nak(response, NAK_INVALID);
+                    }
+                }
+                authenticated = true;
+                System.arraycopy(pages[pages.length - 1], 0, response, 0, 2);
+                Crc.append(response, 2);
+                return 4 * 8;
+            }
+            default:
+                return nak(response, NAK_INVALID);
+        }
+    }
+
+    private boolean isProtected(int page){
+        return !authenticated && page >= (pages[pages.length - 4][3] & 0xFF);
+    }
+
+    private boolean canRead(int page){
+        return (pages[pages.length - 3][0] & 0x80) == 0 || !isProtected(page);
+    }
+
+    private boolean canWrite(int page){
+        return !isProtected(page);
+    }
+
+    private void readPage(int page, byte[] response, int offset){
+        if(page >= pages.length - 2){
+            // PWD and PACK can't be read back
+            for(int i = 0; i < 4; i++){
+                response[offset + i] = 0;
+            }
+            return;
+        }
+        System.arraycopy(pages[page], 0, response, offset, 4);
+    }
+
+    private int nak(byte[] response, byte code){
+        idle();
+        response[0] = code;
+        return 4;
+    }
+}
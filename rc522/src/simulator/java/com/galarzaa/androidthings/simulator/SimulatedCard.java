@@ -0,0 +1,57 @@
+package com.galarzaa.androidthings.simulator;
+
+/**
+ * A tag that can be placed in the field of a {@link Mfrc522Simulator}.
+ * Frames are exchanged as bit streams, least significant bit of the first byte first.
+ *
+ * @author Allan Galarza
+ */
+public abstract class SimulatedCard {
+    /**
+     * Handles a frame sent by the reader
+     * @param frame the frame's bytes
+     * @param bits the number of valid bits in the frame
+     * @param response the array to store the response to, least significant bit first
+     * @return the number of bits in the response, or -1 if the card doesn't answer
+     */
+    protected abstract int transceive(byte[] frame, int bits, byte[] response);
+
+    /**
+     * Handles a MIFARE Classic authentication, performed by the reader's MFAuthent command
+     * @return true if the card accepted the key
+     */
+    protected boolean authenticate(byte keyType, int block, byte[] key){
+        return false;
+    }
+
+    /**
+     * Gets the extra time the card takes to start its answer to the last frame it handled, after
+     * the frame delay time. Called right after {@link #transceive(byte[], int, byte[])} answered
+     * @return the delay, in nanoseconds
+     */
+    protected double getAnswerDelayNanos(){
+        return 0;
+    }
+
+    /**
+     * Gets the bit rate the card currently listens at
+     * @return the bit rate's code: 0 for 106 kbit/s, 1 for 212, 2 for 424 and 3 for 848
+     */
+    protected int getReceiveBitRate(){
+        return 0;
+    }
+
+    /**
+     * Gets the bit rate the card currently answers at
+     * @return the bit rate's code: 0 for 106 kbit/s, 1 for 212, 2 for 424 and 3 for 848
+     */
+    protected int getSendBitRate(){
+        return 0;
+    }
+
+    /**
+     * Called when the card leaves the reader's RF field or the field is switched off
+     */
+    protected void powerOff(){
+    }
+}
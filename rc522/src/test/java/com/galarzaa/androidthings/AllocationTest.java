@@ -0,0 +1,58 @@
+package com.galarzaa.androidthings;
+
+import com.galarzaa.androidthings.simulator.Mfrc522Simulator;
+import com.galarzaa.androidthings.simulator.MifareClassicCard;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that activating a tag and reading and writing blocks allocates nothing once warmed up,
+ * measuring the bytes allocated by the test's thread. The simulator doesn't allocate either.
+ */
+public class AllocationTest {
+    private static final byte[] DEFAULT_KEY = {-1, -1, -1, -1, -1, -1};
+    private static final int WARM_UP_CYCLES = 2000;
+    private static final int CYCLES = 1000;
+
+    @Test
+    public void steadyStateAllocatesNothing() throws Exception {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        Mfrc522Simulator simulator = new Mfrc522Simulator();
+        simulator.addCard(new MifareClassicCard(new byte[]{0x01, 0x02, 0x03, 0x04}, false));
+        Rc522 rc522 = new Rc522(simulator);
+        byte[] buffer = new byte[16];
+        for(int i = 0; i < WARM_UP_CYCLES; i++){
+            cycle(rc522, buffer);
+        }
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for(int i = 0; i < CYCLES; i++){
+            cycle(rc522, buffer);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        // Anything allocated on every cycle would add up to at least 16 bytes per cycle, the JIT
+        // compiler may still allocate a few bytes once
+        assertTrue("allocated " + allocated + " bytes in " + CYCLES + " cycles", allocated < CYCLES);
+    }
+
+    private static void cycle(Rc522 rc522, byte[] buffer){
+        assertTrue(rc522.request(Rc522.REQUEST_ALL));
+        assertTrue(rc522.antiCollisionDetect());
+        assertTrue(rc522.selectTag());
+        assertTrue(rc522.authenticateCard(Rc522.AUTH_A, (byte) 4, DEFAULT_KEY));
+        assertTrue(rc522.readBlock((byte) 4, buffer));
+        assertTrue(rc522.writeBlock((byte) 4, buffer));
+        rc522.haltTag();
+    }
+}
@@ -0,0 +1,81 @@
+package com.galarzaa.androidthings;
+
+import com.galarzaa.androidthings.simulator.Mfrc522Simulator;
+import com.galarzaa.androidthings.simulator.MifareClassicCard;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Calibrates the SPI clock against a simulator that corrupts reads above a frequency, and checks
+ * the reader falls back to a lower frequency when the bus starts failing.
+ */
+public class BusSpeedTest {
+    private static final byte[] DEFAULT_KEY = {-1, -1, -1, -1, -1, -1};
+
+    private Mfrc522Simulator simulator;
+    private Rc522 rc522;
+
+    @Before
+    public void setUp() throws Exception {
+        simulator = new Mfrc522Simulator();
+        simulator.addCard(new MifareClassicCard(new byte[]{0x01, 0x02, 0x03, 0x04}, false));
+        rc522 = new Rc522(simulator);
+    }
+
+    @Test
+    public void calibratesToFastestSpeed(){
+        assertEquals(Rc522.MAX_BUS_SPEED, rc522.calibrateBusSpeed());
+        assertEquals(4000000, rc522.calibrateBusSpeed(4000000));
+        assertEquals(4000000, simulator.getFrequency());
+    }
+
+    @Test
+    public void keepsMarginBelowFailure(){
+        simulator.setMaxFrequency(6000000);
+        // 8 MHz fails, so the step below the last one that passed is used
+        assertEquals(5000000, rc522.calibrateBusSpeed());
+        assertEquals(5000000, rc522.getBusSpeed());
+        assertTrue(readBlock());
+    }
+
+    @Test
+    public void abortsIfUnreadable(){
+        simulator.setMaxFrequency(500000);
+        assertEquals(0, rc522.calibrateBusSpeed());
+        assertEquals(1000000, rc522.getBusSpeed());
+    }
+
+    @Test
+    public void fallsBackOnBusErrors(){
+        assertEquals(Rc522.MAX_BUS_SPEED, rc522.calibrateBusSpeed());
+        assertTrue(readBlock());
+        // The wiring degrades, corrupting reads at the current speed
+        simulator.setMaxFrequency(4000000);
+        for(int i = 0; i < 100 && rc522.getBusSpeed() > 4000000; i++){
+            readBlock();
+        }
+        assertEquals(4000000, rc522.getBusSpeed());
+        assertTrue(readBlock());
+    }
+
+    @Test
+    public void setBusSpeedDisablesFallback(){
+        assertEquals(Rc522.MAX_BUS_SPEED, rc522.calibrateBusSpeed());
+        assertTrue(rc522.setBusSpeed(8000000));
+        simulator.setMaxFrequency(4000000);
+        for(int i = 0; i < 100; i++){
+            readBlock();
+        }
+        assertEquals(8000000, rc522.getBusSpeed());
+    }
+
+    private boolean readBlock(){
+        return rc522.activateTag(Rc522.REQUEST_ALL) != null
+                && rc522.authenticateCard(Rc522.AUTH_A, (byte) 4, DEFAULT_KEY)
+                && rc522.readBlock((byte) 4, new byte[16]);
+    }
+}
@@ -0,0 +1,108 @@
+package com.galarzaa.androidthings;
+
+import com.galarzaa.androidthings.simulator.Mfrc522Simulator;
+import com.galarzaa.androidthings.simulator.MifareClassicCard;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the table driven CRC_A against ISO/IEC 14443-3's vectors and the RC522's coprocessor.
+ */
+public class CrcTest {
+    private static final byte[] DEFAULT_KEY = {-1, -1, -1, -1, -1, -1};
+
+    @Test
+    public void standardVectors(){
+        // See Annex B in ISO/IEC 14443-3
+        assertEquals(0x1EA0, Rc522.calculateCrcA(new byte[]{0x00, 0x00}, 2));
+        assertEquals(0xCF26, Rc522.calculateCrcA(new byte[]{0x12, 0x34}, 2));
+        // MIFARE READ of block 0
+        assertEquals(0xA802, Rc522.calculateCrcA(new byte[]{0x30, 0x00}, 2));
+    }
+
+    @Test
+    public void tableMatchesCoprocessor() throws IOException {
+        Rc522 rc522 = new Rc522(new Mfrc522Simulator());
+        Random random = new Random(14443);
+        for(int length = 0; length <= 64; length++){
+            byte[] data = new byte[length + 2];
+            random.nextBytes(data);
+            byte[] software = data.clone();
+            byte[] hardware = data.clone();
+            rc522.setHardwareCrc(false);
+            assertTrue(rc522.appendCrc(software, length));
+            rc522.setHardwareCrc(true);
+            assertTrue(rc522.appendCrc(hardware, length));
+            assertEquals("length " + length, software[length], hardware[length]);
+            assertEquals("length " + length, software[length + 1], hardware[length + 1]);
+        }
+    }
+
+    @Test
+    public void receivedCrcIsChecked() throws IOException {
+        CorruptingTransport transport = new CorruptingTransport();
+        transport.simulator.addCard(new MifareClassicCard(new byte[]{0x01, 0x02, 0x03, 0x04}, false));
+        Rc522 rc522 = new Rc522(transport);
+        byte[] buffer = new byte[16];
+        for(boolean hardwareCrc : new boolean[]{false, true}){
+            rc522.setHardwareCrc(hardwareCrc);
+            transport.corrupt = false;
+            assertTrue(rc522.activateTag(Rc522.REQUEST_ALL) != null);
+            assertTrue(rc522.authenticateCard(Rc522.AUTH_A, (byte) 4, DEFAULT_KEY));
+            assertTrue(rc522.readBlock((byte) 4, buffer));
+            transport.corrupt = true;
+            assertFalse(rc522.readBlock((byte) 4, buffer));
+            assertEquals(Rc522.ErrorType.ERROR_CRC, rc522.getError());
+            rc522.haltTag();
+        }
+    }
+
+    /**
+     * Flips the last byte read from the FIFO buffer, the second byte of a received frame's CRC
+     */
+    private static class CorruptingTransport implements Rc522Transport {
+        /* FIFODataReg, read */
+        private static final byte READ_FIFO = (byte) 0x92;
+
+        final Mfrc522Simulator simulator = new Mfrc522Simulator();
+        boolean corrupt;
+
+        @Override
+        public void transfer(byte[] txBuffer, byte[] rxBuffer, int length) throws IOException {
+            simulator.transfer(txBuffer, rxBuffer, length);
+            if(corrupt && length > 2 && txBuffer[0] == READ_FIFO){
+                rxBuffer[length - 1] ^= 0x01;
+            }
+        }
+
+        @Override
+        public void setFrequency(int frequencyHz) throws IOException {
+            simulator.setFrequency(frequencyHz);
+        }
+
+        @Override
+        public boolean hasInterrupt(){
+            return false;
+        }
+
+        @Override
+        public void clearInterrupt(){
+        }
+
+        @Override
+        public boolean awaitInterrupt(long timeoutNanos){
+            return false;
+        }
+
+        @Override
+        public void close(){
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.galarzaa.androidthings;
+
+import com.galarzaa.androidthings.simulator.Mfrc522Simulator;
+import com.galarzaa.androidthings.simulator.MifareClassicCard;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Counts the SPI transfers of block operations, so FIFO bursts that get split back into one
+ * transfer per byte fail the build, and checks that failed bursts fail the operation.
+ */
+public class FifoTransferTest {
+    private static final byte[] DEFAULT_KEY = {-1, -1, -1, -1, -1, -1};
+    private static final byte BLOCK = 4;
+
+    private FailingFifoTransport transport;
+    private Mfrc522Simulator simulator;
+    private Rc522 rc522;
+
+    @Before
+    public void setUp() throws Exception {
+        transport = new FailingFifoTransport();
+        simulator = transport.simulator;
+        simulator.addCard(new MifareClassicCard(new byte[]{0x01, 0x02, 0x03, 0x04}, false));
+        rc522 = new Rc522(transport);
+        assertTrue(rc522.activateTag(Rc522.REQUEST_ALL) != null);
+        assertTrue(rc522.authenticateCard(Rc522.AUTH_A, BLOCK, DEFAULT_KEY));
+    }
+
+    @Test
+    public void readBlockTransfers(){
+        byte[] buffer = new byte[16];
+        // The first read reprograms the timer for its timeout, which stays cached afterwards
+        assertTrue(rc522.readBlock(BLOCK, buffer));
+        for(int i = 0; i < 3; i++){
+            simulator.resetCounters();
+            assertTrue(rc522.readBlock(BLOCK, buffer));
+            // The command is written in one burst, and the 18 byte answer read in another
+            assertEquals(11, simulator.getTransferCount());
+            assertEquals(44, simulator.getByteCount());
+        }
+    }
+
+    @Test
+    public void writeBlockTransfers(){
+        byte[] data = new byte[16];
+        for(int i = 0; i < data.length; i++){
+            data[i] = (byte) (i * 7);
+        }
+        assertTrue(rc522.writeBlock(BLOCK, data));
+        for(int i = 0; i < 3; i++){
+            simulator.resetCounters();
+            assertTrue(rc522.writeBlock(BLOCK, data));
+            // Two exchanges, each writing its whole frame in a single burst
+            assertEquals(22, simulator.getTransferCount());
+            assertEquals(68, simulator.getByteCount());
+        }
+        byte[] buffer = new byte[16];
+        assertTrue(rc522.readBlock(BLOCK, buffer));
+        assertArrayEquals(data, buffer);
+    }
+
+    @Test
+    public void failedWriteBurst(){
+        byte[] buffer = new byte[16];
+        assertTrue(rc522.readBlock(BLOCK, buffer));
+        transport.failNext = FailingFifoTransport.WRITE_FIFO;
+        assertFalse(rc522.readBlock(BLOCK, buffer));
+        // The frame never reached the RC522, so it's a bus error rather than the tag not answering
+        assertEquals(Rc522.ErrorType.ERROR_COMMUNICATION, rc522.getError());
+        assertEquals(0, transport.failNext);
+        // The command wasn't started, so the tag is still selected
+        assertTrue(rc522.readBlock(BLOCK, buffer));
+    }
+
+    @Test
+    public void failedDrainBurst(){
+        byte[] old = new byte[16];
+        byte[] data = new byte[16];
+        for(int i = 0; i < old.length; i++){
+            old[i] = 0x44;
+            data[i] = 0x55;
+        }
+        byte next = BLOCK + 1;
+        assertTrue(rc522.writeBlock(BLOCK, old));
+        assertTrue(rc522.writeBlock(next, data));
+        byte[] buffer = new byte[16];
+        assertTrue(rc522.readBlock(BLOCK, buffer));
+        assertArrayEquals(old, buffer);
+        transport.failNext = FailingFifoTransport.READ_FIFO;
+        byte[] failed = new byte[16];
+        // The previous answer is still in the driver's buffer, with a valid CRC
+        assertFalse(rc522.readBlock(next, failed));
+        assertEquals(Rc522.ErrorType.ERROR_COMMUNICATION, rc522.getError());
+        assertEquals(0, transport.failNext);
+        assertArrayEquals(new byte[16], failed);
+    }
+
+    @Test
+    public void corruptedFifoLevel(){
+        byte[] buffer = new byte[16];
+        assertTrue(rc522.readBlock(BLOCK, buffer));
+        // Bit 7 set, making the level negative if it's read as a signed byte, and past the FIFO's
+        // size otherwise. The read fails, instead of returning whatever the FIFO holds
+        transport.corruptLevel = true;
+        byte[] corrupted = new byte[16];
+        assertFalse(rc522.readBlock(BLOCK, corrupted));
+        assertEquals(Rc522.ErrorType.ERROR_COMMUNICATION, rc522.getError());
+        assertArrayEquals(new byte[16], corrupted);
+        assertFalse(transport.corruptLevel);
+        // The tag is still selected, it only answers the request once halted
+        rc522.stopCrypto();
+        rc522.haltTag();
+        transport.corruptLevel = true;
+        assertTrue(rc522.activateTag(Rc522.REQUEST_ALL) == null);
+        assertEquals(Rc522.ErrorType.ERROR_COMMUNICATION, rc522.getError());
+        assertFalse(transport.corruptLevel);
+    }
+
+    /**
+     * Fails the next burst to or from the FIFO buffer, or sets bit 7 of the next FIFO level read,
+     * when asked to
+     */
+    private static class FailingFifoTransport implements Rc522Transport {
+        /* FIFODataReg, write and read */
+        static final byte WRITE_FIFO = 0x12;
+        static final byte READ_FIFO = (byte) 0x92;
+        /* FIFOLevelReg, read */
+        static final byte READ_FIFO_LEVEL = (byte) 0x94;
+
+        final Mfrc522Simulator simulator = new Mfrc522Simulator();
+        /* Address byte of the next burst to fail, 0 once it failed */
+        byte failNext;
+        boolean corruptLevel;
+
+        @Override
+        public void transfer(byte[] txBuffer, byte[] rxBuffer, int length) throws IOException {
+            if(failNext != 0 && length > 2 && txBuffer[0] == failNext){
+                failNext = 0;
+                throw new IOException("Simulated failure");
+            }
+            simulator.transfer(txBuffer, rxBuffer, length);
+            // The value read for an address arrives with the next byte
+            for(int i = 0; corruptLevel && i < length - 1; i++){
+                if(txBuffer[i] == READ_FIFO_LEVEL){
+                    rxBuffer[i + 1] |= 0x80;
+                    corruptLevel = false;
+                }
+            }
+        }
+
+        @Override
+        public void setFrequency(int frequencyHz) throws IOException {
+            simulator.setFrequency(frequencyHz);
+        }
+
+        @Override
+        public boolean hasInterrupt(){
+            return false;
+        }
+
+        @Override
+        public void clearInterrupt(){
+        }
+
+        @Override
+        public boolean awaitInterrupt(long timeoutNanos){
+            return false;
+        }
+
+        @Override
+        public void close(){
+        }
+    }
+}
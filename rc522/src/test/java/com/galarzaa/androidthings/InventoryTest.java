@@ -0,0 +1,123 @@
+package com.galarzaa.androidthings;
+
+import com.galarzaa.androidthings.simulator.Iso14443Card;
+import com.galarzaa.androidthings.simulator.Mfrc522Simulator;
+import com.galarzaa.androidthings.simulator.MifareClassicCard;
+import com.galarzaa.androidthings.simulator.NtagCard;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Activates tags with 4, 7 and 10 byte UIDs, and resolves collisions between several tags in the
+ * field, with UIDs that only differ in a few bits.
+ */
+public class InventoryTest {
+    private static final byte[] DEFAULT_KEY = {-1, -1, -1, -1, -1, -1};
+    private static final byte[] SINGLE_UID = {0x01, 0x02, 0x03, 0x04};
+    private static final byte[] DOUBLE_UID = {0x04, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66};
+    private static final byte[] TRIPLE_UID = {0x08, 0x10, 0x20, 0x30, 0x40, 0x50, 0x60, 0x70, (byte) 0x80, (byte) 0x90};
+
+    private Mfrc522Simulator simulator;
+    private Rc522 rc522;
+
+    @Before
+    public void setUp() throws Exception {
+        simulator = new Mfrc522Simulator();
+        rc522 = new Rc522(simulator);
+    }
+
+    @Test
+    public void activatesEveryCascadeLevel(){
+        Iso14443Card[] cards = {
+                new MifareClassicCard(SINGLE_UID, false),
+                new NtagCard(DOUBLE_UID, 213),
+                new PlainCard(TRIPLE_UID)
+        };
+        for(Iso14443Card card : cards){
+            simulator.addCard(card);
+            TagInfo tag = rc522.activateTag(Rc522.REQUEST_ALL);
+            assertNotNull(tag);
+            assertArrayEquals(card.getUid(), tag.getUid());
+            simulator.removeCard(card);
+        }
+    }
+
+    @Test
+    public void authenticatesDoubleSizeUid(){
+        simulator.addCard(new MifareClassicCard(DOUBLE_UID, false));
+        TagInfo tag = rc522.activateTag(Rc522.REQUEST_ALL);
+        assertNotNull(tag);
+        assertEquals(7, tag.getUidLength());
+        // Authentication uses the last four bytes of the UID
+        assertTrue(rc522.authenticateCard(Rc522.AUTH_A, (byte) 4, DEFAULT_KEY));
+        assertTrue(rc522.readBlock((byte) 4, new byte[16]));
+    }
+
+    @Test
+    public void antiCollisionPicksOneTag(){
+        simulator.addCard(new MifareClassicCard(SINGLE_UID, false));
+        simulator.addCard(new MifareClassicCard(new byte[]{0x01, 0x02, 0x03, 0x05}, false));
+        assertTrue(rc522.request(Rc522.REQUEST_ALL));
+        assertTrue(rc522.antiCollisionDetect());
+        // The first colliding bit is resolved as 1
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x05, 0x05}, rc522.getUid());
+        assertTrue(rc522.selectTag());
+    }
+
+    @Test
+    public void inventoryFindsCollidingTags(){
+        byte[][] uids = {
+                SINGLE_UID,
+                {0x01, 0x02, 0x03, 0x05},
+                {(byte) 0x81, 0x02, 0x03, 0x04},
+                DOUBLE_UID,
+                {0x04, 0x11, 0x22, 0x33, 0x44, 0x55, 0x67},
+        };
+        for(byte[] uid : uids){
+            simulator.addCard(new MifareClassicCard(uid, false));
+        }
+        List<TagInfo> tags = rc522.inventory();
+        assertEquals(uids.length, tags.size());
+        for(byte[] uid : uids){
+            assertTrue(Arrays.toString(uid), contains(tags, uid));
+        }
+
+        // A found tag can be selected again by its UID
+        assertTrue(rc522.request(Rc522.REQUEST_ALL));
+        assertTrue(rc522.selectTag(DOUBLE_UID));
+        assertTrue(rc522.authenticateCard(Rc522.AUTH_A, (byte) 4, DEFAULT_KEY));
+        assertTrue(rc522.readBlock((byte) 4, new byte[16]));
+    }
+
+    private static boolean contains(List<TagInfo> tags, byte[] uid){
+        for(TagInfo tag : tags){
+            if(tag.hasUid(uid)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A tag that only implements the activation sequence, e.g. with a triple size UID
+     */
+    private static class PlainCard extends Iso14443Card {
+        PlainCard(byte[] uid){
+            super(uid, 0x0084, (byte) 0x00);
+        }
+
+        @Override
+        protected int transceiveActive(byte[] frame, int bits, byte[] response){
+            return -1;
+        }
+    }
+}
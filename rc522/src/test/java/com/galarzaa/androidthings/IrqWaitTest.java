@@ -0,0 +1,159 @@
+package com.galarzaa.androidthings;
+
+import com.galarzaa.androidthings.simulator.Mfrc522Simulator;
+import com.galarzaa.androidthings.simulator.MifareClassicCard;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Waits for commands through the simulated IRQ pin, checking that the driver sleeps until the
+ * pin signals an interrupt, and isn't fooled by edges that don't belong to the command.
+ */
+public class IrqWaitTest {
+    private static final byte[] DEFAULT_KEY = {-1, -1, -1, -1, -1, -1};
+    /* ComIrqReg, read */
+    private static final byte READ_COM_IRQ = (byte) 0x88;
+
+    private PinTransport transport;
+    private MifareClassicCard card;
+    private Rc522 rc522;
+
+    @Before
+    public void setUp() throws Exception {
+        transport = new PinTransport();
+        card = new MifareClassicCard(new byte[]{0x01, 0x02, 0x03, 0x04}, false);
+        transport.simulator.addCard(card);
+        rc522 = new Rc522(transport);
+    }
+
+    @Test
+    public void wakesOnCompletion(){
+        assertTrue(rc522.activateTag(Rc522.REQUEST_ALL) != null);
+        assertTrue(rc522.authenticateCard(Rc522.AUTH_A, (byte) 4, DEFAULT_KEY));
+        transport.resetCounters();
+        byte[] buffer = new byte[16];
+        assertTrue(rc522.readBlock((byte) 4, buffer));
+        // ComIrqReg is read once before sleeping, and once when the pin wakes the driver up
+        assertEquals(1, transport.waits);
+        assertEquals(1, transport.wakeUps);
+        assertEquals(2, transport.irqReads);
+    }
+
+    @Test
+    public void wakesOnTimerExpiry(){
+        transport.simulator.removeCard(card);
+        transport.resetCounters();
+        long start = System.nanoTime();
+        assertFalse(rc522.request());
+        long elapsedMicros = (System.nanoTime() - start) / 1000;
+        assertEquals(Rc522.ErrorType.ERROR_TIMEOUT, rc522.getError());
+        // The timer's interrupt ends the wait, not the wait's own timeout
+        assertEquals(1, transport.waits);
+        assertEquals(1, transport.wakeUps);
+        assertTrue("waited " + elapsedMicros + "us", elapsedMicros < rc522.getTimeout(Rc522.CommandType.REQUEST));
+    }
+
+    @Test
+    public void ignoresSpuriousEdge(){
+        assertTrue(rc522.activateTag(Rc522.REQUEST_ALL) != null);
+        assertTrue(rc522.authenticateCard(Rc522.AUTH_A, (byte) 4, DEFAULT_KEY));
+        transport.resetCounters();
+        transport.spuriousEdges = 1;
+        byte[] buffer = new byte[16];
+        assertTrue(rc522.readBlock((byte) 4, buffer));
+        // The edge wakes the driver up, but nothing is raised, so it sleeps again
+        assertEquals(2, transport.waits);
+        assertEquals(3, transport.irqReads);
+    }
+
+    @Test
+    public void dropsStaleEdge(){
+        assertTrue(rc522.activateTag(Rc522.REQUEST_ALL) != null);
+        assertTrue(rc522.authenticateCard(Rc522.AUTH_A, (byte) 4, DEFAULT_KEY));
+        transport.resetCounters();
+        // An edge left from before the command must be forgotten before waiting
+        transport.staleEdge = true;
+        byte[] buffer = new byte[16];
+        assertTrue(rc522.readBlock((byte) 4, buffer));
+        assertFalse(transport.staleWakeUp);
+        assertEquals(1, transport.waits);
+        assertEquals(2, transport.irqReads);
+    }
+
+    /**
+     * Connects the simulator's IRQ pin, counting the waits, and signals edges of its own on demand
+     */
+    private static class PinTransport implements Rc522Transport {
+        final Mfrc522Simulator simulator = new Mfrc522Simulator();
+        int waits;
+        int wakeUps;
+        int irqReads;
+        int spuriousEdges;
+        boolean staleEdge;
+        boolean staleWakeUp;
+
+        PinTransport(){
+            simulator.setInterruptPin(true);
+        }
+
+        void resetCounters(){
+            waits = 0;
+            wakeUps = 0;
+            irqReads = 0;
+        }
+
+        @Override
+        public void transfer(byte[] txBuffer, byte[] rxBuffer, int length) throws IOException {
+            if(txBuffer[0] == READ_COM_IRQ){
+                irqReads++;
+            }
+            simulator.transfer(txBuffer, rxBuffer, length);
+        }
+
+        @Override
+        public void setFrequency(int frequencyHz) throws IOException {
+            simulator.setFrequency(frequencyHz);
+        }
+
+        @Override
+        public boolean hasInterrupt(){
+            return simulator.hasInterrupt();
+        }
+
+        @Override
+        public void clearInterrupt(){
+            staleEdge = false;
+            simulator.clearInterrupt();
+        }
+
+        @Override
+        public boolean awaitInterrupt(long timeoutNanos){
+            waits++;
+            if(staleEdge){
+                staleEdge = false;
+                staleWakeUp = true;
+                return true;
+            }
+            if(spuriousEdges > 0){
+                spuriousEdges--;
+                return true;
+            }
+            boolean signaled = simulator.awaitInterrupt(timeoutNanos);
+            if(signaled){
+                wakeUps++;
+            }
+            return signaled;
+        }
+
+        @Override
+        public void close(){
+        }
+    }
+}
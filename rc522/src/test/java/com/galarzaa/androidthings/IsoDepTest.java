@@ -0,0 +1,155 @@
+package com.galarzaa.androidthings;
+
+import com.galarzaa.androidthings.simulator.IsoDepCard;
+import com.galarzaa.androidthings.simulator.Mfrc522Simulator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Exchanges APDUs with a simulated ISO/IEC 14443-4 tag echoing its commands, checking chaining in
+ * both directions, waiting time extensions, and frames larger than the 64 byte FIFO buffer.
+ */
+public class IsoDepTest {
+    private Mfrc522Simulator simulator;
+    private EchoCard card;
+    private Rc522 rc522;
+    private IsoDep isoDep;
+
+    @Before
+    public void setUp() throws Exception {
+        simulator = new Mfrc522Simulator();
+        card = new EchoCard(new byte[]{0x08, 0x12, 0x34, 0x56});
+        simulator.addCard(card);
+    }
+
+    private void connect(boolean interruptPin) throws Exception {
+        simulator.setInterruptPin(interruptPin);
+        rc522 = new Rc522(simulator);
+        assertNotNull(rc522.activateTag(Rc522.REQUEST_ALL));
+        isoDep = new IsoDep(rc522);
+        assertTrue(isoDep.connect());
+        assertTrue(card.isProtocolActive());
+    }
+
+    @Test
+    public void negotiatesFrameSize() throws Exception {
+        connect(false);
+        // Both the reader and the tag accept 256 byte frames
+        assertEquals(256, isoDep.getFrameSize());
+        assertTrue(isoDep.close());
+        assertFalse(card.isProtocolActive());
+    }
+
+    @Test
+    public void framesLargerThanFifo() throws Exception {
+        connect(false);
+        byte[] command = apdu(200);
+        assertArrayEquals(echo(command), isoDep.transceive(command));
+        // A single block each way, streamed through the FIFO
+        assertEquals(1, card.blocks);
+        assertEquals(1 + command.length, card.largestCommand);
+        assertEquals(1 + command.length + 2, card.largestAnswer);
+    }
+
+    @Test
+    public void framesLargerThanFifoWithInterruptPin() throws Exception {
+        connect(true);
+        byte[] command = apdu(250);
+        assertArrayEquals(echo(command), isoDep.transceive(command));
+        assertEquals(1, card.blocks);
+    }
+
+    @Test
+    public void chainsBothWays() throws Exception {
+        connect(false);
+        byte[] command = apdu(1000);
+        assertArrayEquals(echo(command), isoDep.transceive(command));
+        // 253 bytes of information per block: 4 I-blocks, the answer to the last one starts the
+        // response, and each R(ACK) fetches one of the 3 remaining blocks
+        assertEquals(4 + 3, card.blocks);
+        assertEquals(isoDep.getFrameSize() - 2, card.largestCommand);
+        assertEquals(isoDep.getFrameSize() - 2, card.largestAnswer);
+
+        // Block numbers stay in sync for the next exchange
+        command = apdu(10);
+        assertArrayEquals(echo(command), isoDep.transceive(command));
+    }
+
+    @Test
+    public void grantsWaitingTimeExtensions() throws Exception {
+        connect(false);
+        card.setWaitingTimeExtensions(3);
+        byte[] command = apdu(300);
+        assertArrayEquals(echo(command), isoDep.transceive(command));
+        assertArrayEquals(echo(command), isoDep.transceive(command));
+        assertEquals(6, card.extensions);
+    }
+
+    @Test
+    public void grantsWaitingTimeExtensionsWithInterruptPin() throws Exception {
+        connect(true);
+        card.setWaitingTimeExtensions(2);
+        byte[] command = apdu(600);
+        assertArrayEquals(echo(command), isoDep.transceive(command));
+        assertEquals(2, card.extensions);
+    }
+
+    private static byte[] apdu(int length){
+        byte[] command = new byte[length];
+        for(int i = 0; i < length; i++){
+            command[i] = (byte) (i * 31 + 7);
+        }
+        return command;
+    }
+
+    private static byte[] echo(byte[] command){
+        byte[] response = Arrays.copyOf(command, command.length + 2);
+        response[command.length] = (byte) 0x90;
+        return response;
+    }
+
+    /**
+     * Answers every APDU with the APDU itself, followed by 90 00, counting the blocks exchanged,
+     * the largest ones, and the waiting time extensions granted
+     */
+    private static class EchoCard extends IsoDepCard {
+        int blocks;
+        int largestCommand;
+        int largestAnswer;
+        int extensions;
+
+        EchoCard(byte[] uid){
+            super(uid);
+        }
+
+        @Override
+        protected int transceiveBlock(byte[] frame, int length, byte[] response){
+            int bits = super.transceiveBlock(frame, length, response);
+            if((frame[0] & 0xE2) == 0x02 || (frame[0] & 0xF6) == 0xA2){
+                blocks++;
+            }else if((frame[0] & 0xF7) == 0xF2){
+                extensions++;
+            }
+            largestCommand = Math.max(largestCommand, length);
+            largestAnswer = Math.max(largestAnswer, bits / 8 - 2);
+            return bits;
+        }
+
+        @Override
+        protected int processApdu(byte[] command, int length, byte[] response){
+            System.arraycopy(command, 0, response, 0, length);
+            response[length] = (byte) 0x90;
+            response[length + 1] = 0x00;
+            return length + 2;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.galarzaa.androidthings;
+
+import com.galarzaa.androidthings.simulator.Mfrc522Simulator;
+import com.galarzaa.androidthings.simulator.MifareClassicCard;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Authenticates sectors with {@link Rc522#authenticateSector(int, KeyCache, List)}, with keys
+ * remembered by a cache that may be wrong, or tried on a tag that isn't selected anymore.
+ */
+public class KeyCacheTest {
+    private static final SectorKey DEFAULT_KEY = new SectorKey(Rc522.AUTH_A, new byte[]{-1, -1, -1, -1, -1, -1});
+    private static final SectorKey OTHER_KEY = new SectorKey(Rc522.AUTH_A, new byte[]{0x12, 0x34, 0x56, 0x78, (byte) 0x9A, (byte) 0xBC});
+    private static final List<SectorKey> KEYS = Arrays.asList(OTHER_KEY, DEFAULT_KEY);
+
+    private MifareClassicCard card;
+    private Rc522 rc522;
+    private KeyCache cache;
+    private TagInfo tag;
+
+    @Before
+    public void setUp() throws Exception {
+        Mfrc522Simulator simulator = new Mfrc522Simulator();
+        card = new MifareClassicCard(new byte[]{0x01, 0x02, 0x03, 0x04}, false);
+        simulator.addCard(card);
+        rc522 = new Rc522(simulator);
+        cache = new KeyCache(16);
+        tag = rc522.activateTag(Rc522.REQUEST_ALL);
+        assertNotNull(tag);
+    }
+
+    @Test
+    public void cachedKeyIsRemembered(){
+        assertEquals(DEFAULT_KEY, rc522.authenticateSector(0, cache, KEYS));
+        long hits = cache.getHitCount();
+        assertEquals(DEFAULT_KEY, rc522.authenticateSector(0, cache, KEYS));
+        assertEquals(hits + 1, cache.getHitCount());
+    }
+
+    @Test
+    public void wrongCachedKeyIsReplaced(){
+        card.setKeys(1, OTHER_KEY.getKey(), OTHER_KEY.getKey());
+        cache.put(tag.getUid(), tag.getSak(), 1, DEFAULT_KEY);
+        assertEquals(OTHER_KEY, rc522.authenticateSector(1, cache, KEYS));
+        assertEquals(OTHER_KEY, cache.get(tag.getUid(), tag.getSak(), 1));
+    }
+
+    @Test
+    public void cachedKeyIsRetriedOnStaleSelection(){
+        assertEquals(DEFAULT_KEY, rc522.authenticateSector(0, cache, KEYS));
+        // A halted tag doesn't answer REQA, so the authentication fails although the key is right
+        rc522.haltTag();
+        assertNull(rc522.activateTag(Rc522.REQUEST_IDLE));
+        assertEquals(DEFAULT_KEY, rc522.authenticateSector(0, cache, KEYS));
+        assertEquals(DEFAULT_KEY, cache.get(tag.getUid(), tag.getSak(), 0));
+    }
+
+    @Test
+    public void keyIsRetriedOnStaleSelection(){
+        rc522.haltTag();
+        assertNull(rc522.activateTag(Rc522.REQUEST_IDLE));
+        assertEquals(DEFAULT_KEY, rc522.authenticateSector(0, cache, Arrays.asList(DEFAULT_KEY)));
+    }
+
+    @Test
+    public void missingKeyLeavesTagSelected(){
+        card.setKeys(2, OTHER_KEY.getKey(), OTHER_KEY.getKey());
+        assertNull(rc522.authenticateSector(2, cache, Arrays.asList(DEFAULT_KEY)));
+        byte[] buffer = new byte[16];
+        assertNotNull(rc522.authenticateSector(0, cache, KEYS));
+        assertTrue(rc522.readBlock((byte) 1, buffer));
+    }
+}
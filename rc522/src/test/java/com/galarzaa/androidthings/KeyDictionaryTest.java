@@ -0,0 +1,90 @@
+package com.galarzaa.androidthings;
+
+import com.galarzaa.androidthings.simulator.Mfrc522Simulator;
+import com.galarzaa.androidthings.simulator.MifareClassicCard;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Searches sector keys with a {@link KeyDictionary}, selecting the tag again after every rejected
+ * key, and checks that only keys the tag rejected count as misses.
+ */
+public class KeyDictionaryTest {
+    private static final SectorKey DEFAULT_KEY = new SectorKey(Rc522.AUTH_A, new byte[]{-1, -1, -1, -1, -1, -1});
+    private static final SectorKey OTHER_KEY = new SectorKey(Rc522.AUTH_A, new byte[]{0x12, 0x34, 0x56, 0x78, (byte) 0x9A, (byte) 0xBC});
+    private static final int SECTORS = 16;
+    private static final int OTHER_SECTOR = 5;
+
+    private Mfrc522Simulator simulator;
+    private MifareClassicCard card;
+    private Rc522 rc522;
+    private KeyDictionary dictionary;
+
+    @Before
+    public void setUp() throws Exception {
+        simulator = new Mfrc522Simulator();
+        card = new MifareClassicCard(new byte[]{0x01, 0x02, 0x03, 0x04}, false);
+        card.setKeys(OTHER_SECTOR, OTHER_KEY.getKey(), OTHER_KEY.getKey());
+        simulator.addCard(card);
+        rc522 = new Rc522(simulator);
+        dictionary = new KeyDictionary(Arrays.asList(DEFAULT_KEY, OTHER_KEY));
+        assertNotNull(rc522.activateTag(Rc522.REQUEST_ALL));
+    }
+
+    @Test
+    public void findsKeyAfterReselecting(){
+        SectorKey[] keys = new SectorKey[SECTORS];
+        KeyCache cache = new KeyCache(64);
+        assertEquals(0xFFFFL, rc522.findSectorKeys(dictionary, cache, keys));
+        for(int sector = 0; sector < SECTORS; sector++){
+            assertEquals("sector " + sector, sector == OTHER_SECTOR ? OTHER_KEY : DEFAULT_KEY, keys[sector]);
+        }
+        // The default key was rejected once, on the sector that needed the other key
+        assertEquals(SECTORS, dictionary.getAttemptCount(DEFAULT_KEY));
+        assertEquals(SECTORS - 1, dictionary.getHitCount(DEFAULT_KEY));
+        assertEquals(1, dictionary.getAttemptCount(OTHER_KEY));
+        assertEquals(1, dictionary.getHitCount(OTHER_KEY));
+        assertEquals(OTHER_KEY, dictionary.getKeys(OTHER_SECTOR).get(0));
+        // The tag is left authenticated for the last sector
+        byte[] buffer = new byte[16];
+        assertTrue(rc522.readBlock((byte) 60, buffer));
+
+        // Searching again only takes the cached keys
+        assertEquals(0xFFFFL, rc522.findSectorKeys(dictionary, cache, keys));
+        assertEquals(SECTORS, dictionary.getAttemptCount(DEFAULT_KEY));
+        assertEquals(1, dictionary.getAttemptCount(OTHER_KEY));
+    }
+
+    @Test
+    public void staleSelectionIsNoMiss(){
+        rc522.haltTag();
+        assertNull(rc522.activateTag(Rc522.REQUEST_IDLE));
+        assertEquals(DEFAULT_KEY, rc522.authenticateSector(0, null, dictionary));
+        assertEquals(1, dictionary.getAttemptCount(DEFAULT_KEY));
+        assertEquals(1, dictionary.getHitCount(DEFAULT_KEY));
+
+        rc522.haltTag();
+        assertNull(rc522.activateTag(Rc522.REQUEST_IDLE));
+        SectorKey[] keys = new SectorKey[SECTORS];
+        assertEquals(0xFFFFL, rc522.findSectorKeys(dictionary, null, keys));
+        assertEquals(1 + SECTORS, dictionary.getAttemptCount(DEFAULT_KEY));
+        assertEquals(SECTORS, dictionary.getHitCount(DEFAULT_KEY));
+    }
+
+    @Test
+    public void lostTagIsNoMiss(){
+        simulator.removeCard(card);
+        SectorKey[] keys = new SectorKey[SECTORS];
+        assertEquals(0L, rc522.findSectorKeys(dictionary, null, keys));
+        assertEquals(0, dictionary.getAttemptCount(DEFAULT_KEY));
+        assertEquals(0, dictionary.getAttemptCount(OTHER_KEY));
+    }
+}
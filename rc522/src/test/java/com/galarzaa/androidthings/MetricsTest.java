@@ -0,0 +1,105 @@
+package com.galarzaa.androidthings;
+
+import com.galarzaa.androidthings.Rc522Metrics.LatencyHistogram;
+import com.galarzaa.androidthings.simulator.Mfrc522Simulator;
+import com.galarzaa.androidthings.simulator.MifareClassicCard;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the histogram's bucket boundaries and percentiles with known durations, and that the SPI
+ * traffic of an operation is attributed to it.
+ */
+public class MetricsTest {
+    private static final byte[] DEFAULT_KEY = {-1, -1, -1, -1, -1, -1};
+    private static final byte BLOCK = 4;
+
+    private Rc522Metrics metrics;
+
+    @Before
+    public void setUp(){
+        metrics = new Rc522Metrics();
+    }
+
+    @Test
+    public void bucketBoundaries(){
+        LatencyHistogram histogram = metrics.getLatency(Rc522.CommandType.READ);
+        long[] nanos = {0, 999, 1000, 1999, 2000, 3999, 4000, 1000000, (1L << 30) * 1000 - 1, (1L << 30) * 1000, Long.MAX_VALUE};
+        int[] buckets = {0, 0, 1, 1, 2, 2, 3, 10, 30, 31, 31};
+        for(long duration : nanos){
+            histogram.record(duration);
+        }
+        long[] expected = new long[LatencyHistogram.BUCKETS];
+        for(int bucket : buckets){
+            expected[bucket]++;
+        }
+        for(int i = 0; i < LatencyHistogram.BUCKETS; i++){
+            assertEquals("bucket " + i, expected[i], histogram.getBucketCount(i));
+        }
+        assertEquals(nanos.length, histogram.getCount());
+        assertEquals(1, LatencyHistogram.getBucketLimitMicros(0));
+        assertEquals(1L << 30, LatencyHistogram.getBucketLimitMicros(30));
+    }
+
+    @Test
+    public void percentiles(){
+        LatencyHistogram histogram = metrics.getLatency(Rc522.Operation.READ);
+        assertEquals(0, histogram.getPercentileMicros(50));
+        // 90 durations in [64, 128) microseconds, 9 in [512, 1024) and 1 in [8192, 16384)
+        for(int i = 0; i < 90; i++){
+            histogram.record(100000);
+        }
+        for(int i = 0; i < 9; i++){
+            histogram.record(600000);
+        }
+        histogram.record(10000000);
+        assertEquals(128, histogram.getPercentileMicros(0));
+        assertEquals(128, histogram.getPercentileMicros(50));
+        assertEquals(128, histogram.getPercentileMicros(90));
+        assertEquals(1024, histogram.getPercentileMicros(90.5));
+        assertEquals(1024, histogram.getPercentileMicros(99));
+        assertEquals(16384, histogram.getPercentileMicros(99.5));
+        assertEquals(16384, histogram.getPercentileMicros(100));
+        assertEquals(10000, histogram.getMaxMicros());
+        assertEquals(100, histogram.getCount());
+
+        metrics.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileMicros(99));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void percentileOutOfRange(){
+        metrics.getLatency(Rc522.Operation.READ).getPercentileMicros(100.5);
+    }
+
+    @Test
+    public void transfersPerOperation() throws Exception {
+        Mfrc522Simulator simulator = new Mfrc522Simulator();
+        simulator.addCard(new MifareClassicCard(new byte[]{0x01, 0x02, 0x03, 0x04}, false));
+        Rc522 rc522 = new Rc522(simulator);
+        assertTrue(rc522.activateTag(Rc522.REQUEST_ALL) != null);
+        assertTrue(rc522.authenticateCard(Rc522.AUTH_A, BLOCK, DEFAULT_KEY));
+        byte[] buffer = new byte[16];
+        // The first read reprograms the timer for its timeout, which stays cached afterwards
+        assertTrue(rc522.readBlock(BLOCK, buffer));
+
+        rc522.setMetricsListener(metrics);
+        simulator.resetCounters();
+        assertTrue(rc522.readBlock(BLOCK, buffer));
+        assertTrue(rc522.readBlock(BLOCK, buffer));
+        assertEquals(2 * 11, metrics.getTransferCount(Rc522.Operation.READ));
+        assertEquals(2 * 44, metrics.getTransferByteCount(Rc522.Operation.READ));
+        assertEquals(simulator.getTransferCount(), metrics.getTransferCount());
+        assertEquals(simulator.getByteCount(), metrics.getTransferByteCount());
+        assertEquals(0, metrics.getTransferCount(Rc522.Operation.WRITE));
+        // The CRC of the request is part of the read
+        long crc = metrics.getTransferCount(Rc522.Operation.CALCULATE_CRC);
+        assertTrue(crc <= metrics.getTransferCount(Rc522.Operation.READ));
+        assertEquals(2, metrics.getLatency(Rc522.Operation.READ).getCount());
+    }
+}
@@ -0,0 +1,313 @@
+package com.galarzaa.androidthings;
+
+import com.galarzaa.androidthings.simulator.Mfrc522Simulator;
+import com.galarzaa.androidthings.simulator.MifareClassicCard;
+import com.google.android.things.pio.SpiDevice;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Records sessions with the simulator through a {@link RecordingSpiDevice}, and replays them
+ * without it, checking the driver sees the same results.
+ * <br>
+ * The anticollision replay checks the frames sent and the CollReg values they depend on, so it
+ * can be run against a capture of real tags with the same UIDs.
+ */
+public class RecordReplayTest {
+    private static final byte[] DEFAULT_KEY = {-1, -1, -1, -1, -1, -1};
+    /* Enough reads for the log to take several of the recorder's 32 KiB blocks */
+    private static final int READS = 1000;
+    /* FIFODataReg, read */
+    private static final byte READ_FIFO = (byte) 0x92;
+
+    private SimulatedSpiDevice device;
+
+    @Before
+    public void setUp(){
+        device = new SimulatedSpiDevice();
+        device.simulator.addCard(new MifareClassicCard(new byte[]{0x01, 0x02, 0x03, 0x04}, false));
+    }
+
+    @Test
+    public void replaysSession() throws IOException {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        RecordingSpiDevice recorder = new RecordingSpiDevice(device, log);
+        String recorded = session(new Rc522(recorder, null), (byte) 4);
+        long records = recorder.getRecordCount();
+        recorder.close();
+        assertTrue(log.size() > 64 * 1024);
+
+        ReplaySpiDevice replay = new ReplaySpiDevice(new ByteArrayInputStream(log.toByteArray()));
+        assertEquals(recorded, session(new Rc522(replay, null), (byte) 4));
+        assertEquals(records, replay.getRecordCount());
+        assertTrue(replay.isFinished());
+    }
+
+    @Test
+    public void replaysFailedTransfers() throws IOException {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        RecordingSpiDevice recorder = new RecordingSpiDevice(device, log);
+        Rc522 rc522 = new Rc522(recorder, null);
+        // Fails a transfer in the middle of the reads, the one draining an answer from the FIFO
+        device.failAt = device.transfers + 2000;
+        String recorded = session(rc522, (byte) 4);
+        recorder.close();
+        assertTrue(device.transfers > device.failAt);
+        assertEquals(READ_FIFO, device.failedAddress);
+
+        // The read fails, instead of returning the previous read's answer, which was kept in the
+        // driver's buffer with a valid CRC
+        int failed = 0;
+        for(String line : recorded.split("\n")){
+            if(line.startsWith("4 ") || line.startsWith("5 ")){
+                byte block = Byte.parseByte(line.substring(0, 1));
+                String result = line.substring(2);
+                if(result.startsWith("false")){
+                    assertEquals("false " + Rc522.ErrorType.ERROR_COMMUNICATION, result);
+                    failed++;
+                }else{
+                    assertEquals("true " + Rc522.dataToHexString(blockData(block)), result);
+                }
+            }
+        }
+        assertEquals(1, failed);
+
+        ReplaySpiDevice replay = new ReplaySpiDevice(new ByteArrayInputStream(log.toByteArray()));
+        assertEquals(recorded, session(new Rc522(replay, null), (byte) 4));
+        assertTrue(replay.isFinished());
+    }
+
+    @Test
+    public void reportsDivergence() throws IOException {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        RecordingSpiDevice recorder = new RecordingSpiDevice(device, log);
+        session(new Rc522(recorder, null), (byte) 4);
+        recorder.close();
+
+        ReplaySpiDevice replay = new ReplaySpiDevice(new ByteArrayInputStream(log.toByteArray()));
+        try {
+            session(new Rc522(replay, null), (byte) 5);
+            fail("replaying a different block went unnoticed");
+        } catch(IllegalStateException e){
+            assertFalse(replay.isFinished());
+        }
+    }
+
+    @Test
+    public void stopsAtCollisionsPastFirstByte() throws IOException {
+        // Both collide with the first tag at bit 20, and with each other at bit 29
+        device.simulator.addCard(new MifareClassicCard(new byte[]{0x01, 0x02, 0x13, 0x04}, false));
+        device.simulator.addCard(new MifareClassicCard(new byte[]{0x01, 0x02, 0x13, 0x24}, false));
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        RecordingSpiDevice recorder = new RecordingSpiDevice(device, log);
+        Rc522 rc522 = new Rc522(recorder, null);
+        assertNull(rc522.activateTag(Rc522.REQUEST_ALL));
+        assertEquals(Rc522.ErrorType.ERROR_COLLISION, rc522.getError());
+        recorder.close();
+
+        AntiCollisionSpiDevice replay = new AntiCollisionSpiDevice(
+                new ReplaySpiDevice(new ByteArrayInputStream(log.toByteArray())));
+        rc522 = new Rc522(replay, null);
+        assertNull(rc522.activateTag(Rc522.REQUEST_ALL));
+        assertEquals(Rc522.ErrorType.ERROR_COLLISION, rc522.getError());
+        // The collision at bit 20 is resolved as 1. The one at bit 29 comes once two bytes are
+        // known, so CollReg isn't read and no bit is guessed for it
+        assertEquals(Arrays.asList("93 20", "93 45 01 02 13"), replay.frames);
+        assertEquals(Arrays.asList(21), replay.collisionPositions);
+    }
+
+    /**
+     * Activates the tag and writes a block and the one after it, then reads them alternately,
+     * describing the results
+     */
+    private static String session(Rc522 rc522, byte block){
+        StringBuilder sb = new StringBuilder();
+        TagInfo tag = rc522.activateTag(Rc522.REQUEST_ALL);
+        sb.append(tag).append('\n');
+        sb.append(rc522.authenticateCard(Rc522.AUTH_A, block, DEFAULT_KEY)).append('\n');
+        sb.append(rc522.writeBlock(block, blockData(block))).append('\n');
+        sb.append(rc522.writeBlock((byte) (block + 1), blockData((byte) (block + 1)))).append('\n');
+        byte[] buffer = new byte[16];
+        for(int i = 0; i < READS; i++){
+            byte read = (byte) (block + i % 2);
+            boolean success = rc522.readBlock(read, buffer);
+            sb.append(read).append(' ').append(success).append(' ')
+                    .append(success ? Rc522.dataToHexString(buffer) : rc522.getError()).append('\n');
+            if(!success){
+                // Authenticate again. The tag halts after an error, but is still selected when the
+                // transfer with the RC522 failed, and wouldn't answer until halted
+                rc522.stopCrypto();
+                rc522.haltTag();
+                sb.append(rc522.activateTag(Rc522.REQUEST_ALL) != null).append(' ')
+                        .append(rc522.authenticateCard(Rc522.AUTH_A, block, DEFAULT_KEY)).append('\n');
+            }
+        }
+        rc522.haltTag();
+        return sb.toString();
+    }
+
+    /**
+     * Gets the data the session writes to a block, different for every block
+     */
+    private static byte[] blockData(byte block){
+        byte[] data = new byte[16];
+        for(int i = 0; i < data.length; i++){
+            data[i] = (byte) (i * 3 + block);
+        }
+        return data;
+    }
+
+    /**
+     * A SPI device connected to the simulator, that can fail one transfer
+     */
+    private static class SimulatedSpiDevice implements SpiDevice {
+        final Mfrc522Simulator simulator = new Mfrc522Simulator();
+        long transfers;
+        long failAt = -1;
+        /* First byte sent in the failed transfer */
+        byte failedAddress;
+
+        @Override
+        public void transfer(byte[] txBuffer, byte[] rxBuffer, int length) throws IOException {
+            if(transfers++ == failAt){
+                failedAddress = txBuffer[0];
+                throw new IOException("Simulated failure");
+            }
+            simulator.transfer(txBuffer, rxBuffer, length);
+        }
+
+        @Override
+        public void setFrequency(int frequencyHz) throws IOException {
+            simulator.setFrequency(frequencyHz);
+        }
+
+        @Override
+        public void write(byte[] buffer, int length) throws IOException {
+            simulator.transfer(buffer, new byte[length], length);
+        }
+
+        @Override
+        public void read(byte[] buffer, int length) throws IOException {
+            simulator.transfer(new byte[length], buffer, length);
+        }
+
+        @Override
+        public void setMode(int mode){
+        }
+
+        @Override
+        public void setBitJustification(int justification){
+        }
+
+        @Override
+        public void setBitsPerWord(int bitsPerWord){
+        }
+
+        @Override
+        public void setCsChange(boolean change){
+        }
+
+        @Override
+        public void setDelay(int delayUs){
+        }
+
+        @Override
+        public String getName(){
+            return "SPI0.0";
+        }
+
+        @Override
+        public void close(){
+        }
+    }
+
+    /**
+     * Wraps a SPI device, keeping the anticollision frames written to the FIFO and the collision
+     * positions read from CollReg
+     */
+    private static class AntiCollisionSpiDevice implements SpiDevice {
+        /* FIFODataReg write address */
+        private static final byte FIFO_WRITE = 0x09 << 1;
+        /* CollReg read address */
+        private static final byte COLLISION_READ = (byte) (0x0E << 1 | 0x80);
+
+        private final SpiDevice device;
+        final List<String> frames = new ArrayList<>();
+        final List<Integer> collisionPositions = new ArrayList<>();
+
+        AntiCollisionSpiDevice(SpiDevice device){
+            this.device = device;
+        }
+
+        @Override
+        public void transfer(byte[] txBuffer, byte[] rxBuffer, int length) throws IOException {
+            device.transfer(txBuffer, rxBuffer, length);
+            // SEL of any cascade level, with a NVB below 70 as select frames have the full UID
+            if(txBuffer[0] == FIFO_WRITE && length >= 3 && (txBuffer[1] & 0xF9) == 0x91
+                    && (txBuffer[2] & 0xFF) < 0x70){
+                frames.add(Rc522.dataToHexString(txBuffer, 1, length - 1).trim());
+            }else if(txBuffer[0] == COLLISION_READ && length == 2){
+                collisionPositions.add(rxBuffer[1] & 0x1F);
+            }
+        }
+
+        @Override
+        public void setFrequency(int frequencyHz) throws IOException {
+            device.setFrequency(frequencyHz);
+        }
+
+        @Override
+        public void write(byte[] buffer, int length) throws IOException {
+            device.write(buffer, length);
+        }
+
+        @Override
+        public void read(byte[] buffer, int length) throws IOException {
+            device.read(buffer, length);
+        }
+
+        @Override
+        public void setMode(int mode){
+        }
+
+        @Override
+        public void setBitJustification(int justification){
+        }
+
+        @Override
+        public void setBitsPerWord(int bitsPerWord){
+        }
+
+        @Override
+        public void setCsChange(boolean change){
+        }
+
+        @Override
+        public void setDelay(int delayUs){
+        }
+
+        @Override
+        public String getName(){
+            return device.getName();
+        }
+
+        @Override
+        public void close() throws IOException {
+            device.close();
+        }
+    }
+}
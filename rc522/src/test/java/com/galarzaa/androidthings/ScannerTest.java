@@ -0,0 +1,215 @@
+package com.galarzaa.androidthings;
+
+import com.galarzaa.androidthings.simulator.Mfrc522Simulator;
+import com.galarzaa.androidthings.simulator.MifareClassicCard;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the scanner's thread against the simulator, reading its state from the test's thread.
+ */
+public class ScannerTest {
+    private FailingTransport transport;
+    private MifareClassicCard card;
+    private Rc522 rc522;
+    private Rc522Scanner scanner;
+
+    @Before
+    public void setUp() throws Exception {
+        transport = new FailingTransport();
+        card = new MifareClassicCard(new byte[]{0x01, 0x02, 0x03, 0x04}, false);
+        transport.simulator.addCard(card);
+        rc522 = new Rc522(transport);
+        scanner = new Rc522Scanner(rc522);
+        scanner.setFastInterval(1);
+    }
+
+    @Test
+    public void reportsDetectedTag() throws Exception {
+        final CountDownLatch detected = new CountDownLatch(1);
+        scanner.addTagListener(new Rc522Scanner.TagListener() {
+            @Override
+            public void onTagDetected(Rc522 rc522, byte[] uid, byte sak){
+                detected.countDown();
+            }
+
+            @Override
+            public void onTagRemoved(Rc522 rc522, byte[] uid){
+            }
+        });
+        scanner.start();
+        assertTrue(detected.await(5, TimeUnit.SECONDS));
+        float dutyCycle = scanner.getDutyCycle();
+        assertTrue(dutyCycle >= 0 && dutyCycle <= 1);
+        scanner.stop();
+        assertFalse(scanner.isRunning());
+    }
+
+    @Test
+    public void stopsOnUnexpectedException() throws Exception {
+        scanner.start();
+        while(scanner.getPollCount() == 0){
+            Thread.sleep(1);
+        }
+        transport.failing = true;
+        long deadline = System.currentTimeMillis() + 5000;
+        while(scanner.isRunning() && System.currentTimeMillis() < deadline){
+            Thread.sleep(1);
+        }
+        assertFalse(scanner.isRunning());
+        // The scanner can be started again
+        transport.failing = false;
+        long polls = scanner.getPollCount();
+        scanner.start();
+        while(scanner.getPollCount() == polls && System.currentTimeMillis() < deadline){
+            Thread.sleep(1);
+        }
+        assertTrue(scanner.isRunning());
+        scanner.stop();
+    }
+
+    @Test
+    public void stopWaitsForFailedThread() throws Exception {
+        transport.simulator.removeCard(card);
+        scanner.setLowPowerIdle(true);
+        scanner.setActiveWindow(0);
+        scanner.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while(!rc522.isPoweredDown() && System.currentTimeMillis() < deadline){
+            Thread.sleep(1);
+        }
+        // Waking the RC522 up fails, the scanner's thread then wakes it up slowly while stopping
+        transport.failOnce = true;
+        while(!transport.failed && System.currentTimeMillis() < deadline){
+            Thread.sleep(1);
+        }
+        assertTrue(transport.failed);
+        scanner.stop();
+        assertFalse(scanner.isRunning());
+        assertFalse(rc522.isPoweredDown());
+    }
+
+    @Test
+    public void pooledReaderIsOnlyPolledByPool(){
+        Rc522Pool pool = new Rc522Pool();
+        Rc522Scanner pooled = pool.addReader("SPI0", rc522);
+        try {
+            scanner.start();
+            fail("a pooled reader was scanned by its own thread");
+        } catch(IllegalStateException e){
+            assertFalse(scanner.isRunning());
+        }
+        try {
+            pooled.start();
+            fail("a pool's scanner was started");
+        } catch(IllegalStateException e){
+            assertFalse(pooled.isRunning());
+        }
+    }
+
+    @Test
+    public void scannedReaderCantBePooled(){
+        Rc522Pool pool = new Rc522Pool();
+        scanner.start();
+        try {
+            pool.addReader("SPI0", rc522);
+            fail("a scanned reader was added to a pool");
+        } catch(IllegalArgumentException e){
+            assertTrue(pool.getScanners().isEmpty());
+        }
+        // Once stopped, the reader is free
+        scanner.stop();
+        pool.addReader("SPI0", rc522);
+    }
+
+    @Test
+    public void sessionWakesIdleReader() throws Exception {
+        transport.simulator.removeCard(card);
+        scanner.setLowPowerIdle(true);
+        scanner.setActiveWindow(0);
+        // Long intervals, so the scanner doesn't poll while the session is open
+        scanner.setFastInterval(5000);
+        scanner.setIdleInterval(5000);
+        scanner.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while(!rc522.isPoweredDown() && System.currentTimeMillis() < deadline){
+            Thread.sleep(1);
+        }
+        assertTrue(rc522.isPoweredDown());
+
+        transport.simulator.addCard(card);
+        Rc522Result result = new Rc522Result();
+        try (Rc522Session session = rc522.openSession()) {
+            assertFalse(rc522.isPoweredDown());
+            assertNotNull(session.activate(Rc522.REQUEST_ALL, result));
+        }
+        // The scanner still expects the RC522 to be powered down
+        assertTrue(rc522.isPoweredDown());
+        scanner.stop();
+        assertFalse(rc522.isPoweredDown());
+    }
+
+    /**
+     * Throws an unchecked exception from every transfer while failing, like a faulty transport.
+     * It can also fail a single transfer, making every transfer after it slow
+     */
+    private static class FailingTransport implements Rc522Transport {
+        final Mfrc522Simulator simulator = new Mfrc522Simulator();
+        volatile boolean failing;
+        volatile boolean failOnce;
+        volatile boolean failed;
+
+        @Override
+        public void transfer(byte[] txBuffer, byte[] rxBuffer, int length) throws IOException {
+            if(failing){
+                throw new IllegalStateException("Transport failed");
+            }
+            if(failOnce){
+                failOnce = false;
+                failed = true;
+                throw new IllegalStateException("Transport failed");
+            }
+            if(failed){
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            simulator.transfer(txBuffer, rxBuffer, length);
+        }
+
+        @Override
+        public void setFrequency(int frequencyHz) throws IOException {
+            simulator.setFrequency(frequencyHz);
+        }
+
+        @Override
+        public boolean hasInterrupt(){
+            return false;
+        }
+
+        @Override
+        public void clearInterrupt(){
+        }
+
+        @Override
+        public boolean awaitInterrupt(long timeoutNanos){
+            return false;
+        }
+
+        @Override
+        public void close(){
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.galarzaa.androidthings;
+
+import android.os.Handler;
+
+import com.galarzaa.androidthings.simulator.Mfrc522Simulator;
+import com.galarzaa.androidthings.simulator.MifareClassicCard;
+import com.google.android.things.pio.Gpio;
+import com.google.android.things.pio.GpioCallback;
+import com.google.android.things.pio.SpiDevice;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Shares a SPI device between two simulated RC522 modules with different clock frequencies,
+ * selecting each with its own chip select pin.
+ */
+public class SharedBusTest {
+    private static final byte[] DEFAULT_KEY = {-1, -1, -1, -1, -1, -1};
+
+    private SharedSpiDevice device;
+    private Mfrc522Simulator slow;
+    private Mfrc522Simulator fast;
+    private Rc522 slowReader;
+    private Rc522 fastReader;
+
+    @Before
+    public void setUp() throws Exception {
+        device = new SharedSpiDevice();
+        slow = new Mfrc522Simulator();
+        fast = new Mfrc522Simulator();
+        // Long wires on one of the modules
+        slow.setMaxFrequency(2000000);
+        slow.addCard(new MifareClassicCard(new byte[]{0x01, 0x02, 0x03, 0x04}, false));
+        fast.addCard(new MifareClassicCard(new byte[]{0x05, 0x06, 0x07, 0x08}, false));
+        slowReader = new Rc522(new GpioChipSelectSpiDevice(device, new ChipSelect(device, slow)), null);
+        fastReader = new Rc522(new GpioChipSelectSpiDevice(device, new ChipSelect(device, fast)), null);
+    }
+
+    @Test
+    public void keepsFrequencyPerReader(){
+        // 2 MHz passes, 4 MHz doesn't, so the step below 2 MHz is used
+        assertEquals(1000000, slowReader.calibrateBusSpeed());
+        assertEquals(Rc522.MAX_BUS_SPEED, fastReader.calibrateBusSpeed());
+        for(int i = 0; i < 10; i++){
+            assertTrue(readBlock(slowReader));
+            assertEquals(1000000, slow.getFrequency());
+            assertTrue(readBlock(fastReader));
+            assertEquals(Rc522.MAX_BUS_SPEED, fast.getFrequency());
+        }
+        // The frequency only changes when the other reader takes the bus
+        long changes = device.frequencyChanges;
+        assertTrue(readBlock(fastReader));
+        assertTrue(readBlock(fastReader));
+        assertEquals(changes, device.frequencyChanges);
+    }
+
+    @Test
+    public void interleavedOperations(){
+        assertTrue(fastReader.setBusSpeed(8000000));
+        assertNotNull(slowReader.activateTag(Rc522.REQUEST_ALL));
+        assertNotNull(fastReader.activateTag(Rc522.REQUEST_ALL));
+        assertTrue(slowReader.authenticateCard(Rc522.AUTH_A, (byte) 4, DEFAULT_KEY));
+        assertTrue(fastReader.authenticateCard(Rc522.AUTH_A, (byte) 4, DEFAULT_KEY));
+        byte[] buffer = new byte[16];
+        for(int i = 0; i < 10; i++){
+            // At the other reader's 8 MHz, the slow module's answers would be corrupted
+            assertTrue(slowReader.readBlock((byte) 4, buffer));
+            assertTrue(fastReader.readBlock((byte) 4, buffer));
+        }
+        assertEquals(1000000, slow.getFrequency());
+        assertEquals(8000000, fast.getFrequency());
+    }
+
+    private static boolean readBlock(Rc522 rc522){
+        boolean read = rc522.activateTag(Rc522.REQUEST_ALL) != null
+                && rc522.authenticateCard(Rc522.AUTH_A, (byte) 4, DEFAULT_KEY)
+                && rc522.readBlock((byte) 4, new byte[16]);
+        rc522.haltTag();
+        rc522.stopCrypto();
+        return read;
+    }
+
+    /**
+     * A SPI bus routing transfers to the simulator whose chip select is low, at the bus' clock
+     */
+    private static class SharedSpiDevice implements SpiDevice {
+        Mfrc522Simulator selected;
+        int frequencyHz = 1000000;
+        long frequencyChanges;
+
+        @Override
+        public void transfer(byte[] txBuffer, byte[] rxBuffer, int length) throws IOException {
+            // The selected module is clocked at the bus' frequency
+            selected.setFrequency(frequencyHz);
+            selected.transfer(txBuffer, rxBuffer, length);
+        }
+
+        @Override
+        public void setFrequency(int frequencyHz){
+            this.frequencyHz = frequencyHz;
+            frequencyChanges++;
+        }
+
+        @Override
+        public void write(byte[] buffer, int length) throws IOException {
+            transfer(buffer, new byte[length], length);
+        }
+
+        @Override
+        public void read(byte[] buffer, int length) throws IOException {
+            transfer(new byte[length], buffer, length);
+        }
+
+        @Override
+        public void setMode(int mode){
+        }
+
+        @Override
+        public void setBitJustification(int justification){
+        }
+
+        @Override
+        public void setBitsPerWord(int bitsPerWord){
+        }
+
+        @Override
+        public void setCsChange(boolean change){
+        }
+
+        @Override
+        public void setDelay(int delayUs){
+        }
+
+        @Override
+        public String getName(){
+            return "SPI0.0";
+        }
+
+        @Override
+        public void close(){
+        }
+    }
+
+    /**
+     * A chip select pin, connecting a simulator to the bus while low
+     */
+    private static class ChipSelect implements Gpio {
+        private final SharedSpiDevice bus;
+        private final Mfrc522Simulator simulator;
+
+        ChipSelect(SharedSpiDevice bus, Mfrc522Simulator simulator){
+            this.bus = bus;
+            this.simulator = simulator;
+        }
+
+        @Override
+        public void setValue(boolean value){
+            bus.selected = value ? null : simulator;
+        }
+
+        @Override
+        public boolean getValue(){
+            return bus.selected != simulator;
+        }
+
+        @Override
+        public void setDirection(int direction){
+        }
+
+        @Override
+        public void setActiveType(int activeType){
+        }
+
+        @Override
+        public void setEdgeTriggerType(int edgeTriggerType){
+        }
+
+        @Override
+        public void registerGpioCallback(GpioCallback callback){
+        }
+
+        @Override
+        public void registerGpioCallback(Handler handler, GpioCallback callback){
+        }
+
+        @Override
+        public void unregisterGpioCallback(GpioCallback callback){
+        }
+
+        @Override
+        public String getName(){
+            return "BCM" + System.identityHashCode(simulator);
+        }
+
+        @Override
+        public void close(){
+        }
+    }
+}
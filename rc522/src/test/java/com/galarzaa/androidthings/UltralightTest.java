@@ -0,0 +1,131 @@
+package com.galarzaa.androidthings;
+
+import com.galarzaa.androidthings.simulator.Mfrc522Simulator;
+import com.galarzaa.androidthings.simulator.NtagCard;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reads and writes a simulated NTAG216, checking FAST_READ streams its whole user memory in as
+ * few commands as the reader's frame size allows.
+ */
+public class UltralightTest {
+    private static final byte[] PASSWORD = {0x01, 0x23, 0x45, 0x67};
+    private static final byte[] PACK = {(byte) 0x89, (byte) 0xAB};
+    private static final int FIRST_USER_PAGE = 4;
+    /* NTAG216 has 888 bytes of user memory */
+    private static final int LAST_USER_PAGE = 225;
+
+    private Mfrc522Simulator simulator;
+    private CountingNtag card;
+    private Rc522 rc522;
+    private MifareUltralight ultralight;
+
+    @Before
+    public void setUp(){
+        simulator = new Mfrc522Simulator();
+        card = new CountingNtag(new byte[]{0x04, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66});
+        for(int page = FIRST_USER_PAGE; page <= LAST_USER_PAGE; page++){
+            card.setPage(page, new byte[]{(byte) page, (byte) ~page, 0x5A, (byte) (page * 3)});
+        }
+        simulator.addCard(card);
+    }
+
+    private void activate(boolean interruptPin) throws Exception {
+        simulator.setInterruptPin(interruptPin);
+        rc522 = new Rc522(simulator);
+        assertNotNull(rc522.activateTag(Rc522.REQUEST_ALL));
+        ultralight = new MifareUltralight(rc522);
+    }
+
+    @Test
+    public void readsVersion() throws Exception {
+        activate(false);
+        byte[] version = new byte[8];
+        assertTrue(ultralight.getVersion(version));
+        assertArrayEquals(new byte[]{0x00, 0x04, 0x04, 0x02, 0x01, 0x00, 0x13, 0x03}, version);
+    }
+
+    @Test
+    public void fastReadsUserMemory() throws Exception {
+        activate(false);
+        assertUserMemoryRead();
+    }
+
+    @Test
+    public void fastReadsUserMemoryWithInterruptPin() throws Exception {
+        activate(true);
+        assertUserMemoryRead();
+    }
+
+    @Test
+    public void writesPages() throws Exception {
+        activate(false);
+        byte[] data = {0x10, 0x20, 0x30, 0x40};
+        assertTrue(ultralight.writePage(FIRST_USER_PAGE + 1, data));
+        byte[] buffer = new byte[16];
+        assertTrue(ultralight.readPages(FIRST_USER_PAGE, buffer));
+        assertArrayEquals(card.getPage(FIRST_USER_PAGE), Arrays.copyOfRange(buffer, 0, 4));
+        assertArrayEquals(data, Arrays.copyOfRange(buffer, 4, 8));
+        assertArrayEquals(data, card.getPage(FIRST_USER_PAGE + 1));
+    }
+
+    @Test
+    public void passwordProtectsPages() throws Exception {
+        card.setPassword(PASSWORD, PACK, 16, true);
+        activate(false);
+        byte[] buffer = new byte[(LAST_USER_PAGE - FIRST_USER_PAGE + 1) * MifareUltralight.PAGE_SIZE];
+        assertFalse(ultralight.readPages(FIRST_USER_PAGE, LAST_USER_PAGE, buffer, 0));
+        assertEquals(Rc522.ErrorType.ERROR_NAK, ultralight.getError());
+
+        assertNotNull(rc522.activateTag(Rc522.REQUEST_ALL));
+        assertFalse(ultralight.authenticate(new byte[4], null));
+        assertEquals(Rc522.ErrorType.ERROR_AUTHENTICATION, ultralight.getError());
+
+        assertNotNull(rc522.activateTag(Rc522.REQUEST_ALL));
+        byte[] pack = new byte[2];
+        assertTrue(ultralight.authenticate(PASSWORD, pack));
+        assertArrayEquals(PACK, pack);
+        assertTrue(ultralight.readPages(FIRST_USER_PAGE, LAST_USER_PAGE, buffer, 0));
+        assertTrue(ultralight.writePage(16, new byte[4]));
+    }
+
+    private void assertUserMemoryRead(){
+        byte[] buffer = new byte[(LAST_USER_PAGE - FIRST_USER_PAGE + 1) * MifareUltralight.PAGE_SIZE];
+        assertTrue(ultralight.readPages(FIRST_USER_PAGE, LAST_USER_PAGE, buffer, 0));
+        for(int page = FIRST_USER_PAGE; page <= LAST_USER_PAGE; page++){
+            int offset = (page - FIRST_USER_PAGE) * MifareUltralight.PAGE_SIZE;
+            assertArrayEquals("page " + page, card.getPage(page), Arrays.copyOfRange(buffer, offset, offset + 4));
+        }
+        // 63 pages per command, so each answer and its CRC fit a 256 byte frame
+        assertEquals(4, card.fastReads);
+    }
+
+    /**
+     * Counts the FAST_READ commands received
+     */
+    private static class CountingNtag extends NtagCard {
+        int fastReads;
+
+        CountingNtag(byte[] uid){
+            super(uid, 216);
+        }
+
+        @Override
+        protected int transceiveActive(byte[] frame, int bits, byte[] response){
+            if(frame[0] == 0x3A){
+                fastReads++;
+            }
+            return super.transceiveActive(frame, bits, response);
+        }
+    }
+}
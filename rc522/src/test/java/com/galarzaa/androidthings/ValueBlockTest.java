@@ -0,0 +1,95 @@
+package com.galarzaa.androidthings;
+
+import com.galarzaa.androidthings.simulator.Mfrc522Simulator;
+import com.galarzaa.androidthings.simulator.MifareClassicCard;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs value block operations and batches, checking that the tag's answers to the operand are
+ * taken as failures and a timeout as success.
+ */
+public class ValueBlockTest {
+    private static final byte[] DEFAULT_KEY = {-1, -1, -1, -1, -1, -1};
+    private static final byte VALUE = 4;
+    private static final byte BACKUP = 5;
+    /* A data block, not in the value block format */
+    private static final byte DATA = 6;
+
+    private MifareClassicCard card;
+    private Rc522 rc522;
+
+    @Before
+    public void setUp() throws Exception {
+        Mfrc522Simulator simulator = new Mfrc522Simulator();
+        card = new MifareClassicCard(new byte[]{0x01, 0x02, 0x03, 0x04}, false);
+        simulator.addCard(card);
+        rc522 = new Rc522(simulator);
+        assertTrue(rc522.activateTag(Rc522.REQUEST_ALL) != null);
+        assertTrue(rc522.authenticateCard(Rc522.AUTH_A, VALUE, DEFAULT_KEY));
+        assertTrue(rc522.writeValue(VALUE, 100));
+    }
+
+    @Test
+    public void operationsTransferTheResult(){
+        assertTrue(rc522.increaseBlock(VALUE, 25, VALUE));
+        assertEquals(Integer.valueOf(125), rc522.readValue(VALUE));
+        assertTrue(rc522.decreaseBlock(VALUE, 200, VALUE));
+        assertEquals(Integer.valueOf(-75), rc522.readValue(VALUE));
+        assertTrue(rc522.restoreBlock(VALUE, BACKUP));
+        assertEquals(Integer.valueOf(-75), rc522.readValue(BACKUP));
+    }
+
+    @Test
+    public void separateTransfer(){
+        assertTrue(rc522.increaseBlock(VALUE, 1));
+        // Nothing is written until the transfer
+        assertEquals(Integer.valueOf(100), rc522.readValue(VALUE));
+        assertTrue(rc522.increaseBlock(VALUE, 1));
+        assertTrue(rc522.transferBlock(BACKUP));
+        assertEquals(Integer.valueOf(101), rc522.readValue(BACKUP));
+    }
+
+    @Test
+    public void invalidBlockIsNaked(){
+        assertFalse(rc522.increaseBlock(DATA, 1, DATA));
+        assertEquals(Rc522.ErrorType.ERROR_NAK, rc522.getError());
+    }
+
+    @Test
+    public void lateNakIsSeen(){
+        // Well past the frame delay time, and past the 1 ms the operand used to be given
+        card.setValueNakDelay(3000);
+        // Missing it would take the operation as successful, leaving a value to transfer
+        assertFalse(rc522.increaseBlock(DATA, 1));
+        assertEquals(Rc522.ErrorType.ERROR_NAK, rc522.getError());
+    }
+
+    @Test
+    public void batchStopsAtFirstFailure(){
+        ValueBatch batch = rc522.newValueBatch()
+                .decrease(VALUE, 30, VALUE)
+                .restore(VALUE, BACKUP);
+        assertTrue(batch.commit());
+        assertEquals(2, batch.getCompletedCount());
+        assertEquals(Integer.valueOf(70), rc522.readValue(VALUE));
+        assertEquals(Integer.valueOf(70), rc522.readValue(BACKUP));
+
+        batch.clear();
+        batch.increase(VALUE, 5, VALUE)
+                .increase(DATA, 5, DATA)
+                .increase(BACKUP, 5, BACKUP);
+        assertFalse(batch.commit());
+        assertEquals(1, batch.getCompletedCount());
+        // The tag halted after the failure, so the sector is authenticated again to check it
+        assertTrue(rc522.activateTag(Rc522.REQUEST_ALL) != null);
+        assertTrue(rc522.authenticateCard(Rc522.AUTH_A, VALUE, DEFAULT_KEY));
+        assertEquals(Integer.valueOf(75), rc522.readValue(VALUE));
+        assertEquals(Integer.valueOf(70), rc522.readValue(BACKUP));
+    }
+}